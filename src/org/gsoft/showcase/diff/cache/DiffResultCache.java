@@ -0,0 +1,224 @@
+package org.gsoft.showcase.diff.cache;
+
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.generators.DiffItemType;
+import org.gsoft.showcase.diff.generators.IntArraySequence;
+import org.gsoft.showcase.diff.generators.IntSequence;
+import org.gsoft.showcase.diff.io.FileComparisonUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of computed diffs.
+ *
+ * Entries are keyed by hashes of compared files contents, diff algorithm and its options.
+ * Only compact edit script (type and length of every diff item) is stored - diff items
+ * are restored from encoded files on loading.
+ *
+ * Cache size is bounded; least recently used entries are evicted first
+ * (file modification time is used as access time).
+ */
+public final class DiffResultCache {
+    private static final class EntryInfo {
+        final Path path;
+        final long size;
+        final long lastAccessTime;
+
+        EntryInfo(Path path, long size, long lastAccessTime) {
+            this.path = path;
+            this.size = size;
+            this.lastAccessTime = lastAccessTime;
+        }
+    }
+
+    private static final int MAGIC = 0x44494646; // "DIFF"
+    private static final int VERSION = 1;
+
+    private static final String ENTRY_FILE_SUFFIX = ".diff";
+
+    private static final DiffItemType[] ITEM_TYPES = DiffItemType.values();
+
+    private final Path directory;
+    private final long maxSizeBytes;
+
+    public DiffResultCache(Path directory, long maxSizeBytes) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    public static String makeKey(String contentHashA, String contentHashB, String algorithm, String options) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // every Java platform is required to support SHA-256
+        }
+
+        String keyComponents = String.join("\n", contentHashA, contentHashB, algorithm, options);
+        return FileComparisonUtils.toHexString(digest.digest(keyComponents.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @param a "before" encoded string the diff was generated for
+     * @param b "after" encoded string the diff was generated for
+     * @return cached diff items or null if there is no (valid) entry for the key
+     */
+    public List<DiffItem> load(String key, int[] a, int[] b) throws IOException {
+        return load(key, new IntArraySequence(a), new IntArraySequence(b));
+    }
+
+    /**
+     * The same as {@link #load(String, int[], int[])}, strings may be stored off-heap
+     */
+    public List<DiffItem> load(String key, IntSequence a, IntSequence b) throws IOException {
+        Path entryPath = getEntryPath(key);
+
+        List<DiffItem> result;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entryPath)))) {
+            result = readItems(in, a, b);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (EOFException e) {
+            result = null; // truncated
+        }
+
+        if (result == null) {
+            // invalid entry is removed, so that it is not read and rejected again until it is evicted
+            Files.deleteIfExists(entryPath);
+            return null;
+        }
+
+        // marking as recently used
+        Files.setLastModifiedTime(entryPath, FileTime.fromMillis(System.currentTimeMillis()));
+
+        return result;
+    }
+
+    public synchronized void store(String key, List<DiffItem> diffItems) throws IOException {
+        Files.createDirectories(directory);
+
+        Path tempPath = Files.createTempFile(directory, key, ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(diffItems.size());
+                for (DiffItem item : diffItems) {
+                    out.writeByte(item.getType().ordinal());
+                    out.writeInt(item.getLength());
+                }
+            }
+
+            Files.move(tempPath, getEntryPath(key), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+
+        evictLeastRecentlyUsed(getEntryPath(key));
+    }
+
+    private void evictLeastRecentlyUsed(Path justStoredEntryPath) throws IOException {
+        List<Path> entries;
+        try (Stream<Path> paths = Files.list(directory)) {
+            entries = paths
+                    .filter(p -> p.getFileName().toString().endsWith(ENTRY_FILE_SUFFIX))
+                    .filter(p -> !p.equals(justStoredEntryPath))
+                    .collect(Collectors.toList());
+        }
+
+        long totalSize = Files.size(justStoredEntryPath);
+        List<EntryInfo> entryInfos = new ArrayList<>(entries.size());
+        for (Path entry : entries) {
+            try {
+                EntryInfo info = new EntryInfo(entry, Files.size(entry), Files.getLastModifiedTime(entry).toMillis());
+                entryInfos.add(info);
+                totalSize += info.size;
+            } catch (NoSuchFileException e) {
+                // already removed
+            }
+        }
+
+        if (totalSize <= maxSizeBytes) {
+            return;
+        }
+
+        entryInfos.sort(Comparator.comparingLong(info -> info.lastAccessTime));
+
+        for (EntryInfo info : entryInfos) {
+            if (totalSize <= maxSizeBytes) {
+                break;
+            }
+            Files.deleteIfExists(info.path);
+            totalSize -= info.size;
+        }
+    }
+
+    /**
+     * @return diff items of entry or null if it is corrupted or does not match the strings
+     */
+    private static List<DiffItem> readItems(DataInputStream in, IntSequence a, IntSequence b) throws IOException {
+        if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+            return null;
+        }
+
+        int itemCount = in.readInt();
+        if (itemCount < 0) {
+            return null; // corrupted
+        }
+
+        List<DiffItem> result = new ArrayList<>();
+        int posA = 0, posB = 0;
+
+        for (int i = 0; i < itemCount; i++) {
+            int typeOrdinal = in.readByte();
+            int length = in.readInt();
+
+            if ((typeOrdinal < 0) || (typeOrdinal >= ITEM_TYPES.length) || (length < 0)) {
+                return null; // corrupted
+            }
+
+            DiffItemType type = ITEM_TYPES[typeOrdinal];
+
+            int[] chars;
+            if (type == DiffItemType.INSERT) {
+                if (length > b.length() - posB) {
+                    return null; // does not match the strings
+                }
+                chars = b.toArray(posB, posB + length);
+                posB += length;
+            } else {
+                if (length > a.length() - posA) {
+                    return null; // does not match the strings
+                }
+                chars = a.toArray(posA, posA + length);
+                posA += length;
+                if (type == DiffItemType.EQUAL) {
+                    posB += length;
+                }
+            }
+
+            result.add(new DiffItem(type, chars));
+        }
+
+        if ((posA != a.length()) || (posB != b.length())) {
+            return null; // does not match the strings
+        }
+
+        return result;
+    }
+
+    private Path getEntryPath(String key) {
+        return directory.resolve(key + ENTRY_FILE_SUFFIX);
+    }
+}
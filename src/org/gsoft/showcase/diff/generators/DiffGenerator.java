@@ -12,4 +12,13 @@ public interface DiffGenerator {
      * @return diff items
      */
     List<DiffItem> generate(int[] a, int[] b);
+
+    /**
+     * The same as {@link #generate(int[], int[])} for strings given as sequences (e.g. stored off-heap).
+     *
+     * By default strings are copied to heap; generators reading them in place override this.
+     */
+    default List<DiffItem> generate(IntSequence a, IntSequence b) {
+        return generate(a.toArray(0, a.length()), b.toArray(0, b.length()));
+    }
 }
@@ -1,33 +1,122 @@
 package org.gsoft.showcase.diff.generators;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public final class DiffGeneratorUtils {
     public static final class LinesEncoding {
-        private final int[] linesA;
-        private final int[] linesB;
+        private final IntSequence linesA;
+        private final IntSequence linesB;
+        private final String[] textLinesA;
+        private final String[] textLinesB;
         private final Map<Integer, String> linesDecodingMap;
+        private final LineComparisonOptions options;
 
-        public LinesEncoding(int[] linesA, int[] linesB, Map<Integer, String> linesDecodingMap) {
+        /**
+         * @param textLinesA original lines of file A (lines having the same code may differ
+         *                   unless comparison options are exact)
+         * @param textLinesB original lines of file B
+         */
+        public LinesEncoding(int[] linesA, int[] linesB, String[] textLinesA, String[] textLinesB,
+                             Map<Integer, String> linesDecodingMap, LineComparisonOptions options) {
+            this(new IntArraySequence(linesA), new IntArraySequence(linesB), textLinesA, textLinesB,
+                    linesDecodingMap, options);
+        }
+
+        /**
+         * The same as {@link #LinesEncoding(int[], int[], String[], String[], Map, LineComparisonOptions)},
+         * encoded lines may be stored off-heap
+         */
+        public LinesEncoding(IntSequence linesA, IntSequence linesB, String[] textLinesA, String[] textLinesB,
+                             Map<Integer, String> linesDecodingMap, LineComparisonOptions options) {
             this.linesA = linesA;
             this.linesB = linesB;
+            this.textLinesA = textLinesA;
+            this.textLinesB = textLinesB;
             this.linesDecodingMap = linesDecodingMap;
+            this.options = options;
         }
 
+        /**
+         * @return encoded lines of file A (copied to heap if they are stored off-heap)
+         */
         public int[] getLinesA() {
-            return linesA;
+            return toArray(linesA);
         }
 
+        /**
+         * @return encoded lines of file B (copied to heap if they are stored off-heap)
+         */
         public int[] getLinesB() {
+            return toArray(linesB);
+        }
+
+        /**
+         * @return encoded lines of file A without copying them
+         */
+        public IntSequence getSequenceA() {
+            return linesA;
+        }
+
+        /**
+         * @return encoded lines of file B without copying them
+         */
+        public IntSequence getSequenceB() {
             return linesB;
         }
 
+        public String[] getTextLinesA() {
+            return textLinesA;
+        }
+
+        public String[] getTextLinesB() {
+            return textLinesB;
+        }
+
+        /**
+         * @return view of [start, end) original lines of file A (lines are not copied)
+         */
+        public TextLines getTextLinesA(int start, int end) {
+            return new TextLines(textLinesA, start, end);
+        }
+
+        /**
+         * @return view of [start, end) original lines of file B (lines are not copied)
+         */
+        public TextLines getTextLinesB(int start, int end) {
+            return new TextLines(textLinesB, start, end);
+        }
+
         public Map<Integer, String> getLinesDecodingMap() {
             return Collections.unmodifiableMap(linesDecodingMap);
         }
+
+        public LineComparisonOptions getOptions() {
+            return options;
+        }
+
+        /**
+         * @return encoding of [startA, endA) lines of file A and [startB, endB) lines of file B
+         */
+        public LinesEncoding subRange(int startA, int endA, int startB, int endB) {
+            return new LinesEncoding(linesA.subSequence(startA, endA), linesB.subSequence(startB, endB),
+                    Arrays.copyOfRange(textLinesA, startA, endA), Arrays.copyOfRange(textLinesB, startB, endB),
+                    linesDecodingMap, options);
+        }
+
+        private static int[] toArray(IntSequence lines) {
+            if (lines instanceof IntArraySequence) {
+                IntArraySequence arraySequence = (IntArraySequence) lines;
+                if ((arraySequence.getOffset() == 0) && (arraySequence.length() == arraySequence.getArray().length)) {
+                    return arraySequence.getArray();
+                }
+            }
+            return lines.toArray(0, lines.length());
+        }
     }
 
     private DiffGeneratorUtils() {
@@ -62,55 +151,131 @@ public final class DiffGeneratorUtils {
      * Each int will represent single line.
      */
     public static LinesEncoding encodeLines(String[] linesA, String[] linesB, AtomicBoolean stopFlag) {
-        Map<String, Integer> encodingMap = new HashMap<>(linesA.length);
-        Map<Integer, String> decodingMap = new HashMap<>(linesA.length);
+        return encodeLines(linesA, linesB, LineComparisonOptions.EXACT, stopFlag);
+    }
 
-        int[] linesAEncoded = new int[linesA.length];
-        int[] linesBEncoded = new int[linesB.length];
+    /**
+     * The same as {@link #encodeLines(String[], String[], AtomicBoolean)}, but lines equal according
+     * to options are encoded with the same int.
+     */
+    public static LinesEncoding encodeLines(String[] linesA, String[] linesB, LineComparisonOptions options,
+                                            AtomicBoolean stopFlag) {
+        LineDictionary dictionary = new LineDictionary(options);
 
-        int counter = encodeLines(Integer.MIN_VALUE, linesA, linesAEncoded, encodingMap, decodingMap, stopFlag);
-        encodeLines(counter, linesB, linesBEncoded, encodingMap, decodingMap, stopFlag);
+        int[] linesAEncoded = dictionary.encode(linesA, stopFlag);
+        int[] linesBEncoded = dictionary.encode(linesB, stopFlag);
 
-        return new LinesEncoding(linesAEncoded, linesBEncoded, decodingMap);
+        return new LinesEncoding(linesAEncoded, linesBEncoded, linesA, linesB, dictionary.getDecodingMap(), options);
     }
 
     /**
      * Decode lines found in {@link DiffItem#chars}
-     * (diff must be generated based on lines encoded with {@link DiffGeneratorUtils#encodeLines(java.lang.String[], java.lang.String[], java.util.concurrent.atomic.AtomicBoolean)})
+     * (diff must be generated based on lines encoded with {@link DiffGeneratorUtils#encodeLines(java.lang.String[], java.lang.String[], java.util.concurrent.atomic.AtomicBoolean)});
+     * if lines are not compared exactly, the first of equal lines is returned for each code
      */
     public static String[] decodeLines(int[] lines, LinesEncoding encoding) {
+        Map<Integer, String> decodingMap = encoding.getLinesDecodingMap();
         String[] result = new String[lines.length];
         for (int i = 0; i < lines.length; i++) {
-            result[i] = encoding.getLinesDecodingMap().get(lines[i]);
+            result[i] = decodingMap.get(lines[i]);
         }
         return result;
     }
 
-    private static int encodeLines(int counter, String[] lines, int[] encodedLines,
-                                   Map<String, Integer> encodingMap,
-                                   Map<Integer, String> decodingMap,
-                                   AtomicBoolean stopFlag) {
-        for (int i = 0; i < lines.length; i++) {
-            if (i % 100 == 0) {
-                if (stopFlag.get()) {
-                    return 0;
-                }
+    /**
+     * Run generator only on the parts of encoded strings following their common prefix,
+     * prepending the prefix as EQUAL item to the result.
+     *
+     * @param prefixLengthHint upper bound of common prefix length, if it is known in advance
+     *                         (e.g. from comparison of raw file contents); pass
+     *                         {@link Integer#MAX_VALUE} otherwise
+     */
+    public static List<DiffItem> generateWithCommonPrefix(DiffGenerator generator, int[] a, int[] b,
+                                                          int prefixLengthHint) {
+        return generateWithCommonPrefix(generator, new IntArraySequence(a), new IntArraySequence(b),
+                prefixLengthHint);
+    }
+
+    /**
+     * The same as {@link #generateWithCommonPrefix(DiffGenerator, int[], int[], int)} for strings given
+     * as sequences (e.g. stored off-heap): generator gets views of the parts following the prefix
+     */
+    public static List<DiffItem> generateWithCommonPrefix(DiffGenerator generator, IntSequence a, IntSequence b,
+                                                          int prefixLengthHint) {
+        int maxPrefixLength = Math.min(prefixLengthHint, Math.min(a.length(), b.length()));
+
+        int prefixLength = EqualRuns.matchForward(a, 0, b, 0, maxPrefixLength);
+
+        if (prefixLength == 0) {
+            return generator.generate(a, b);
+        }
+
+        List<DiffItem> suffixItems = generator.generate(
+                a.subSequence(prefixLength, a.length()),
+                b.subSequence(prefixLength, b.length()));
+
+        List<DiffItem> result = new ArrayList<>(suffixItems.size() + 1);
+
+        DiffItem prefixItem = new DiffItem(DiffItemType.EQUAL, a, 0, prefixLength);
+        if (!suffixItems.isEmpty() && (suffixItems.get(0).getType() == DiffItemType.EQUAL)) {
+            // merging with leading EQUAL item
+            DiffItem suffixEqualItem = suffixItems.get(0);
+            int[] mergedChars = new int[prefixLength + suffixEqualItem.getLength()];
+            prefixItem.copyChars(mergedChars, 0);
+            suffixEqualItem.copyChars(mergedChars, prefixLength);
+            result.add(new DiffItem(DiffItemType.EQUAL, mergedChars));
+            result.addAll(suffixItems.subList(1, suffixItems.size()));
+        } else {
+            result.add(prefixItem);
+            result.addAll(suffixItems);
+        }
+
+        return result;
+    }
+
+    /**
+     * Merge neighbouring items of the same type (e.g. produced by separate generator runs);
+     * merged EQUAL items keep chars of string B if they differ in some of the items.
+     */
+    public static List<DiffItem> mergeSameTypeItems(List<DiffItem> items) {
+        List<DiffItem> result = new ArrayList<>(items.size());
+
+        int groupStart = 0;
+        while (groupStart < items.size()) {
+            DiffItemType type = items.get(groupStart).getType();
+
+            int groupEnd = groupStart;
+            int groupLength = 0;
+            int groupLengthB = 0;
+            boolean exactlyEqual = true;
+            while ((groupEnd < items.size()) && (items.get(groupEnd).getType() == type)) {
+                groupLength += items.get(groupEnd).getLength();
+                groupLengthB += items.get(groupEnd).getLengthB();
+                exactlyEqual &= (type != DiffItemType.EQUAL) || items.get(groupEnd).isExactlyEqual();
+                groupEnd++;
             }
 
-            String s = lines[i];
-            int c;
-            if (!encodingMap.containsKey(s)) {
-                if (counter == Integer.MAX_VALUE) {
-                    throw new RuntimeException("too many unique lines");
-                }
-                c = counter++;
-                encodingMap.put(s, c);
-                decodingMap.put(c, s);
+            if (groupEnd - groupStart == 1) {
+                result.add(items.get(groupStart));
             } else {
-                c = encodingMap.get(s);
+                int[] chars = new int[groupLength];
+                int[] charsB = exactlyEqual ? null : new int[groupLengthB];
+                int offset = 0, offsetB = 0;
+                for (DiffItem item : items.subList(groupStart, groupEnd)) {
+                    item.copyChars(chars, offset);
+                    offset += item.getLength();
+
+                    if (charsB != null) {
+                        item.copyCharsB(charsB, offsetB);
+                        offsetB += item.getLengthB();
+                    }
+                }
+                result.add(new DiffItem(type, chars, charsB));
             }
-            encodedLines[i] = c;
+
+            groupStart = groupEnd;
         }
-        return counter;
+
+        return result;
     }
 }
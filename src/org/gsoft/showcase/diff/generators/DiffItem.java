@@ -1,12 +1,74 @@
 package org.gsoft.showcase.diff.generators;
 
+import java.util.Arrays;
+
 public final class DiffItem {
     private final DiffItemType type;
+
+    /**
+     * Chars of item are [from, to) range of the array (which may be shared with other items
+     * or be the compared string itself, so it is never modified)
+     */
     private final int[] chars;
+    private final int from, to;
+
+    /**
+     * Only set for EQUAL items with chars of string B differing from chars of string A
+     * (they are equal according to comparison options only); number of chars may differ too
+     */
+    private final int[] charsB;
 
     public DiffItem(DiffItemType type, int[] chars) {
+        this(type, chars, null);
+    }
+
+    /**
+     * @param charsB chars of EQUAL item in string B (null if they are the same as in string A)
+     */
+    public DiffItem(DiffItemType type, int[] chars, int[] charsB) {
+        this(type, chars, 0, chars.length, charsB);
+    }
+
+    /**
+     * Item viewing [from, to) range of chars without copying them (e.g. of the compared string),
+     * the array must not be modified afterwards
+     */
+    public DiffItem(DiffItemType type, int[] chars, int from, int to) {
+        this(type, chars, from, to, null);
+    }
+
+    /**
+     * Item of [from, to) range of sequence: the range is viewed if the sequence views an array,
+     * otherwise it is copied (e.g. from off-heap sequence)
+     */
+    public DiffItem(DiffItemType type, IntSequence chars, int from, int to) {
+        this(type, arrayOf(chars, from, to), offsetOf(chars, from), offsetOf(chars, from) + (to - from), null);
+    }
+
+    private DiffItem(DiffItemType type, int[] chars, int from, int to, int[] charsB) {
+        if ((from < 0) || (from > to) || (to > chars.length)) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + "), length " + chars.length);
+        }
+        if ((charsB != null) && (type != DiffItemType.EQUAL)) {
+            throw new IllegalArgumentException("charsB parameter is only allowed for EQUAL items");
+        }
+
         this.type = type;
         this.chars = chars;
+        this.from = from;
+        this.to = to;
+        this.charsB = charsB;
+    }
+
+    private static int[] arrayOf(IntSequence chars, int from, int to) {
+        if ((from < 0) || (from > to) || (to > chars.length())) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + "), length " + chars.length());
+        }
+        return chars instanceof IntArraySequence ? ((IntArraySequence) chars).getArray() : chars.toArray(from, to);
+    }
+
+    private static int offsetOf(IntSequence chars, int from) {
+        return chars instanceof IntArraySequence ? ((IntArraySequence) chars).getOffset() + from : 0;
     }
 
     public DiffItemType getType() {
@@ -14,11 +76,88 @@ public final class DiffItem {
     }
 
     /**
-     * @return encoded chars/lines
+     * @return copy of encoded chars/lines (of string A for EQUAL items); use {@link #charAt(int)}
+     *         or {@link #copyChars(int[], int)} to read them without copying
      * @see DiffGeneratorUtils#decodeString(int[])
      * @see DiffGeneratorUtils#decodeLines(int[], org.gsoft.showcase.diff.generators.DiffGeneratorUtils.LinesEncoding)
      */
     public int[] getChars() {
-        return chars.clone();
+        return Arrays.copyOfRange(chars, from, to);
+    }
+
+    /**
+     * @return number of encoded chars/lines (cheaper than getChars().length)
+     */
+    public int getLength() {
+        return to - from;
+    }
+
+    /**
+     * @return encoded char/line at index (of string A for EQUAL items)
+     */
+    public int charAt(int index) {
+        if ((index < 0) || (index >= to - from)) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + (to - from));
+        }
+        return chars[from + index];
+    }
+
+    /**
+     * Copy encoded chars/lines (of string A for EQUAL items) to array
+     */
+    public void copyChars(int[] destination, int destinationOffset) {
+        System.arraycopy(chars, from, destination, destinationOffset, to - from);
+    }
+
+    /**
+     * @return copy of encoded chars of EQUAL item in string B (null for other items)
+     */
+    public int[] getCharsB() {
+        if (type != DiffItemType.EQUAL) {
+            return null;
+        }
+        return charsB != null ? charsB.clone() : getChars();
+    }
+
+    /**
+     * @return number of encoded chars of EQUAL item in string B (0 for other items)
+     */
+    public int getLengthB() {
+        if (type != DiffItemType.EQUAL) {
+            return 0;
+        }
+        return charsB != null ? charsB.length : to - from;
+    }
+
+    /**
+     * @return encoded char of EQUAL item in string B at index
+     */
+    public int charAtB(int index) {
+        if (type != DiffItemType.EQUAL) {
+            throw new IllegalStateException("only EQUAL items have chars in string B");
+        }
+        return charsB != null ? charsB[index] : charAt(index);
+    }
+
+    /**
+     * Copy encoded chars of EQUAL item in string B to array
+     */
+    public void copyCharsB(int[] destination, int destinationOffset) {
+        if (type != DiffItemType.EQUAL) {
+            throw new IllegalStateException("only EQUAL items have chars in string B");
+        }
+        if (charsB != null) {
+            System.arraycopy(charsB, 0, destination, destinationOffset, charsB.length);
+        } else {
+            copyChars(destination, destinationOffset);
+        }
+    }
+
+    /**
+     * @return true if EQUAL item has the same chars in both strings
+     *         (otherwise they are equal according to comparison options only)
+     */
+    public boolean isExactlyEqual() {
+        return (type == DiffItemType.EQUAL) && (charsB == null);
     }
 }
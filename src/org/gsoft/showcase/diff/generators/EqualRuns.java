@@ -0,0 +1,70 @@
+package org.gsoft.showcase.diff.generators;
+
+/**
+ * Measures runs of equal chars of two encoded strings: snakes of diff generators,
+ * common prefixes and suffixes.
+ */
+public final class EqualRuns {
+    private EqualRuns() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return number of equal chars of a starting at fromA and of b starting at fromB
+     * (not more than maxLength; 0 if maxLength is not positive)
+     */
+    public static int matchForward(int[] a, int fromA, int[] b, int fromB, int maxLength) {
+        int length = 0;
+        while ((length < maxLength) && (a[fromA + length] == b[fromB + length])) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * @return number of equal chars of a ending before endA and of b ending before endB
+     * (not more than maxLength; 0 if maxLength is not positive)
+     */
+    public static int matchBackward(int[] a, int endA, int[] b, int endB, int maxLength) {
+        int length = 0;
+        while ((length < maxLength) && (a[endA - 1 - length] == b[endB - 1 - length])) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * The same as {@link #matchForward(int[], int, int[], int, int)} for sequences (e.g. stored off-heap);
+     * sequences viewing arrays are compared as arrays
+     */
+    public static int matchForward(IntSequence a, int fromA, IntSequence b, int fromB, int maxLength) {
+        if ((a instanceof IntArraySequence) && (b instanceof IntArraySequence)) {
+            IntArraySequence arrayA = (IntArraySequence) a, arrayB = (IntArraySequence) b;
+            return matchForward(arrayA.getArray(), arrayA.getOffset() + fromA,
+                    arrayB.getArray(), arrayB.getOffset() + fromB, maxLength);
+        }
+
+        int length = 0;
+        while ((length < maxLength) && (a.get(fromA + length) == b.get(fromB + length))) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * The same as {@link #matchBackward(int[], int, int[], int, int)} for sequences (e.g. stored off-heap)
+     */
+    public static int matchBackward(IntSequence a, int endA, IntSequence b, int endB, int maxLength) {
+        if ((a instanceof IntArraySequence) && (b instanceof IntArraySequence)) {
+            IntArraySequence arrayA = (IntArraySequence) a, arrayB = (IntArraySequence) b;
+            return matchBackward(arrayA.getArray(), arrayA.getOffset() + endA,
+                    arrayB.getArray(), arrayB.getOffset() + endB, maxLength);
+        }
+
+        int length = 0;
+        while ((length < maxLength) && (a.get(endA - 1 - length) == b.get(endB - 1 - length))) {
+            length++;
+        }
+        return length;
+    }
+}
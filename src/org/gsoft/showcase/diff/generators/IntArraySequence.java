@@ -0,0 +1,67 @@
+package org.gsoft.showcase.diff.generators;
+
+import java.util.Arrays;
+
+/**
+ * {@link IntSequence} viewing a range of int array (elements are not copied, so they must not be modified).
+ */
+public final class IntArraySequence implements IntSequence {
+    private final int[] array;
+    private final int from, to;
+
+    public IntArraySequence(int[] array) {
+        this(array, 0, array.length);
+    }
+
+    public IntArraySequence(int[] array, int from, int to) {
+        if ((from < 0) || (from > to) || (to > array.length)) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + "), length " + array.length);
+        }
+        this.array = array;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public int length() {
+        return to - from;
+    }
+
+    @Override
+    public int get(int index) {
+        if ((index < 0) || (index >= to - from)) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + (to - from));
+        }
+        return array[from + index];
+    }
+
+    @Override
+    public IntSequence subSequence(int from, int to) {
+        if ((from < 0) || (from > to) || (to > length())) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + "), length " + length());
+        }
+        return new IntArraySequence(array, this.from + from, this.from + to);
+    }
+
+    @Override
+    public int[] toArray(int from, int to) {
+        if ((from < 0) || (from > to) || (to > length())) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + "), length " + length());
+        }
+        return Arrays.copyOfRange(array, this.from + from, this.from + to);
+    }
+
+    /**
+     * @return array the sequence is a view of (for bulk comparison of elements)
+     */
+    int[] getArray() {
+        return array;
+    }
+
+    /**
+     * @return index of array element the sequence starts with
+     */
+    int getOffset() {
+        return from;
+    }
+}
@@ -0,0 +1,24 @@
+package org.gsoft.showcase.diff.generators;
+
+/**
+ * Read-only sequence of ints (e.g. encoded lines of a file), stored on heap ({@link IntArraySequence})
+ * or off-heap ({@link OffHeapIntArray#asSequence(int)}).
+ *
+ * Lets diff generators read huge encoded files element by element, without copying them to heap;
+ * see {@link org.gsoft.showcase.diff.generators.impl.QGramDiffGenerator#generate(IntSequence, IntSequence)}.
+ */
+public interface IntSequence {
+    int length();
+
+    int get(int index);
+
+    /**
+     * @return view of elements [from, to) (elements are not copied)
+     */
+    IntSequence subSequence(int from, int to);
+
+    /**
+     * @return copy of elements [from, to)
+     */
+    int[] toArray(int from, int to);
+}
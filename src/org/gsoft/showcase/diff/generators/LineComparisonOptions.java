@@ -0,0 +1,373 @@
+package org.gsoft.showcase.diff.generators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Defines which differences of lines are ignored when lines are compared.
+ *
+ * Lines are compared (and hashed) on their normalised view computed on the fly
+ * char by char, so no normalised copies of lines are allocated. Immutable.
+ */
+public final class LineComparisonOptions {
+    public static final LineComparisonOptions EXACT = new LineComparisonOptions(false, false, false, false);
+
+    private static final String REGEX_METACHARS = "\\[](){}.*+?^$|";
+
+    private final boolean ignoreWhitespace;
+    private final boolean ignoreTrailingWhitespace;
+    private final boolean ignoreCase;
+    private final boolean ignoreBlankLines;
+
+    private final List<Pattern> ignoredPatterns;
+
+    /**
+     * Literal every match of the pattern starts with (empty if it is not known);
+     * lines not containing it are not matched with the pattern at all
+     */
+    private final String[] ignoredPatternsPrefixes;
+
+    /**
+     * @param ignoreWhitespace all whitespace chars are ignored
+     * @param ignoreTrailingWhitespace whitespace chars at the end of line are ignored
+     * @param ignoreCase lines differing only by letters case are equal
+     * @param ignoreBlankLines lines consisting of whitespace chars only are equal and
+     *                         inserting or deleting them is not a change
+     */
+    public LineComparisonOptions(boolean ignoreWhitespace, boolean ignoreTrailingWhitespace,
+                                 boolean ignoreCase, boolean ignoreBlankLines) {
+        this(ignoreWhitespace, ignoreTrailingWhitespace, ignoreCase, ignoreBlankLines, Collections.emptyList());
+    }
+
+    /**
+     * @param ignoredPatterns parts of lines matching any of these patterns are ignored
+     *                        (e.g. timestamps or generated ids)
+     */
+    public LineComparisonOptions(boolean ignoreWhitespace, boolean ignoreTrailingWhitespace,
+                                 boolean ignoreCase, boolean ignoreBlankLines,
+                                 List<Pattern> ignoredPatterns) {
+        this.ignoreWhitespace = ignoreWhitespace;
+        this.ignoreTrailingWhitespace = ignoreTrailingWhitespace;
+        this.ignoreCase = ignoreCase;
+        this.ignoreBlankLines = ignoreBlankLines;
+        this.ignoredPatterns = new ArrayList<>(ignoredPatterns);
+
+        this.ignoredPatternsPrefixes = new String[ignoredPatterns.size()];
+        for (int i = 0; i < ignoredPatternsPrefixes.length; i++) {
+            ignoredPatternsPrefixes[i] = getLiteralPrefix(ignoredPatterns.get(i));
+        }
+    }
+
+    public boolean isIgnoreWhitespace() {
+        return ignoreWhitespace;
+    }
+
+    public boolean isIgnoreTrailingWhitespace() {
+        return ignoreTrailingWhitespace;
+    }
+
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    public boolean isIgnoreBlankLines() {
+        return ignoreBlankLines;
+    }
+
+    public List<Pattern> getIgnoredPatterns() {
+        return Collections.unmodifiableList(ignoredPatterns);
+    }
+
+    /**
+     * @return true if lines are only equal when they are exactly the same
+     */
+    public boolean isExact() {
+        return !ignoreWhitespace && !ignoreTrailingWhitespace && !ignoreCase && !ignoreBlankLines &&
+                ignoredPatterns.isEmpty();
+    }
+
+    /**
+     * @return string identifying the options (e.g. for keys of cached diffs)
+     */
+    public String getKey() {
+        if (isExact()) {
+            return "exact";
+        }
+
+        StringBuilder key = new StringBuilder("ignore");
+        if (ignoreWhitespace) {
+            key.append("-whitespace");
+        }
+        if (ignoreTrailingWhitespace) {
+            key.append("-trailing-whitespace");
+        }
+        if (ignoreCase) {
+            key.append("-case");
+        }
+        if (ignoreBlankLines) {
+            key.append("-blank-lines");
+        }
+        for (Pattern pattern : ignoredPatterns) {
+            key.append("-pattern(").append(pattern.flags()).append(':').append(pattern.pattern()).append(')');
+        }
+        return key.toString();
+    }
+
+    public boolean isBlank(CharSequence line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find parts of line matching ignored patterns. Patterns are only applied to lines
+     * containing their literal prefixes.
+     *
+     * @return sorted non-overlapping [start, end) ranges of ignored parts (two ints per range)
+     *         or null if there are none
+     */
+    public int[] findIgnoredSpans(CharSequence line) {
+        int[] spans = null;
+        int spanCount = 0;
+
+        for (int i = 0; i < ignoredPatterns.size(); i++) {
+            String prefix = ignoredPatternsPrefixes[i];
+            if (!prefix.isEmpty() && !contains(line, prefix)) {
+                continue; // can not match
+            }
+
+            Matcher matcher = ignoredPatterns.get(i).matcher(line);
+            while (matcher.find()) {
+                if (matcher.end() == matcher.start()) {
+                    continue;
+                }
+                if (spans == null) {
+                    spans = new int[8];
+                } else if (spanCount * 2 == spans.length) {
+                    spans = Arrays.copyOf(spans, spans.length * 2);
+                }
+                spans[spanCount * 2] = matcher.start();
+                spans[spanCount * 2 + 1] = matcher.end();
+                spanCount++;
+            }
+        }
+
+        if (spans == null) {
+            return null;
+        }
+
+        return mergeSpans(spans, spanCount);
+    }
+
+    /**
+     * @return hash code of normalised view of the line (consistent with {@link #linesEqual(CharSequence, CharSequence)})
+     */
+    public int hashLine(CharSequence line) {
+        return hashLine(line, findIgnoredSpans(line));
+    }
+
+    /**
+     * @param ignoredSpans parts of line matching ignored patterns (see {@link #findIgnoredSpans(CharSequence)})
+     */
+    public int hashLine(CharSequence line, int[] ignoredSpans) {
+        int end = getNormalizedEnd(line);
+
+        int hash = 0;
+        for (int i = skipIgnoredChars(line, 0, end, ignoredSpans); i < end;
+             i = skipIgnoredChars(line, i + 1, end, ignoredSpans)) {
+            hash = 31 * hash + normalizeChar(line.charAt(i));
+        }
+        return hash;
+    }
+
+    /**
+     * @return true if normalised views of lines are equal
+     */
+    public boolean linesEqual(CharSequence a, CharSequence b) {
+        if (isExact()) {
+            return a.toString().contentEquals(b);
+        }
+        return linesEqual(a, findIgnoredSpans(a), b, findIgnoredSpans(b));
+    }
+
+    /**
+     * @param ignoredSpansA parts of line A matching ignored patterns (see {@link #findIgnoredSpans(CharSequence)})
+     * @param ignoredSpansB the same for line B
+     */
+    public boolean linesEqual(CharSequence a, int[] ignoredSpansA, CharSequence b, int[] ignoredSpansB) {
+        int endA = getNormalizedEnd(a);
+        int endB = getNormalizedEnd(b);
+
+        int i = skipIgnoredChars(a, 0, endA, ignoredSpansA);
+        int j = skipIgnoredChars(b, 0, endB, ignoredSpansB);
+        while ((i < endA) && (j < endB)) {
+            if (normalizeChar(a.charAt(i)) != normalizeChar(b.charAt(j))) {
+                return false;
+            }
+
+            i = skipIgnoredChars(a, i + 1, endA, ignoredSpansA);
+            j = skipIgnoredChars(b, j + 1, endB, ignoredSpansB);
+        }
+        return (i == endA) && (j == endB);
+    }
+
+    /**
+     * @return the same as {@link #hashLine(CharSequence)} for a single char
+     *         or -1 if the char is ignored
+     */
+    public int normalizeCharCode(int c) {
+        if (ignoreWhitespace && Character.isWhitespace(c)) {
+            return -1;
+        }
+        return normalizeChar((char) c);
+    }
+
+    /**
+     * @return length of the part of line which is compared (blank lines are compared as empty ones
+     *         if they are ignored)
+     */
+    public int getNormalizedEnd(CharSequence line) {
+        int end = line.length();
+        if (ignoreTrailingWhitespace || ignoreBlankLines) {
+            int trimmedEnd = end;
+            while ((trimmedEnd > 0) && Character.isWhitespace(line.charAt(trimmedEnd - 1))) {
+                trimmedEnd--;
+            }
+            if (ignoreTrailingWhitespace || (trimmedEnd == 0)) {
+                end = trimmedEnd;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return index of the first char starting at the index which is not ignored (or the end)
+     */
+    private int skipIgnoredChars(CharSequence line, int index, int end, int[] ignoredSpans) {
+        int spanIndex = 0;
+        while (index < end) {
+            if (ignoreWhitespace && Character.isWhitespace(line.charAt(index))) {
+                index++;
+                continue;
+            }
+
+            // spans are sorted, so each of them is checked at most once
+            while ((ignoredSpans != null) && (spanIndex < ignoredSpans.length) && (ignoredSpans[spanIndex + 1] <= index)) {
+                spanIndex += 2;
+            }
+            if ((ignoredSpans != null) && (spanIndex < ignoredSpans.length) && (ignoredSpans[spanIndex] <= index)) {
+                index = ignoredSpans[spanIndex + 1];
+                continue;
+            }
+
+            break;
+        }
+        return Math.min(index, end);
+    }
+
+    private static int[] mergeSpans(int[] spans, int spanCount) {
+        // sorting by starts (spans of a single pattern are already sorted, so it is usually cheap)
+        long[] packedSpans = new long[spanCount];
+        for (int i = 0; i < spanCount; i++) {
+            packedSpans[i] = ((long) spans[i * 2] << 32) | spans[i * 2 + 1];
+        }
+        Arrays.sort(packedSpans);
+
+        int[] result = new int[spanCount * 2];
+        int resultCount = 0;
+        for (long packedSpan : packedSpans) {
+            int start = (int) (packedSpan >>> 32);
+            int end = (int) packedSpan;
+            if ((resultCount > 0) && (start <= result[resultCount * 2 - 1])) {
+                result[resultCount * 2 - 1] = Math.max(result[resultCount * 2 - 1], end);
+            } else {
+                result[resultCount * 2] = start;
+                result[resultCount * 2 + 1] = end;
+                resultCount++;
+            }
+        }
+        return Arrays.copyOf(result, resultCount * 2);
+    }
+
+    /**
+     * @return literal every match of the pattern starts with (empty if it is not known)
+     */
+    static String getLiteralPrefix(Pattern pattern) {
+        if ((pattern.flags() & (Pattern.CASE_INSENSITIVE | Pattern.LITERAL | Pattern.COMMENTS)) != 0) {
+            return "";
+        }
+
+        String regex = pattern.pattern();
+
+        // top level alternatives may start with different literals
+        for (int i = 0; i < regex.length(); i++) {
+            if (regex.charAt(i) == '\\') {
+                i++;
+            } else if (regex.charAt(i) == '|') {
+                return "";
+            }
+        }
+
+        StringBuilder prefix = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            int literalLength;
+            if ((c == '\\') && (i + 1 < regex.length()) && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                c = regex.charAt(i + 1); // escaped metachar
+                literalLength = 2;
+            } else if (REGEX_METACHARS.indexOf(c) == -1) {
+                literalLength = 1;
+            } else {
+                break;
+            }
+
+            // quantifier may make the char optional
+            int next = i + literalLength;
+            if ((next < regex.length()) && ("?*{".indexOf(regex.charAt(next)) != -1)) {
+                break;
+            }
+
+            prefix.append(c);
+            i = next;
+        }
+        return prefix.toString();
+    }
+
+    private static boolean contains(CharSequence line, String literal) {
+        return (line instanceof String) ? ((String) line).contains(literal) : line.toString().contains(literal);
+    }
+
+    private char normalizeChar(char c) {
+        return ignoreCase ? Character.toLowerCase(Character.toUpperCase(c)) : c;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if ((o == null) || (getClass() != o.getClass())) {
+            return false;
+        }
+        LineComparisonOptions that = (LineComparisonOptions) o;
+        return getKey().equals(that.getKey()); // patterns are compared by their sources and flags
+    }
+
+    @Override
+    public int hashCode() {
+        return getKey().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+}
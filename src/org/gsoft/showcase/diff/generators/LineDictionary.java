@@ -0,0 +1,238 @@
+package org.gsoft.showcase.diff.generators;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Assigns int codes to unique lines.
+ *
+ * Lines equal according to {@link LineComparisonOptions} get the same code
+ * (the first of them interned is returned by {@link #decode(int)}).
+ *
+ * Can be shared between several encodings (e.g. one file compared to many others
+ * is interned only once); codes of lines interned earlier never change.
+ * Dictionary can be extended with {@link #extend()} without growing it (e.g. once it is too large).
+ * Thread-safe.
+ */
+public final class LineDictionary {
+    /**
+     * Key of line compared on its normalised view (no normalised copy of line is made)
+     */
+    private static final class NormalizedLine {
+        final String line;
+        final LineComparisonOptions options;
+        final int[] ignoredSpans;
+        final int hash;
+
+        NormalizedLine(String line, LineComparisonOptions options) {
+            this.line = line;
+            this.options = options;
+            this.ignoredSpans = options.findIgnoredSpans(line);
+            this.hash = options.hashLine(line, ignoredSpans);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if ((o == null) || (getClass() != o.getClass())) {
+                return false;
+            }
+            NormalizedLine that = (NormalizedLine) o;
+            return (hash == that.hash) && options.linesEqual(line, ignoredSpans, that.line, that.ignoredSpans);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Decoding map of extending dictionary: its own lines first, then lines of the extended one
+     */
+    private static final class ExtendedDecodingMap extends AbstractMap<Integer, String> {
+        private final Map<Integer, String> own;
+        private final Map<Integer, String> extended;
+
+        ExtendedDecodingMap(Map<Integer, String> own, Map<Integer, String> extended) {
+            this.own = own;
+            this.extended = extended;
+        }
+
+        @Override
+        public String get(Object key) {
+            String line = own.get(key);
+            return line != null ? line : extended.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return own.containsKey(key) || extended.containsKey(key);
+        }
+
+        /**
+         * Copies both maps (never needed for decoding)
+         */
+        @Override
+        public Set<Entry<Integer, String>> entrySet() {
+            Map<Integer, String> all = new HashMap<>(extended);
+            all.putAll(own);
+            return Collections.unmodifiableMap(all).entrySet();
+        }
+    }
+
+    /**
+     * Receives codes of encoded lines
+     */
+    private interface EncodedLinesTarget {
+        void set(int index, int code);
+    }
+
+    /**
+     * Lines are normalised (e.g. matched with ignored patterns) in parallel in chunks of this size
+     */
+    private static final int PARALLEL_ENCODING_CHUNK_SIZE = 4096;
+
+    private final LineComparisonOptions options;
+
+    /**
+     * Keys are lines themselves if comparison is exact, {@link NormalizedLine}s otherwise
+     */
+    private final Map<Object, Integer> encodingMap = new ConcurrentHashMap<>();
+    private final Map<Integer, String> decodingMap = new ConcurrentHashMap<>();
+
+    private final AtomicInteger counter;
+
+    /**
+     * Dictionary this one extends or null: its lines keep their codes, but it is never changed
+     */
+    private final LineDictionary extended;
+
+    public LineDictionary() {
+        this(LineComparisonOptions.EXACT);
+    }
+
+    public LineDictionary(LineComparisonOptions options) {
+        this.options = options;
+        this.counter = new AtomicInteger(Integer.MIN_VALUE);
+        this.extended = null;
+    }
+
+    private LineDictionary(LineDictionary extended) {
+        this.options = extended.options;
+        // codes are assigned downwards, so that they never clash with codes assigned to the extended
+        // dictionary later
+        this.counter = new AtomicInteger(Integer.MAX_VALUE);
+        this.extended = extended;
+    }
+
+    /**
+     * @return dictionary assigning the same codes to lines of this one and new codes to other lines,
+     * without interning them into this one (e.g. encodings of many files compared to the same file
+     * do not grow dictionary of that file)
+     */
+    public LineDictionary extend() {
+        return new LineDictionary(this);
+    }
+
+    public LineComparisonOptions getOptions() {
+        return options;
+    }
+
+    public int intern(String line) {
+        Object key = options.isExact() ? line : new NormalizedLine(line, options);
+
+        Integer code = extended != null ? extended.encodingMap.get(key) : null;
+        if (code == null) {
+            code = encodingMap.get(key);
+        }
+        if (code != null) {
+            return code;
+        }
+        return encodingMap.computeIfAbsent(key, k -> {
+            int newCode = extended == null ? counter.getAndIncrement() : counter.getAndDecrement();
+            if (newCode == (extended == null ? Integer.MAX_VALUE : Integer.MIN_VALUE)) {
+                throw new RuntimeException("too many unique lines");
+            }
+            decodingMap.put(newCode, line);
+            return newCode;
+        });
+    }
+
+    /**
+     * Encode text lines for passing to {@link DiffGenerator#generate(int[], int[])}.
+     * Each int will represent single line.
+     *
+     * Unless lines are compared exactly, large files are encoded in parallel
+     * (codes are assigned in arbitrary order then).
+     *
+     * @return encoded lines (incomplete if stopped)
+     */
+    public int[] encode(String[] lines, AtomicBoolean stopFlag) {
+        int[] encodedLines = new int[lines.length];
+        encode(lines, (index, code) -> encodedLines[index] = code, stopFlag);
+        return encodedLines;
+    }
+
+    /**
+     * The same as {@link #encode(String[], AtomicBoolean)}, but encoded lines are stored off-heap
+     * (e.g. for huge files, so that they neither need heap nor burden garbage collector).
+     */
+    public IntSequence encodeOffHeap(String[] lines, AtomicBoolean stopFlag) {
+        OffHeapIntArray encodedLines = new OffHeapIntArray(lines.length);
+        // (chunks are written in parallel, but never the same elements)
+        encode(lines, encodedLines::set, stopFlag);
+        return encodedLines.asSequence(lines.length);
+    }
+
+    private void encode(String[] lines, EncodedLinesTarget target, AtomicBoolean stopFlag) {
+        if (options.isExact() || (lines.length < 2 * PARALLEL_ENCODING_CHUNK_SIZE)) {
+            encodeRange(lines, 0, lines.length, target, stopFlag);
+        } else {
+            int chunkCount = (lines.length + PARALLEL_ENCODING_CHUNK_SIZE - 1) / PARALLEL_ENCODING_CHUNK_SIZE;
+            IntStream.range(0, chunkCount).parallel().forEach(chunk -> encodeRange(lines,
+                    chunk * PARALLEL_ENCODING_CHUNK_SIZE,
+                    Math.min(lines.length, (chunk + 1) * PARALLEL_ENCODING_CHUNK_SIZE),
+                    target, stopFlag));
+        }
+    }
+
+    private void encodeRange(String[] lines, int from, int to, EncodedLinesTarget target, AtomicBoolean stopFlag) {
+        StopFlags.AmortizedCheck stopCheck = new StopFlags.AmortizedCheck(stopFlag);
+        for (int i = from; i < to; i++) {
+            // hashing cost is proportional to line length
+            if (stopCheck.isStopped(1 + lines[i].length())) {
+                break;
+            }
+            target.set(i, intern(lines[i]));
+        }
+    }
+
+    public String decode(int code) {
+        String line = decodingMap.get(code);
+        return (line == null) && (extended != null) ? extended.decode(code) : line;
+    }
+
+    /**
+     * @return number of unique lines interned so far (not counting lines of extended dictionary)
+     */
+    public int size() {
+        return encodingMap.size();
+    }
+
+    public Map<Integer, String> getDecodingMap() {
+        if (extended != null) {
+            return new ExtendedDecodingMap(Collections.unmodifiableMap(decodingMap), extended.getDecodingMap());
+        }
+        return Collections.unmodifiableMap(decodingMap);
+    }
+}
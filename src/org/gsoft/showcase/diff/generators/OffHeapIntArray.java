@@ -0,0 +1,146 @@
+package org.gsoft.showcase.diff.generators;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Array of ints stored outside of Java heap, which grows on demand; elements not set yet are zero.
+ *
+ * Used for large temporary structures of diff generators (indexes, traces of searches): they neither burden
+ * garbage collector nor need heap of their size, and are not limited by 2 GB size of a single direct buffer.
+ *
+ * Elements are stored in chunks of the same size; array smaller than a chunk is stored in a single buffer
+ * growing twice when needed, so that small arrays take little memory.
+ *
+ * Not thread-safe.
+ */
+public final class OffHeapIntArray {
+    private static final int CHUNK_SHIFT = 22; // 16 MB
+    private static final int CHUNK_LENGTH = 1 << CHUNK_SHIFT;
+    private static final int MIN_LENGTH = 1024;
+
+    private IntBuffer[] chunks = new IntBuffer[0];
+    private long capacity;
+
+    public OffHeapIntArray() {
+    }
+
+    public OffHeapIntArray(long capacity) {
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * @return number of elements which can be accessed
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public void ensureCapacity(long minCapacity) {
+        if (capacity >= minCapacity) {
+            return;
+        }
+
+        if (capacity < CHUNK_LENGTH) {
+            // growing the only chunk
+            int length = (int) Math.max(MIN_LENGTH, capacity);
+            while (length < Math.min(minCapacity, CHUNK_LENGTH)) {
+                length *= 2;
+            }
+            IntBuffer chunk = allocate(length);
+            if (capacity > 0) {
+                chunks[0].rewind();
+                chunk.put(chunks[0]);
+            }
+            chunks = new IntBuffer[]{chunk};
+            capacity = length;
+
+            if (capacity >= minCapacity) {
+                return;
+            }
+        }
+
+        int chunkCount = (int) ((minCapacity + CHUNK_LENGTH - 1) >>> CHUNK_SHIFT);
+        int oldChunkCount = chunks.length;
+        chunks = Arrays.copyOf(chunks, chunkCount);
+        for (int i = oldChunkCount; i < chunkCount; i++) {
+            chunks[i] = allocate(CHUNK_LENGTH);
+        }
+        capacity = (long) chunkCount << CHUNK_SHIFT;
+    }
+
+    public int get(long index) {
+        return chunks[(int) (index >>> CHUNK_SHIFT)].get((int) index & (CHUNK_LENGTH - 1));
+    }
+
+    public void set(long index, int value) {
+        chunks[(int) (index >>> CHUNK_SHIFT)].put((int) index & (CHUNK_LENGTH - 1), value);
+    }
+
+    /**
+     * @return read-only view of elements [0, length) (e.g. of encoded lines written to the array);
+     * elements must not be changed while the view is used
+     */
+    public IntSequence asSequence(int length) {
+        ensureCapacity(length);
+        return new Sequence(0, length);
+    }
+
+    private final class Sequence implements IntSequence {
+        private final int from, to;
+
+        Sequence(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public int get(int index) {
+            if ((index < 0) || (index >= to - from)) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + (to - from));
+            }
+            return OffHeapIntArray.this.get(from + index);
+        }
+
+        @Override
+        public IntSequence subSequence(int from, int to) {
+            checkRange(from, to);
+            return new Sequence(this.from + from, this.from + to);
+        }
+
+        @Override
+        public int[] toArray(int from, int to) {
+            checkRange(from, to);
+
+            // copying chunk by chunk
+            int[] result = new int[to - from];
+            int copied = 0;
+            while (copied < result.length) {
+                int index = this.from + from + copied;
+                IntBuffer chunk = chunks[index >>> CHUNK_SHIFT].duplicate();
+                chunk.position(index & (CHUNK_LENGTH - 1));
+                int length = Math.min(result.length - copied, chunk.remaining());
+                chunk.get(result, copied, length);
+                copied += length;
+            }
+            return result;
+        }
+
+        private void checkRange(int from, int to) {
+            if ((from < 0) || (from > to) || (to > length())) {
+                throw new IndexOutOfBoundsException("range [" + from + ", " + to + "), length " + length());
+            }
+        }
+    }
+
+    private static IntBuffer allocate(int length) {
+        return ByteBuffer.allocateDirect(length * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+}
@@ -0,0 +1,88 @@
+package org.gsoft.showcase.diff.generators;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Helpers for stop flags passed through all stages of diff computation.
+ *
+ * Stop flag is set when computation must be abandoned: on user request or, for a part of computation
+ * having its own flag, when its deadline passes (see {@link #stopAfter(AtomicBoolean, AtomicBoolean, long, TimeUnit)}),
+ * so deadline reaches every stage cancellation does.
+ */
+public final class StopFlags {
+    /**
+     * Polls stop flag on amortized cost basis: caller reports cost of work done since the previous
+     * call (e.g. number of compared chars or copied lines), the flag is read only after enough work was done.
+     * This keeps checks cheap in tight loops while keeping time between checks bounded.
+     *
+     * Not thread-safe, each thread must use its own instance.
+     */
+    public static final class AmortizedCheck {
+        /**
+         * Roughly a millisecond of the cheapest work (comparing ints)
+         */
+        private static final long CHECK_INTERVAL_COST = 64 * 1024;
+
+        private final AtomicBoolean stopFlag;
+        private long costSinceCheck;
+        private boolean stopped;
+
+        public AmortizedCheck(AtomicBoolean stopFlag) {
+            this.stopFlag = stopFlag;
+        }
+
+        /**
+         * @param cost cost of work done since the previous call
+         * @return true if stop flag was found set (by this or any previous call)
+         */
+        public boolean isStopped(long cost) {
+            costSinceCheck += cost;
+            if (costSinceCheck >= CHECK_INTERVAL_COST) {
+                costSinceCheck = 0;
+                stopped = stopped || stopFlag.get();
+            }
+            return stopped;
+        }
+    }
+
+    /**
+     * How often parent flags of parts of computation having deadlines are polled
+     */
+    private static final long PARENT_POLL_INTERVAL_MILLIS = 10;
+
+    private static final ScheduledThreadPoolExecutor DEADLINE_EXECUTOR = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "diff-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        // deadlines of computations finished in time are cancelled - no need to keep them
+        DEADLINE_EXECUTOR.setRemoveOnCancelPolicy(true);
+    }
+
+    private StopFlags() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Set stop flag of a part of computation (e.g. comparison of one of many files) when the timeout elapses
+     * or the parent flag (e.g. the one set by user) is set, whichever comes first.
+     *
+     * @return deadline which must be cancelled when the part of computation finishes
+     */
+    public static ScheduledFuture<?> stopAfter(AtomicBoolean stopFlag, AtomicBoolean parentStopFlag,
+                                               long timeout, TimeUnit unit) {
+        long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        return DEADLINE_EXECUTOR.scheduleWithFixedDelay(() -> {
+            if (parentStopFlag.get() || (System.nanoTime() - deadlineNanos >= 0)) {
+                stopFlag.set(true);
+                throw new CancellationException(); // suppresses further polling
+            }
+        }, 0, PARENT_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+}
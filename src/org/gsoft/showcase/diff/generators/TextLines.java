@@ -0,0 +1,120 @@
+package org.gsoft.showcase.diff.generators;
+
+import java.util.Arrays;
+
+/**
+ * Read-only view of a range of text lines (e.g. of original lines of a file kept by
+ * {@link DiffGeneratorUtils.LinesEncoding}).
+ *
+ * Lines are not copied when a view is made: diff items of large files (most of them unchanged) share
+ * the array of file lines, each line is only taken from it when the item is displayed or exported.
+ */
+public final class TextLines {
+    private final String[] lines;
+    private final int from, to;
+
+    /**
+     * @param lines lines viewed (not copied, so they must not be modified)
+     */
+    public TextLines(String[] lines) {
+        this(lines, 0, lines.length);
+    }
+
+    /**
+     * @param lines lines [from, to) of which are viewed (not copied, so they must not be modified)
+     */
+    public TextLines(String[] lines, int from, int to) {
+        if ((from < 0) || (from > to) || (to > lines.length)) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + "), length " + lines.length);
+        }
+        this.lines = lines;
+        this.from = from;
+        this.to = to;
+    }
+
+    public int size() {
+        return to - from;
+    }
+
+    public String get(int index) {
+        if ((index < 0) || (index >= to - from)) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + (to - from));
+        }
+        return lines[from + index];
+    }
+
+    /**
+     * @return view of lines [from, to) of this view
+     */
+    public TextLines subRange(int from, int to) {
+        if ((from < 0) || (from > to) || (to > size())) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + "), size " + size());
+        }
+        return new TextLines(lines, this.from + from, this.from + to);
+    }
+
+    /**
+     * @return lines of this view followed by lines of the other one; no lines are copied if the views
+     * are neighbouring ranges of the same lines (e.g. EQUAL items of the same file merged together)
+     */
+    public TextLines concat(TextLines other) {
+        if ((lines == other.lines) && (to == other.from)) {
+            return new TextLines(lines, from, other.to);
+        }
+        if (other.size() == 0) {
+            return this;
+        }
+        if (size() == 0) {
+            return other;
+        }
+
+        String[] result = new String[size() + other.size()];
+        System.arraycopy(lines, from, result, 0, size());
+        System.arraycopy(other.lines, other.from, result, size(), other.size());
+        return new TextLines(result);
+    }
+
+    /**
+     * @return true if both views have equal lines (views of the same range are not compared line by line)
+     */
+    public boolean contentEquals(TextLines other) {
+        if (size() != other.size()) {
+            return false;
+        }
+        if ((lines == other.lines) && (from == other.from)) {
+            return true;
+        }
+        for (int i = 0; i < size(); i++) {
+            if (!lines[from + i].equals(other.lines[other.from + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return copy of lines
+     */
+    public String[] toArray() {
+        return Arrays.copyOfRange(lines, from, to);
+    }
+
+    /**
+     * @return lines joined with the delimiter (the same as {@code String.join(delimiter, toArray())})
+     */
+    public String join(String delimiter) {
+        int length = Math.max(0, size() - 1) * delimiter.length();
+        for (int i = from; i < to; i++) {
+            length += lines[i].length();
+        }
+
+        StringBuilder result = new StringBuilder(length);
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                result.append(delimiter);
+            }
+            result.append(lines[i]);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,269 @@
+package org.gsoft.showcase.diff.generators.impl;
+
+import org.gsoft.showcase.diff.generators.DiffGenerator;
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.generators.DiffItemType;
+import org.gsoft.showcase.diff.generators.EqualRuns;
+import org.gsoft.showcase.diff.generators.StopFlags;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Linear space variant of Myers algorithm (section 4b of the paper, see {@link MyersDiffGenerator}):
+ * forward and reverse searches meet at the middle of the edit path, which splits comparison
+ * into two independent halves compared recursively.
+ *
+ * Cost of comparison can be bounded: when search for the middle of edit path exceeds maxEditCost,
+ * comparison is split at the furthest reaching point of the forward search instead
+ * (result is not minimal in this case). Memory needed is O(N + M) regardless of the edit cost.
+ */
+public final class BidirectionalMyersDiffGenerator implements DiffGenerator {
+    /**
+     * Changed chars of both strings
+     */
+    private static final class Marks {
+        final boolean[] deleted;
+        final boolean[] inserted;
+        boolean minimal = true;
+
+        Marks(int lengthA, int lengthB) {
+            deleted = new boolean[lengthA];
+            inserted = new boolean[lengthB];
+        }
+    }
+
+    private final AtomicBoolean stopFlag;
+    private final int maxEditCost;
+
+    private volatile boolean lastResultMinimal = true;
+
+    public BidirectionalMyersDiffGenerator(AtomicBoolean stopFlag) {
+        this(stopFlag, MyersDiffGenerator.UNLIMITED_EDIT_COST);
+    }
+
+    /**
+     * @param maxEditCost maximum length of edit script searched for the middle of edit path (see class description)
+     */
+    public BidirectionalMyersDiffGenerator(AtomicBoolean stopFlag, int maxEditCost) {
+        if (maxEditCost < 1) {
+            throw new IllegalArgumentException("maxEditCost must be positive: " + maxEditCost);
+        }
+        this.stopFlag = stopFlag;
+        this.maxEditCost = maxEditCost;
+    }
+
+    /**
+     * @return false if edit cost limit was exceeded during the last {@link #generate(int[], int[])} call,
+     * so the returned diff may be longer than necessary
+     */
+    public boolean isLastResultMinimal() {
+        return lastResultMinimal;
+    }
+
+    /**
+     * @return diff items (empty if stopped)
+     */
+    @Override
+    public List<DiffItem> generate(int[] a, int[] b) {
+        Marks marks = new Marks(a.length, b.length);
+
+        compare(a, 0, a.length, b, 0, b.length, marks, new StopFlags.AmortizedCheck(stopFlag));
+
+        if (stopFlag.get()) {
+            return Collections.emptyList();
+        }
+
+        lastResultMinimal = marks.minimal;
+        return makeDiffItems(a, b, marks);
+    }
+
+    /**
+     * Compare [lowA, highA) range of a to [lowB, highB) range of b, marking changed chars
+     */
+    private void compare(int[] a, int lowA, int highA, int[] b, int lowB, int highB,
+                         Marks marks, StopFlags.AmortizedCheck stopCheck) {
+        //
+        // the first half is compared recursively, the second one by this loop itself
+        // (edit script of each half is at most half as long, so recursion is shallow)
+        //
+        while (!stopCheck.isStopped(1)) {
+            int prefixLength = EqualRuns.matchForward(a, lowA, b, lowB, Math.min(highA - lowA, highB - lowB));
+            lowA += prefixLength;
+            lowB += prefixLength;
+            int suffixLength = EqualRuns.matchBackward(a, highA, b, highB, Math.min(highA - lowA, highB - lowB));
+            highA -= suffixLength;
+            highB -= suffixLength;
+
+            if ((lowA == highA) || (lowB == highB)) {
+                Arrays.fill(marks.deleted, lowA, highA, true);
+                Arrays.fill(marks.inserted, lowB, highB, true);
+                break;
+            }
+
+            int[] split = findSplit(a, lowA, highA, b, lowB, highB, marks, stopCheck);
+            if (split == null) {
+                break; // stopped
+            }
+
+            int splitA = split[0], splitB = split[1];
+            compare(a, lowA, splitA, b, lowB, splitB, marks, stopCheck);
+
+            lowA = splitA;
+            lowB = splitB;
+        }
+    }
+
+    /**
+     * Find the middle of edit path (in the middle snake found by both searches meeting each other).
+     *
+     * @return point splitting comparison into two smaller ones or null if stopped
+     */
+    private int[] findSplit(int[] a, int startA, int endA, int[] b, int startB, int endB,
+                            Marks marks, StopFlags.AmortizedCheck stopCheck) {
+        int N = endA - startA, M = endB - startB;
+        int delta = N - M;
+        boolean deltaOdd = (delta & 1) != 0;
+
+        // searches meet when each of them has covered half of edit script
+        int maxD = (N + M + 1) / 2;
+        int halfCostLimit = (int) Math.min(maxD, ((long) maxEditCost + 1) / 2);
+
+        //
+        // forward[offset + k] is the furthest x reached on diagonal k by forward search,
+        // reverse[offset + k] is the furthest distance from the ends of strings reached on diagonal k
+        // (counted from the ends) by reverse search; -1 if not reached
+        //
+        int offset = halfCostLimit + 1;
+        int[] forward = new int[2 * offset + 1];
+        int[] reverse = new int[2 * offset + 1];
+        Arrays.fill(forward, -1);
+        Arrays.fill(reverse, -1);
+        forward[offset + 1] = 0;
+        reverse[offset + 1] = 0;
+
+        // diagonals leaving the grid are not searched any more
+        int forwardStartTrim = 0, forwardEndTrim = 0;
+        int reverseStartTrim = 0, reverseEndTrim = 0;
+
+        for (int D = 0; D <= halfCostLimit; D++) {
+            for (int k = -D + forwardStartTrim; k <= D - forwardEndTrim; k += 2) {
+                int x;
+                if ((k == -D) || ((k != D) && (forward[offset + k - 1] < forward[offset + k + 1]))) {
+                    x = forward[offset + k + 1];
+                } else {
+                    x = forward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int snakeLength = EqualRuns.matchForward(a, startA + x, b, startB + y, Math.min(N - x, M - y));
+                x += snakeLength;
+                y += snakeLength;
+                forward[offset + k] = x;
+
+                if (stopCheck.isStopped(1 + snakeLength)) {
+                    return null;
+                }
+
+                if (x > N) {
+                    forwardEndTrim += 2;
+                } else if (y > M) {
+                    forwardStartTrim += 2;
+                } else if (deltaOdd) {
+                    int reverseK = delta - k;
+                    if ((reverseK >= -halfCostLimit) && (reverseK <= halfCostLimit)
+                            && (reverse[offset + reverseK] != -1)
+                            && (x >= N - reverse[offset + reverseK])) {
+                        return new int[]{startA + x, startB + y};
+                    }
+                }
+            }
+
+            for (int k = -D + reverseStartTrim; k <= D - reverseEndTrim; k += 2) {
+                int x;
+                if ((k == -D) || ((k != D) && (reverse[offset + k - 1] < reverse[offset + k + 1]))) {
+                    x = reverse[offset + k + 1];
+                } else {
+                    x = reverse[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int snakeLength = EqualRuns.matchBackward(a, endA - x, b, endB - y, Math.min(N - x, M - y));
+                x += snakeLength;
+                y += snakeLength;
+                reverse[offset + k] = x;
+
+                if (stopCheck.isStopped(1 + snakeLength)) {
+                    return null;
+                }
+
+                if (x > N) {
+                    reverseEndTrim += 2;
+                } else if (y > M) {
+                    reverseStartTrim += 2;
+                } else if (!deltaOdd) {
+                    int forwardK = delta - k;
+                    if ((forwardK >= -halfCostLimit) && (forwardK <= halfCostLimit)
+                            && (forward[offset + forwardK] != -1)) {
+                        int forwardX = forward[offset + forwardK];
+                        if (forwardX >= N - x) {
+                            return new int[]{startA + forwardX, startB + forwardX - forwardK};
+                        }
+                    }
+                }
+            }
+        }
+
+        if (halfCostLimit == maxD) {
+            // can not happen: searches always meet before covering the whole edit script
+            throw new IllegalStateException("middle snake not found");
+        }
+
+        //
+        // too expensive: splitting at the furthest reaching point of forward search
+        // (strings before it are compared within the limit, the rest is compared the same way)
+        //
+        marks.minimal = false;
+
+        int bestX = -1, bestY = -1;
+        for (int k = -halfCostLimit; k <= halfCostLimit; k++) {
+            int x = forward[offset + k];
+            int y = x - k;
+            if ((x >= 0) && (x <= N) && (y >= 0) && (y <= M) && (x + y > bestX + bestY)) {
+                bestX = x;
+                bestY = y;
+            }
+        }
+        return new int[]{startA + bestX, startB + bestY};
+    }
+
+    private static List<DiffItem> makeDiffItems(int[] a, int[] b, Marks marks) {
+        List<DiffItem> result = new ArrayList<>();
+
+        int i = 0, j = 0;
+        while ((i < a.length) || (j < b.length)) {
+            int runStartA = i, runStartB = j;
+
+            if ((i < a.length) && marks.deleted[i]) {
+                while ((i < a.length) && marks.deleted[i]) {
+                    i++;
+                }
+                result.add(new DiffItem(DiffItemType.DELETE, a, runStartA, i));
+            } else if ((j < b.length) && marks.inserted[j]) {
+                while ((j < b.length) && marks.inserted[j]) {
+                    j++;
+                }
+                result.add(new DiffItem(DiffItemType.INSERT, b, runStartB, j));
+            } else {
+                while ((i < a.length) && (j < b.length) && !marks.deleted[i] && !marks.inserted[j]) {
+                    i++;
+                    j++;
+                }
+                result.add(new DiffItem(DiffItemType.EQUAL, a, runStartA, i));
+            }
+        }
+
+        return result;
+    }
+}
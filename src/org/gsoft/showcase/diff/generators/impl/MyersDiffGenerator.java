@@ -3,6 +3,9 @@ package org.gsoft.showcase.diff.generators.impl;
 import org.gsoft.showcase.diff.generators.DiffGenerator;
 import org.gsoft.showcase.diff.generators.DiffItem;
 import org.gsoft.showcase.diff.generators.DiffItemType;
+import org.gsoft.showcase.diff.generators.EqualRuns;
+import org.gsoft.showcase.diff.generators.OffHeapIntArray;
+import org.gsoft.showcase.diff.generators.StopFlags;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -16,6 +19,12 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *
  * Available at:
  * https://neil.fraser.name/software/diff_match_patch/myers.pdf
+ *
+ * Cost of comparison can be bounded by maximum edit script length (D) searched at once:
+ * when it is exceeded, the edit path is cut at the furthest reaching point of the last D-path
+ * (the point closest to the end of both strings) and the rest of strings is compared
+ * from this point with the same limit. Result is not minimal in this case, but it is computed
+ * in O((N + M) * maxEditCost) time and O(maxEditCost ^ 2) memory.
  */
 public final class MyersDiffGenerator implements DiffGenerator {
     private static final class EditPathVertex {
@@ -27,10 +36,55 @@ public final class MyersDiffGenerator implements DiffGenerator {
         }
     }
 
+    /**
+     * Furthest reaching point of D-path together with what is needed to reconstruct the path to it
+     */
+    private static final class PathEnd {
+        final int D, k;
+        final Vd Vd;
+
+        /**
+         * false if the path does not reach the end of both strings
+         */
+        final boolean complete;
+
+        PathEnd(int D, int k, Vd Vd, boolean complete) {
+            this.D = D;
+            this.k = k;
+            this.Vd = Vd;
+            this.complete = complete;
+        }
+    }
+
+    public static final int UNLIMITED_EDIT_COST = Integer.MAX_VALUE;
+
     private final AtomicBoolean stopFlag;
+    private final int maxEditCost;
+
+    private volatile boolean lastResultMinimal = true;
 
     public MyersDiffGenerator(AtomicBoolean stopFlag) {
+        this(stopFlag, UNLIMITED_EDIT_COST);
+    }
+
+    /**
+     * @param maxEditCost maximum length of edit script searched at once (see class description);
+     *                    off-heap memory needed is about 2 * maxEditCost ^ 2 bytes
+     */
+    public MyersDiffGenerator(AtomicBoolean stopFlag, int maxEditCost) {
+        if (maxEditCost < 1) {
+            throw new IllegalArgumentException("maxEditCost must be positive: " + maxEditCost);
+        }
         this.stopFlag = stopFlag;
+        this.maxEditCost = maxEditCost;
+    }
+
+    /**
+     * @return false if edit cost limit was exceeded during the last {@link #generate(int[], int[])} call,
+     * so the returned diff may be longer than necessary
+     */
+    public boolean isLastResultMinimal() {
+        return lastResultMinimal;
     }
 
     @Override
@@ -43,13 +97,13 @@ public final class MyersDiffGenerator implements DiffGenerator {
 
         int prevX = 0, prevY = 0;
 
-        List<EditPathVertex> editPathVertices = doMyers(a, b);
+        StopFlags.AmortizedCheck stopCheck = new StopFlags.AmortizedCheck(stopFlag);
+
+        List<EditPathVertex> editPathVertices = doMyers(a, b, stopCheck);
 
         for (int i = 0; i < editPathVertices.size(); i++) {
-            if (i % 100 == 0) {
-                if (stopFlag.get()) {
-                    return Collections.emptyList();
-                }
+            if (stopCheck.isStopped(1)) {
+                return Collections.emptyList();
             }
 
             EditPathVertex e = editPathVertices.get(i);
@@ -95,126 +149,141 @@ public final class MyersDiffGenerator implements DiffGenerator {
     }
 
     /**
-     * emulating V being [-MAX .. MAX] array
+     * V arrays of all D iterations (needed for reconstructEditPath), stored off-heap one after another.
+     *
+     * Iteration D sets only diagonals k = -D, -D + 2, .. D (and reads only those set by iteration D - 1),
+     * so V of iteration D takes D + 1 ints and nothing is copied from the previous iteration.
      */
-    private static final class V {
-        final int[] nonNegativeV;
-        final int[] negativeV;
-
-        V(int D, V previous) {
-            nonNegativeV = new int[D + 1];
-            negativeV = new int[D + 1];
-
-            if (previous != null) {
-                // copying from previous iteration
-                System.arraycopy(previous.nonNegativeV, 0,
-                        nonNegativeV, 0, previous.nonNegativeV.length);
-                System.arraycopy(previous.negativeV, 0,
-                        negativeV, 0, previous.negativeV.length);
-            }
+    private static final class Vd {
+        private final OffHeapIntArray values = new OffHeapIntArray();
+
+        int get(int D, int k) {
+            return values.get(indexOf(D, k));
         }
 
-        int get(int i) {
-            if (i >= 0) {
-                if (i < nonNegativeV.length) {
-                    return nonNegativeV[i];
-                } else {
-                    return 0;
-                }
-            } else {
-                if (Math.abs(i) < negativeV.length) {
-                    return negativeV[Math.abs(i)];
-                } else {
-                    return 0;
-                }
-            }
+        void set(int D, int k, int x) {
+            long index = indexOf(D, k);
+            values.ensureCapacity(index + 1);
+            values.set(index, x);
         }
 
-        void set(int i, int value) {
-            if (i >= 0) {
-                nonNegativeV[i] = value;
-            } else {
-                negativeV[Math.abs(i)] = value;
-            }
+        private static long indexOf(int D, int k) {
+            return (long) D * (D + 1) / 2 + (k + D) / 2;
         }
     }
 
-    private static final class Vd {
-        /**
-         * need to store V for every D iteration (needed for reconstructEditPath)
-         */
-        final ArrayList<V> vs;
+    private List<EditPathVertex> doMyers(int[] a, int[] b, StopFlags.AmortizedCheck stopCheck) {
+        List<EditPathVertex> result = new ArrayList<>();
+        boolean minimal = true;
 
-        Vd() {
-            vs = new ArrayList<>();
-        }
+        int offsetA = 0, offsetB = 0;
+        while (true) {
+            PathEnd pathEnd = findPathEnd(a, offsetA, b, offsetB, stopCheck);
+            if (pathEnd == null) {
+                return Collections.emptyList();
+            }
 
-        V get(int D) {
-            if (D < vs.size()) {
-                return vs.get(D);
-            } else {
-                V newV = new V(D, D > 0 ? vs.get(D - 1) : null);
-                vs.add(newV);
-                return newV;
+            List<EditPathVertex> pathPart = reconstructEditPath(pathEnd, a, offsetA, b, offsetB, stopCheck);
+            if (stopCheck.isStopped(0)) {
+                return Collections.emptyList();
+            }
+            result.addAll(pathPart);
+
+            if (pathEnd.complete) {
+                break;
             }
+
+            int x = pathEnd.Vd.get(pathEnd.D, pathEnd.k);
+            int y = x - pathEnd.k;
+
+            minimal = false;
+            offsetA += x;
+            offsetB += y;
         }
+
+        lastResultMinimal = minimal;
+        return result;
     }
 
-    private List<EditPathVertex> doMyers(int[] a, int[] b) {
+    /**
+     * Compare a[offsetA..] to b[offsetB..].
+     *
+     * @return end of the shortest edit path or (if edit cost limit is exceeded)
+     * furthest reaching point of the longest path searched; null if stopped
+     */
+    private PathEnd findPathEnd(int[] a, int offsetA, int[] b, int offsetB, StopFlags.AmortizedCheck stopCheck) {
         // Simple, unoptimized version as described on p. 6.
         // TODO implement optimized version
 
-        final int N = a.length;
-        final int M = b.length;
+        final int N = a.length - offsetA;
+        final int M = b.length - offsetB;
 
         Vd Vd = new Vd();
 
         for (int D = 0; D <= N + M; D++) {
-            if (D % 100 == 0) {
-                if (stopFlag.get()) {
-                    return Collections.emptyList();
-                }
-            }
-
             for (int k = -D; k <= D; k += 2) {
                 int x, y;
-                if ((k == -D) || (k != D) && Vd.get(D).get(k - 1) < Vd.get(D).get(k + 1)) {
-                    x = Vd.get(D).get(k + 1);
+                if (D == 0) {
+                    x = 0;
+                } else if ((k == -D) || (k != D) && Vd.get(D - 1, k - 1) < Vd.get(D - 1, k + 1)) {
+                    x = Vd.get(D - 1, k + 1);
                 } else {
-                    x = Vd.get(D).get(k - 1) + 1;
+                    x = Vd.get(D - 1, k - 1) + 1;
                 }
                 y = x - k;
-                while (x < N && y < M && charAt(a, x + 1) == charAt(b, y + 1)) {
-                    x++; y++;
+                int snakeLength = EqualRuns.matchForward(a, offsetA + x, b, offsetB + y, Math.min(N - x, M - y));
+                x += snakeLength;
+                y += snakeLength;
+                // snakes may be as long as the strings, so their length is counted as cost too
+                if (stopCheck.isStopped(1 + snakeLength)) {
+                    return null;
                 }
-                Vd.get(D).set(k, x);
+                Vd.set(D, k, x);
                 if (x >= N && y >= M) {
-                    return reconstructEditPath(N, M, D, Vd, a, b);
+                    return new PathEnd(D, N - M, Vd, true);
                 }
             }
+
+            if (D == maxEditCost) {
+                return findFurthestReachingPoint(D, Vd, N, M);
+            }
         }
         throw new RuntimeException("bogus edit script length"); // should not happen
     }
 
+    /**
+     * "Too expensive" heuristic: of all D-paths staying inside the edit graph,
+     * choose the one which got closest to the end of both strings.
+     */
+    private static PathEnd findFurthestReachingPoint(int D, Vd Vd, int N, int M) {
+        int bestK = 0, bestDistance = -1;
+        for (int k = -D; k <= D; k += 2) {
+            int x = Vd.get(D, k);
+            int y = x - k;
+            if ((x <= N) && (y >= 0) && (y <= M) && (x + y > bestDistance)) {
+                bestK = k;
+                bestDistance = x + y;
+            }
+        }
+        return new PathEnd(D, bestK, Vd, false);
+    }
+
     /**
      * Based on description on p. 8 of referenced paper (unoptimized version).
      * Switched from recursion to loop in order to avoid StackOverflowError.
      *
      * TODO implement optimized version
      */
-    private LinkedList<EditPathVertex> reconstructEditPath(int N, int M, int D, Vd Vd, int[] a, int[] b) {
-        int k = N - M;
+    private LinkedList<EditPathVertex> reconstructEditPath(PathEnd pathEnd, int[] a, int offsetA, int[] b, int offsetB,
+                                                           StopFlags.AmortizedCheck stopCheck) {
+        int D = pathEnd.D;
+        int k = pathEnd.k;
+        Vd Vd = pathEnd.Vd;
 
         LinkedList<EditPathVertex> result = new LinkedList<>();
 
         while (true) {
-            if (D % 100 == 0) {
-                if (stopFlag.get()) {
-                    return new LinkedList<>();
-                }
-            }
-
-            int kx = Vd.get(D).get(k);
+            int kx = Vd.get(D, k);
             int ky = kx - k;
 
             int x = kx;
@@ -222,10 +291,10 @@ public final class MyersDiffGenerator implements DiffGenerator {
             int currentSnakeLen = 0;
             int snakeLenWithNonDiagonalEdge = -1;
 
-            while (x >= 1 && y >= 1 && charAt(a, x) == charAt(b, y)) {
+            while (x >= 1 && y >= 1 && charAt(a, offsetA + x) == charAt(b, offsetB + y)) {
                 if (D != 0 &&
-                        (Vd.get(D - 1).get(k + 1) == x || // vertical edge
-                                Vd.get(D - 1).get(k - 1) == x - 1)) { // horizontal edge
+                        (hasVerticalEdgeTo(Vd, D, k, x) ||
+                                hasHorizontalEdgeTo(Vd, D, k, x))) {
                     snakeLenWithNonDiagonalEdge = currentSnakeLen;
                 }
 
@@ -234,6 +303,10 @@ public final class MyersDiffGenerator implements DiffGenerator {
                 y--;
             }
 
+            if (stopCheck.isStopped(1 + currentSnakeLen)) {
+                return new LinkedList<>();
+            }
+
             int snakeLen;
 
             if (snakeLenWithNonDiagonalEdge != -1) {
@@ -247,28 +320,43 @@ public final class MyersDiffGenerator implements DiffGenerator {
 
             for (int i = snakeLen; i > 0; i--) { // adding "snake"
                 // note inverted order because of addFirst
-                result.addFirst(new EditPathVertex(x + i, y + i));
+                result.addFirst(new EditPathVertex(offsetA + x + i, offsetB + y + i));
             }
 
             if (D == 0) {
                 break;
             } else {
-                if (Vd.get(D - 1).get(k + 1) == x) {
+                if (hasVerticalEdgeTo(Vd, D, k, x)) {
                     // vertical edge
                     k++; D--;
-                } else if (Vd.get(D - 1).get(k - 1) == x - 1) {
+                } else if (hasHorizontalEdgeTo(Vd, D, k, x)) {
                     // horizontal edge
                     k--; D--;
                 } else {
                     throw new AssertionError("no non-diagonal edge before maximum snake");
                 }
-                result.addFirst(new EditPathVertex(x, y));
+                result.addFirst(new EditPathVertex(offsetA + x, offsetB + y));
             }
         }
 
         return result;
     }
 
+    /**
+     * Diagonal k + 1 must be reachable within D - 1 steps (V of iteration D - 1 holds
+     * only diagonals -(D - 1) .. D - 1, others belong to neighbouring iterations).
+     */
+    private static boolean hasVerticalEdgeTo(Vd Vd, int D, int k, int x) {
+        return (k + 1 <= D - 1) && (Vd.get(D - 1, k + 1) == x);
+    }
+
+    /**
+     * @see #hasVerticalEdgeTo(Vd, int, int, int)
+     */
+    private static boolean hasHorizontalEdgeTo(Vd Vd, int D, int k, int x) {
+        return (k - 1 >= -(D - 1)) && (Vd.get(D - 1, k - 1) == x - 1);
+    }
+
     /**
      * emulating string indexing starting with "1"
      */
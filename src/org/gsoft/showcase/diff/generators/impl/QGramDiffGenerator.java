@@ -0,0 +1,179 @@
+package org.gsoft.showcase.diff.generators.impl;
+
+import org.gsoft.showcase.diff.generators.DiffGenerator;
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.generators.EqualRuns;
+import org.gsoft.showcase.diff.generators.IntArraySequence;
+import org.gsoft.showcase.diff.generators.IntSequence;
+import org.gsoft.showcase.diff.generators.OffHeapIntArray;
+import org.gsoft.showcase.diff.generators.StopFlags;
+import org.gsoft.showcase.diff.generators.impl.SegmentedDiffGenerator.Segment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Approximate diff generator for huge strings (e.g. log files compared by lines), which takes
+ * near-linear time however different strings are.
+ *
+ * Fingerprints of all runs of {@link #Q} chars of string a are indexed (off-heap, so that the index
+ * of a huge string does not burden garbage collector), then string b is scanned for runs found in the index.
+ * Each run found is extended as long as chars are equal and taken as matching if it follows the previous
+ * matching run in both strings. Only the strings between matching runs are compared with the exact generator.
+ *
+ * Strings may be given as {@link IntSequence} (see {@link #generate(IntSequence, IntSequence)}), so that
+ * huge files encoded off-heap are compared without copying them to heap.
+ *
+ * Result is not minimal: matching runs are chosen greedily and runs shorter than {@link #Q} chars
+ * are found only by the exact generator.
+ */
+public final class QGramDiffGenerator implements DiffGenerator {
+    /**
+     * Length of indexed runs (in chars)
+     */
+    private static final int Q = 8;
+
+    /**
+     * Occurrences of the same fingerprint examined while looking for the first one following
+     * the previous matching run (limits time spent on highly repetitive strings)
+     */
+    private static final int MAX_CHAIN_STEPS = 64;
+
+    /**
+     * Limits size of hash table (256 MB): huge strings get longer chains instead
+     */
+    private static final int MAX_TABLE_SIZE = 1 << 26;
+
+    private static final int HASH_MULTIPLIER = 0x01000193;
+
+    private final AtomicBoolean stopFlag;
+    private final DiffGenerator generator;
+
+    /**
+     * @param generator generator comparing strings between matching runs; it should have bounded cost
+     *                  (e.g. {@link BidirectionalMyersDiffGenerator} with edit cost limit), since there may be
+     *                  no matching runs at all
+     */
+    public QGramDiffGenerator(AtomicBoolean stopFlag, DiffGenerator generator) {
+        this.stopFlag = stopFlag;
+        this.generator = generator;
+    }
+
+    /**
+     * @return diff items (empty if stopped)
+     */
+    @Override
+    public List<DiffItem> generate(int[] a, int[] b) {
+        return generate(new IntArraySequence(a), new IntArraySequence(b));
+    }
+
+    /**
+     * The same as {@link #generate(int[], int[])}, strings are read element by element
+     * (only strings between matching runs and the runs themselves are copied to heap)
+     *
+     * @return diff items (empty if stopped)
+     */
+    @Override
+    public List<DiffItem> generate(IntSequence a, IntSequence b) {
+        StopFlags.AmortizedCheck stopCheck = new StopFlags.AmortizedCheck(stopFlag);
+
+        List<Segment> segments = findSegments(a, b, stopCheck);
+        if (segments == null) {
+            return Collections.emptyList();
+        }
+
+        List<DiffItem> result = new ArrayList<>();
+        for (Segment segment : segments) {
+            List<DiffItem> segmentItems = SegmentedDiffGenerator.compareSegment(a, b, segment, generator);
+            if (stopFlag.get()) {
+                return Collections.emptyList();
+            }
+
+            for (DiffItem item : segmentItems) {
+                SegmentedDiffGenerator.addMergingItems(result, item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return segments ending with matching runs (the last one possibly without) or null if stopped
+     */
+    private static List<Segment> findSegments(IntSequence a, IntSequence b, StopFlags.AmortizedCheck stopCheck) {
+        int N = a.length(), M = b.length();
+
+        List<Segment> result = new ArrayList<>();
+        int lineA = 0, lineB = 0;
+
+        if ((N >= Q) && (M >= Q)) {
+            int fingerprintCount = N - Q + 1;
+            // at most one bucket per fingerprint: longer chains cost little, since walking a chain stops
+            // at the first position following the previous matching run or after MAX_CHAIN_STEPS
+            int tableSize = Math.min(Integer.highestOneBit(fingerprintCount), MAX_TABLE_SIZE);
+
+            //
+            // chained hash table: heads[fingerprint bucket] is the first position of a having it,
+            // next[position] is the next one; positions are stored increased by one (zero marks the end)
+            // and every chain is sorted
+            //
+            OffHeapIntArray heads = new OffHeapIntArray(tableSize);
+            OffHeapIntArray next = new OffHeapIntArray(fingerprintCount);
+
+            for (int i = fingerprintCount - 1; i >= 0; i--) {
+                if (stopCheck.isStopped(Q)) {
+                    return null;
+                }
+                int bucket = fingerprint(a, i) & (tableSize - 1);
+                next.set(i, heads.get(bucket));
+                heads.set(bucket, i + 1);
+            }
+
+            int j = 0;
+            while (j <= M - Q) {
+                if (stopCheck.isStopped(Q)) {
+                    return null;
+                }
+
+                int matchA = -1;
+                int chainSteps = 0;
+                for (int position = heads.get(fingerprint(b, j) & (tableSize - 1));
+                     (position != 0) && (chainSteps < MAX_CHAIN_STEPS);
+                     position = next.get(position - 1), chainSteps++) {
+                    if ((position - 1 >= lineA) && (EqualRuns.matchForward(a, position - 1, b, j, Q) == Q)) {
+                        matchA = position - 1;
+                        break;
+                    }
+                }
+
+                if (matchA == -1) {
+                    j++;
+                    continue;
+                }
+
+                int length = Q + EqualRuns.matchForward(a, matchA + Q, b, j + Q, Math.min(N - matchA, M - j) - Q);
+                if (stopCheck.isStopped(length)) {
+                    return null;
+                }
+
+                result.add(new Segment(lineA, matchA, lineB, j, length));
+                lineA = matchA + length;
+                lineB = j + length;
+                j = lineB;
+            }
+        }
+
+        result.add(new Segment(lineA, N, lineB, M, 0));
+        return result;
+    }
+
+    private static int fingerprint(IntSequence s, int from) {
+        int hash = 0;
+        for (int i = from; i < from + Q; i++) {
+            hash = hash * HASH_MULTIPLIER + s.get(i);
+        }
+        // mixing high bits into low ones used for bucket selection
+        return hash ^ (hash >>> 16);
+    }
+}
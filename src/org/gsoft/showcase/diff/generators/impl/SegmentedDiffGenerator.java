@@ -0,0 +1,333 @@
+package org.gsoft.showcase.diff.generators.impl;
+
+import org.gsoft.showcase.diff.generators.DiffGenerator;
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.generators.DiffItemType;
+import org.gsoft.showcase.diff.generators.EqualRuns;
+import org.gsoft.showcase.diff.generators.IntArraySequence;
+import org.gsoft.showcase.diff.generators.IntSequence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Diff generator splitting strings into independent segments which are compared in parallel
+ * with {@link MyersDiffGenerator} (in a fork-join pool), so that large strings are compared
+ * on all cores and diff of the beginning of strings is available long before the whole diff is computed
+ * (see {@link #generate(int[], int[], Consumer)}).
+ *
+ * Strings are split at anchors: common prefix and suffix and chars (lines) occurring exactly once
+ * in each of strings, taken in the same order in both of them (longest increasing subsequence
+ * of their positions, as in patience diff). Neighbouring segments are merged until they are large enough
+ * to be worth comparing separately.
+ *
+ * Result is not necessarily minimal: unique chars are always matched with each other.
+ * It does not depend on the pool used: segments are the same and their items are concatenated in order.
+ * Each segment being compared may take as much memory as {@link MyersDiffGenerator} limited by the same edit cost.
+ */
+public final class SegmentedDiffGenerator implements DiffGenerator {
+    /**
+     * Segments shorter than this (in chars of both strings) are merged with the next ones
+     */
+    private static final int MIN_SEGMENT_LENGTH = 2000;
+
+    /**
+     * Region of strings compared separately: changed part ([start, end) ranges)
+     * followed by equalLength equal chars
+     */
+    static final class Segment {
+        final int startA, endA;
+        final int startB, endB;
+        final int equalLength;
+
+        Segment(int startA, int endA, int startB, int endB, int equalLength) {
+            this.startA = startA;
+            this.endA = endA;
+            this.startB = startB;
+            this.endB = endB;
+            this.equalLength = equalLength;
+        }
+    }
+
+    private final AtomicBoolean stopFlag;
+    private final int maxEditCost;
+    private final ForkJoinPool pool;
+
+    private volatile boolean lastResultMinimal = true;
+
+    /**
+     * Create generator comparing segments in the common fork-join pool.
+     *
+     * @param maxEditCost limit of edit cost for comparing each segment
+     * @see MyersDiffGenerator#MyersDiffGenerator(AtomicBoolean, int)
+     */
+    public SegmentedDiffGenerator(AtomicBoolean stopFlag, int maxEditCost) {
+        this(stopFlag, maxEditCost, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param maxEditCost limit of edit cost for comparing each segment
+     * @param pool        pool segments are compared in
+     * @see MyersDiffGenerator#MyersDiffGenerator(AtomicBoolean, int)
+     */
+    public SegmentedDiffGenerator(AtomicBoolean stopFlag, int maxEditCost, ForkJoinPool pool) {
+        this.stopFlag = stopFlag;
+        this.maxEditCost = maxEditCost;
+        this.pool = pool;
+    }
+
+    /**
+     * @return false if edit cost limit was exceeded for some segment during the last generate call
+     */
+    public boolean isLastResultMinimal() {
+        return lastResultMinimal;
+    }
+
+    @Override
+    public List<DiffItem> generate(int[] a, int[] b) {
+        return generate(new IntArraySequence(a), new IntArraySequence(b));
+    }
+
+    /**
+     * The same as {@link #generate(int[], int[])}, strings are read in place (e.g. off-heap)
+     */
+    @Override
+    public List<DiffItem> generate(IntSequence a, IntSequence b) {
+        return generate(a, b, items -> { });
+    }
+
+    /**
+     * @see #generate(IntSequence, IntSequence, Consumer)
+     */
+    public List<DiffItem> generate(int[] a, int[] b, Consumer<List<DiffItem>> segmentListener) {
+        return generate(new IntArraySequence(a), new IntArraySequence(b), segmentListener);
+    }
+
+    /**
+     * @param segmentListener receives items of each segment as soon as it is compared, in order
+     *                        (items of all segments concatenated form the whole diff)
+     * @return diff items (empty if stopped)
+     */
+    public List<DiffItem> generate(IntSequence a, IntSequence b, Consumer<List<DiffItem>> segmentListener) {
+        AtomicBoolean minimal = new AtomicBoolean(true);
+
+        //
+        // segments are independent, so all of them are submitted at once
+        // (generator is not thread-safe - each segment gets its own);
+        // results are taken in order, while the following segments are still being compared
+        //
+        List<ForkJoinTask<List<DiffItem>>> tasks = new ArrayList<>();
+        for (Segment segment : split(a, b)) {
+            tasks.add(pool.submit(() -> {
+                MyersDiffGenerator segmentGenerator = new MyersDiffGenerator(stopFlag, maxEditCost);
+                List<DiffItem> segmentItems = compareSegment(a, b, segment, segmentGenerator);
+                if (!segmentGenerator.isLastResultMinimal()) {
+                    minimal.set(false);
+                }
+                return segmentItems;
+            }));
+        }
+
+        List<DiffItem> result = new ArrayList<>();
+
+        try {
+            for (ForkJoinTask<List<DiffItem>> task : tasks) {
+                List<DiffItem> segmentItems = task.join();
+                if (stopFlag.get()) {
+                    return Collections.emptyList();
+                }
+
+                segmentListener.accept(Collections.unmodifiableList(segmentItems));
+
+                for (DiffItem item : segmentItems) {
+                    addMergingItems(result, item);
+                }
+            }
+        } finally {
+            // segments not taken yet are not needed if stopped or failed
+            for (ForkJoinTask<List<DiffItem>> task : tasks) {
+                task.cancel(false);
+            }
+        }
+
+        lastResultMinimal = minimal.get();
+        return result;
+    }
+
+    /**
+     * Compare chars of the segment: segment generator gets views of its changed ranges
+     * (and copies only them to heap if it does not read sequences in place)
+     */
+    static List<DiffItem> compareSegment(IntSequence a, IntSequence b, Segment segment,
+                                         DiffGenerator segmentGenerator) {
+        List<DiffItem> result = new ArrayList<>();
+
+        if (segment.endA > segment.startA && segment.endB > segment.startB) {
+            result.addAll(segmentGenerator.generate(
+                    a.subSequence(segment.startA, segment.endA),
+                    b.subSequence(segment.startB, segment.endB)));
+        } else if (segment.endA > segment.startA) {
+            result.add(new DiffItem(DiffItemType.DELETE, a, segment.startA, segment.endA));
+        } else if (segment.endB > segment.startB) {
+            result.add(new DiffItem(DiffItemType.INSERT, b, segment.startB, segment.endB));
+        }
+
+        if (segment.equalLength > 0) {
+            addMergingItems(result, new DiffItem(DiffItemType.EQUAL,
+                    a, segment.endA, segment.endA + segment.equalLength));
+        }
+
+        return result;
+    }
+
+    /**
+     * Add item merging it with the last one if they are of the same type
+     */
+    static void addMergingItems(List<DiffItem> items, DiffItem item) {
+        int lastIndex = items.size() - 1;
+        if ((lastIndex >= 0) && (items.get(lastIndex).getType() == item.getType())) {
+            DiffItem lastItem = items.get(lastIndex);
+            int[] mergedChars = new int[lastItem.getLength() + item.getLength()];
+            lastItem.copyChars(mergedChars, 0);
+            item.copyChars(mergedChars, lastItem.getLength());
+            items.set(lastIndex, new DiffItem(item.getType(), mergedChars));
+        } else {
+            items.add(item);
+        }
+    }
+
+    /**
+     * @return segments covering both strings, in order
+     */
+    static List<Segment> split(IntSequence a, IntSequence b) {
+        int N = a.length(), M = b.length();
+
+        int prefixLength = EqualRuns.matchForward(a, 0, b, 0, Math.min(N, M));
+        int suffixLength = EqualRuns.matchBackward(a, N, b, M, Math.min(N, M) - prefixLength);
+
+        List<Segment> anchored = new ArrayList<>();
+        anchored.add(new Segment(0, 0, 0, 0, prefixLength));
+
+        int endA = N - suffixLength, endB = M - suffixLength;
+        int[][] anchors = findAnchors(a, prefixLength, endA, b, prefixLength, endB);
+
+        int lineA = prefixLength, lineB = prefixLength;
+        int i = 0;
+        while (i < anchors.length) {
+            int anchorA = anchors[i][0], anchorB = anchors[i][1];
+
+            // equal chars following the anchor (other anchors included) belong to it too
+            int equalLength = 1 + EqualRuns.matchForward(a, anchorA + 1, b, anchorB + 1,
+                    Math.min(endA - anchorA, endB - anchorB) - 1);
+            anchored.add(new Segment(lineA, anchorA, lineB, anchorB, equalLength));
+
+            lineA = anchorA + equalLength;
+            lineB = anchorB + equalLength;
+            while ((i < anchors.length) && (anchors[i][0] < lineA)) {
+                i++;
+            }
+        }
+
+        anchored.add(new Segment(lineA, endA, lineB, endB, suffixLength));
+
+        return mergeSmallSegments(anchored);
+    }
+
+    private static List<Segment> mergeSmallSegments(List<Segment> segments) {
+        List<Segment> result = new ArrayList<>();
+
+        Segment pending = null;
+        for (Segment segment : segments) {
+            if (pending == null) {
+                pending = segment;
+            } else {
+                // equal chars of the pending segment become a part of the changed region
+                pending = new Segment(pending.startA, segment.endA, pending.startB, segment.endB,
+                        segment.equalLength);
+            }
+
+            int length = (pending.endA - pending.startA) + (pending.endB - pending.startB) + 2 * pending.equalLength;
+            if (length >= MIN_SEGMENT_LENGTH) {
+                result.add(pending);
+                pending = null;
+            }
+        }
+        if (pending != null) {
+            result.add(pending);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return pairs of positions of chars occurring exactly once in both ranges,
+     * longest sequence of them ordered the same way in both strings
+     */
+    private static int[][] findAnchors(IntSequence a, int startA, int endA, IntSequence b, int startB, int endB) {
+        // {count in a, count in b, position in a, position in b}
+        Map<Integer, int[]> occurrences = new HashMap<>();
+        for (int i = startA; i < endA; i++) {
+            int[] occurrence = occurrences.computeIfAbsent(a.get(i), c -> new int[4]);
+            occurrence[0]++;
+            occurrence[2] = i;
+        }
+        for (int i = startB; i < endB; i++) {
+            int[] occurrence = occurrences.get(b.get(i));
+            if (occurrence != null) {
+                occurrence[1]++;
+                occurrence[3] = i;
+            }
+        }
+
+        int[] candidatesB = new int[endA - startA];
+        int[] candidatesA = new int[endA - startA];
+        int candidateCount = 0;
+        for (int i = startA; i < endA; i++) {
+            int[] occurrence = occurrences.get(a.get(i));
+            if ((occurrence[0] == 1) && (occurrence[1] == 1)) {
+                candidatesA[candidateCount] = i;
+                candidatesB[candidateCount] = occurrence[3];
+                candidateCount++;
+            }
+        }
+
+        //
+        // longest increasing subsequence of positions in b (patience sorting):
+        // pileTops[k] is index of the candidate ending the best subsequence of length k + 1
+        //
+        int[] pileTops = new int[candidateCount];
+        int[] predecessors = new int[candidateCount];
+        int pileCount = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            int low = 0, high = pileCount;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (candidatesB[pileTops[middle]] < candidatesB[i]) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            predecessors[i] = low > 0 ? pileTops[low - 1] : -1;
+            pileTops[low] = i;
+            if (low == pileCount) {
+                pileCount++;
+            }
+        }
+
+        int[][] result = new int[pileCount][];
+        int candidate = pileCount > 0 ? pileTops[pileCount - 1] : -1;
+        for (int k = pileCount - 1; k >= 0; k--) {
+            result[k] = new int[]{candidatesA[candidate], candidatesB[candidate]};
+            candidate = predecessors[candidate];
+        }
+        return result;
+    }
+}
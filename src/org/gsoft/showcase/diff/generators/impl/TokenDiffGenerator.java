@@ -0,0 +1,382 @@
+package org.gsoft.showcase.diff.generators.impl;
+
+import org.gsoft.showcase.diff.generators.DiffGenerator;
+import org.gsoft.showcase.diff.generators.DiffGeneratorUtils;
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.generators.DiffItemType;
+import org.gsoft.showcase.diff.generators.EqualRuns;
+import org.gsoft.showcase.diff.generators.LineComparisonOptions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Char by char diff generator which first compares strings token by token
+ * (words/identifiers, whitespace runs, line feeds and single punctuation chars are tokens)
+ * and compares chars only inside short runs of changed tokens.
+ *
+ * It is much faster than comparing all chars on long strings and its result is less noisy.
+ *
+ * Tokens are matched according to {@link LineComparisonOptions} (e.g. tokens differing by case match each other
+ * if case is ignored); matched tokens which are not exactly equal become EQUAL items with their own chars
+ * of string B. Ignored tokens (whitespace if it is ignored, trailing whitespace if it is ignored and parts
+ * of lines matching ignored patterns) are not compared at all, between matched tokens they are EQUAL too.
+ */
+public final class TokenDiffGenerator implements DiffGenerator {
+    /**
+     * Changed token runs longer than this (in chars) are not compared char by char
+     */
+    private static final int MAX_REFINED_RUN_LENGTH = 100;
+
+    private static final int WORD_TOKEN = 0;
+    private static final int WHITESPACE_TOKEN = 1;
+    private static final int SINGLE_CHAR_TOKEN = 2;
+
+    /**
+     * Code of tokens ignored according to comparison options
+     */
+    private static final int IGNORED_TOKEN = -1;
+
+    private static final int[] NO_SPANS = new int[0];
+
+    private final DiffGenerator generator;
+    private final LineComparisonOptions options;
+
+    /**
+     * @param generator generator used to compare tokens and chars
+     */
+    public TokenDiffGenerator(DiffGenerator generator) {
+        this(generator, LineComparisonOptions.EXACT);
+    }
+
+    /**
+     * @param generator generator used to compare tokens and chars
+     * @param options defines which tokens are matched
+     */
+    public TokenDiffGenerator(DiffGenerator generator, LineComparisonOptions options) {
+        this.generator = generator;
+        this.options = options;
+    }
+
+    /**
+     * @param a "before" string encoded with {@link org.gsoft.showcase.diff.generators.DiffGeneratorUtils#encodeString(String)}
+     *          (it may consist of several lines joined with line feeds)
+     * @param b "after" string encoded the same way
+     */
+    @Override
+    public List<DiffItem> generate(int[] a, int[] b) {
+        Map<String, Integer> tokensEncodingMap = new HashMap<>();
+
+        int[] ignoredSpansA = options.isExact() ? NO_SPANS : findIgnoredSpans(a, options);
+        int[] ignoredSpansB = options.isExact() ? NO_SPANS : findIgnoredSpans(b, options);
+
+        int[] tokenStartsA = tokenize(a, ignoredSpansA, options.isIgnoreWhitespace());
+        int[] tokenStartsB = tokenize(b, ignoredSpansB, options.isIgnoreWhitespace());
+
+        int[] tokensA = encodeTokens(a, tokenStartsA, ignoredSpansA, tokensEncodingMap, options);
+        int[] tokensB = encodeTokens(b, tokenStartsB, ignoredSpansB, tokensEncodingMap, options);
+
+        // only tokens which are not ignored are compared
+        int[] comparedTokensA = findComparedTokens(tokensA);
+        int[] comparedTokensB = findComparedTokens(tokensB);
+
+        List<DiffItem> byTokenItems = generator.generate(selectTokens(tokensA, comparedTokensA),
+                selectTokens(tokensB, comparedTokensB));
+
+        List<DiffItem> result = new ArrayList<>();
+
+        // chars up to endA and endB are already added to result; changed tells if there are
+        // changed tokens after them
+        int endA = 0, endB = 0;
+        boolean changed = false;
+        int comparedTokenA = 0, comparedTokenB = 0;
+
+        for (DiffItem byTokenItem : byTokenItems) {
+            switch (byTokenItem.getType()) {
+                case EQUAL:
+                    if (options.isExact()) {
+                        // no token is ignored and matched tokens are exactly equal
+                        int equalStartA = tokenStartsA[comparedTokensA[comparedTokenA]];
+                        int equalStartB = tokenStartsB[comparedTokensB[comparedTokenB]];
+                        addGap(a, endA, equalStartA, b, endB, equalStartB, changed, result);
+
+                        comparedTokenA += byTokenItem.getLength();
+                        comparedTokenB += byTokenItem.getLength();
+                        endA = tokenStartsA[comparedTokensA[comparedTokenA - 1] + 1];
+                        endB = tokenStartsB[comparedTokensB[comparedTokenB - 1] + 1];
+                        result.add(new DiffItem(DiffItemType.EQUAL, a, equalStartA, endA));
+                    } else {
+                        // matched tokens may differ (e.g. by case), ignored tokens may be found between them
+                        for (int i = 0; i < byTokenItem.getLength(); i++) {
+                            int tokenA = comparedTokensA[comparedTokenA++];
+                            int tokenB = comparedTokensB[comparedTokenB++];
+                            addGap(a, endA, tokenStartsA[tokenA], b, endB, tokenStartsB[tokenB], changed, result);
+                            changed = false;
+
+                            endA = tokenStartsA[tokenA + 1];
+                            endB = tokenStartsB[tokenB + 1];
+                            addEqual(a, tokenStartsA[tokenA], endA, b, tokenStartsB[tokenB], endB, result);
+                        }
+                    }
+
+                    changed = false;
+                    break;
+
+                case INSERT:
+                    comparedTokenB += byTokenItem.getLength();
+                    changed = true;
+                    break;
+
+                case DELETE:
+                    comparedTokenA += byTokenItem.getLength();
+                    changed = true;
+                    break;
+
+                default:
+                    throw new RuntimeException("unexpected diff item type: " + byTokenItem.getType());
+            }
+        }
+
+        addGap(a, endA, a.length, b, endB, b.length, changed, result);
+
+        // items produced for neighbouring token runs may have the same type
+        return DiffGeneratorUtils.mergeSameTypeItems(result);
+    }
+
+    /**
+     * Add chars between matched tokens: changed run if there are changed tokens among them,
+     * otherwise they are ignored tokens only
+     */
+    private void addGap(int[] a, int startA, int endA,
+                        int[] b, int startB, int endB,
+                        boolean changed, List<DiffItem> result) {
+        if (changed) {
+            addChangedRun(a, startA, endA, b, startB, endB, result);
+        } else {
+            addEqual(a, startA, endA, b, startB, endB, result);
+        }
+    }
+
+    private void addChangedRun(int[] a, int startA, int endA,
+                               int[] b, int startB, int endB,
+                               List<DiffItem> result) {
+        int lengthA = endA - startA;
+        int lengthB = endB - startB;
+
+        if ((lengthA > 0) && (lengthB > 0) &&
+                (lengthA <= MAX_REFINED_RUN_LENGTH) && (lengthB <= MAX_REFINED_RUN_LENGTH)) {
+            result.addAll(generator.generate(
+                    Arrays.copyOfRange(a, startA, endA), Arrays.copyOfRange(b, startB, endB)));
+            return;
+        }
+
+        if (lengthA > 0) {
+            result.add(new DiffItem(DiffItemType.DELETE, a, startA, endA));
+        }
+        if (lengthB > 0) {
+            result.add(new DiffItem(DiffItemType.INSERT, b, startB, endB));
+        }
+    }
+
+    /**
+     * Add chars which are equal according to comparison options (they are not compared char by char)
+     */
+    private static void addEqual(int[] a, int startA, int endA,
+                                 int[] b, int startB, int endB,
+                                 List<DiffItem> result) {
+        if ((startA == endA) && (startB == endB)) {
+            return;
+        }
+
+        int length = endA - startA;
+        if ((endB - startB == length) && (EqualRuns.matchForward(a, startA, b, startB, length) == length)) {
+            result.add(new DiffItem(DiffItemType.EQUAL, a, startA, endA));
+        } else {
+            result.add(new DiffItem(DiffItemType.EQUAL,
+                    Arrays.copyOfRange(a, startA, endA), Arrays.copyOfRange(b, startB, endB)));
+        }
+    }
+
+    /**
+     * @return sorted non-overlapping [start, end) ranges of ignored chars of lines (two ints per range):
+     *         parts matching ignored patterns and whitespace after the compared part of line
+     *         (see {@link LineComparisonOptions#getNormalizedEnd(CharSequence)})
+     */
+    private static int[] findIgnoredSpans(int[] s, LineComparisonOptions options) {
+        int[] result = new int[8];
+        int length = 0;
+
+        StringBuilder line = new StringBuilder();
+        int lineStart = 0;
+        while (lineStart <= s.length) {
+            int lineEnd = lineStart;
+            line.setLength(0);
+            while ((lineEnd < s.length) && (s[lineEnd] != '\n')) {
+                line.append((char) s[lineEnd++]);
+            }
+
+            int normalizedEnd = lineStart + options.getNormalizedEnd(line);
+
+            int[] patternSpans = options.findIgnoredSpans(line);
+            for (int i = 0; (patternSpans != null) && (i < patternSpans.length); i += 2) {
+                int start = lineStart + patternSpans[i];
+                int end = Math.min(lineStart + patternSpans[i + 1], normalizedEnd);
+                if (start < end) {
+                    result = addSpan(result, length, start, end);
+                    length += 2;
+                }
+            }
+            if (normalizedEnd < lineEnd) {
+                result = addSpan(result, length, normalizedEnd, lineEnd);
+                length += 2;
+            }
+
+            lineStart = lineEnd + 1;
+        }
+
+        return Arrays.copyOf(result, length);
+    }
+
+    private static int[] addSpan(int[] spans, int length, int start, int end) {
+        if (length == spans.length) {
+            spans = Arrays.copyOf(spans, 2 * spans.length);
+        }
+        spans[length] = start;
+        spans[length + 1] = end;
+        return spans;
+    }
+
+    /**
+     * @param ignoredSpans ignored ranges of chars, each of them becomes a single token
+     * @param joinWords if words separated by whitespace only are a single token (when whitespace is ignored,
+     *                  e.g. "foo bar" must match "foobar")
+     * @return offsets of tokens starts followed by string length
+     */
+    private static int[] tokenize(int[] s, int[] ignoredSpans, boolean joinWords) {
+        int[] tokenStarts = new int[s.length + 1];
+        int tokenCount = 0;
+
+        int spanIndex = 0;
+        int i = 0;
+        while (i < s.length) {
+            tokenStarts[tokenCount++] = i;
+
+            while ((spanIndex < ignoredSpans.length) && (ignoredSpans[spanIndex + 1] <= i)) {
+                spanIndex += 2;
+            }
+            if ((spanIndex < ignoredSpans.length) && (ignoredSpans[spanIndex] <= i)) {
+                i = ignoredSpans[spanIndex + 1];
+                continue;
+            }
+            int end = spanIndex < ignoredSpans.length ? ignoredSpans[spanIndex] : s.length;
+
+            int tokenType = getTokenType(s[i]);
+            i++;
+
+            if (tokenType != SINGLE_CHAR_TOKEN) {
+                while ((i < end) && (getTokenType(s[i]) == tokenType)) {
+                    i++;
+                }
+            }
+
+            while (joinWords && (tokenType == WORD_TOKEN) && (i < end)) {
+                int wordStart = i;
+                while ((wordStart < end) && (getTokenType(s[wordStart]) == WHITESPACE_TOKEN)) {
+                    wordStart++;
+                }
+                if ((wordStart == end) || (getTokenType(s[wordStart]) != WORD_TOKEN)) {
+                    break;
+                }
+
+                i = wordStart;
+                while ((i < end) && (getTokenType(s[i]) == WORD_TOKEN)) {
+                    i++;
+                }
+            }
+        }
+
+        tokenStarts[tokenCount] = s.length;
+
+        return Arrays.copyOf(tokenStarts, tokenCount + 1);
+    }
+
+    private static int getTokenType(int c) {
+        if (Character.isLetterOrDigit(c) || (c == '_')) {
+            return WORD_TOKEN;
+        }
+        if ((c != '\n') && Character.isWhitespace(c)) {
+            return WHITESPACE_TOKEN;
+        }
+        return SINGLE_CHAR_TOKEN;
+    }
+
+    /**
+     * @return codes of tokens (tokens equal according to options get the same code,
+     *         ignored ones get {@link #IGNORED_TOKEN})
+     */
+    private static int[] encodeTokens(int[] s, int[] tokenStarts, int[] ignoredSpans,
+                                      Map<String, Integer> tokensEncodingMap, LineComparisonOptions options) {
+        int[] result = new int[tokenStarts.length - 1];
+        StringBuilder token = new StringBuilder();
+
+        int spanIndex = 0;
+        for (int i = 0; i < result.length; i++) {
+            // ignored spans are tokens of their own
+            while ((spanIndex < ignoredSpans.length) && (ignoredSpans[spanIndex + 1] <= tokenStarts[i])) {
+                spanIndex += 2;
+            }
+            if ((spanIndex < ignoredSpans.length) && (ignoredSpans[spanIndex] <= tokenStarts[i])) {
+                result[i] = IGNORED_TOKEN;
+                continue;
+            }
+
+            token.setLength(0);
+            for (int j = tokenStarts[i]; j < tokenStarts[i + 1]; j++) {
+                // line feeds separate lines, they are never ignored
+                int c = s[j] != '\n' ? options.normalizeCharCode(s[j]) : s[j];
+                if (c != -1) {
+                    token.append((char) c);
+                }
+            }
+
+            if (token.length() == 0) {
+                result[i] = IGNORED_TOKEN; // e.g. whitespace if it is ignored
+                continue;
+            }
+
+            Integer code = tokensEncodingMap.get(token.toString());
+            if (code == null) {
+                code = tokensEncodingMap.size();
+                tokensEncodingMap.put(token.toString(), code);
+            }
+            result[i] = code;
+        }
+
+        return result;
+    }
+
+    /**
+     * @return indexes of tokens which are not ignored
+     */
+    private static int[] findComparedTokens(int[] tokens) {
+        int[] result = new int[tokens.length];
+        int count = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i] != IGNORED_TOKEN) {
+                result[count++] = i;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] selectTokens(int[] tokens, int[] indexes) {
+        int[] result = new int[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            result[i] = tokens[indexes[i]];
+        }
+        return result;
+    }
+}
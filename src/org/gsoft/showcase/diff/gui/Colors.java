@@ -7,6 +7,10 @@ public final class Colors {
     public static final Color INSERTED_LINES_HIGHLIGHT_COLOR = new Color(174, 255, 202);
     public static final Color MODIFIED_LINES_HIGHLIGHT_COLOR = new Color(221, 226, 255);
     public static final Color MODIFIED_CHARS_HIGHLIGHT_COLOR = new Color(168, 191, 234);
+    public static final Color MOVED_LINES_HIGHLIGHT_COLOR = new Color(255, 226, 160);
+    public static final Color COPIED_LINES_HIGHLIGHT_COLOR = new Color(236, 208, 255);
+    public static final Color CONFLICT_LINES_HIGHLIGHT_COLOR = new Color(255, 150, 150);
+    public static final Color FOLDED_LINES_HIGHLIGHT_COLOR = new Color(232, 232, 232);
 
     public static final Color CHANGE_HIGHLIGHT_COLOR = Color.BLUE;
 
@@ -1,24 +1,26 @@
 package org.gsoft.showcase.diff.gui.components;
 
-import org.gsoft.showcase.diff.gui.logic.DiffItemPosition;
+import org.gsoft.showcase.diff.gui.logic.DiffItemPositions;
+import org.gsoft.showcase.diff.gui.logic.ExtendedDiffItemType;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.List;
 
 import static org.gsoft.showcase.diff.gui.Colors.*;
 
 public class DiffMatchingImagePanel extends JPanel {
     private static final int TOP_PADDING = 2; // TODO calculate this
 
+    private static final int MOVE_CONNECTOR_ALPHA = 110;
+
     //
-    // N.B.: In DiffItemPosition instances used in DiffPanesScrollController
+    // N.B.: In DiffItemPositions used in DiffPanesScrollController
     // positions are positions of chars in text area, but here we expect Y
     // coordinates instead.
     //
     // TODO use dedicated type to avoid confusion
     //
-    private List<DiffItemPosition> itemPositions;
+    private DiffItemPositions itemPositions;
 
     public DiffMatchingImagePanel() {
         super(new BorderLayout());
@@ -40,47 +42,90 @@ public class DiffMatchingImagePanel extends JPanel {
             return;
         }
 
-        for (DiffItemPosition itemPosition : itemPositions) {
+        for (int i = 0; i < itemPositions.size(); i++) {
             int[] xs, ys;
 
-            switch (itemPosition.getType()) {
+            switch (itemPositions.getType(i)) {
                 case EQUAL:
                     continue;
 
                 case MODIFIED:
                     xs = new int[] { 0, getWidth(), getWidth(), 0};
-                    ys = new int[] { itemPosition.getStartA() + TOP_PADDING, itemPosition.getStartB() + TOP_PADDING,
-                            itemPosition.getEndB() + TOP_PADDING, itemPosition.getEndA() + TOP_PADDING};
+                    ys = new int[] { itemPositions.getStartA(i) + TOP_PADDING, itemPositions.getStartB(i) + TOP_PADDING,
+                            itemPositions.getEndB(i) + TOP_PADDING, itemPositions.getEndA(i) + TOP_PADDING};
                     g.setColor(MODIFIED_LINES_HIGHLIGHT_COLOR);
                     break;
 
                 case INSERT:
+                case MOVED_TO:
+                case COPIED:
                     xs = new int[] { 0, getWidth(), getWidth()};
-                    ys = new int[] { itemPosition.getStartA() + TOP_PADDING, itemPosition.getStartB() + TOP_PADDING,
-                            itemPosition.getEndB() + TOP_PADDING};
-                    g.setColor(INSERTED_LINES_HIGHLIGHT_COLOR);
+                    ys = new int[] { itemPositions.getStartA(i) + TOP_PADDING, itemPositions.getStartB(i) + TOP_PADDING,
+                            itemPositions.getEndB(i) + TOP_PADDING};
+                    g.setColor(getHighlightColor(itemPositions.getType(i)));
                     break;
 
                 case DELETE:
+                case MOVED_FROM:
                     xs = new int[] { 0, getWidth(), 0};
-                    ys = new int[] { itemPosition.getStartA() + TOP_PADDING, itemPosition.getStartB() + TOP_PADDING,
-                            itemPosition.getEndA() + TOP_PADDING};
-                    g.setColor(DELETED_LINES_HIGHLIGHT_COLOR);
+                    ys = new int[] { itemPositions.getStartA(i) + TOP_PADDING, itemPositions.getStartB(i) + TOP_PADDING,
+                            itemPositions.getEndA(i) + TOP_PADDING};
+                    g.setColor(getHighlightColor(itemPositions.getType(i)));
                     break;
 
                 default:
-                    throw new RuntimeException("unexpected diff item type: " + itemPosition.getType());
+                    throw new RuntimeException("unexpected diff item type: " + itemPositions.getType(i));
             }
 
             g.fillPolygon(xs, ys, xs.length);
+
+            if (itemPositions.hasMoveSource(i)) {
+                paintMoveConnector(g, i);
+            }
+        }
+    }
+
+    /**
+     * Connect moved (or copied) lines with lines of file A they were taken from
+     * (the latter are usually outside of the panel, then connector is clipped)
+     */
+    private void paintMoveConnector(Graphics g, int i) {
+        Color color = getHighlightColor(itemPositions.getType(i)).darker();
+        int[] xs = new int[] { 0, getWidth(), getWidth(), 0};
+        int[] ys = new int[] { itemPositions.getMoveSourceStartA(i) + TOP_PADDING, itemPositions.getStartB(i) + TOP_PADDING,
+                itemPositions.getEndB(i) + TOP_PADDING, itemPositions.getMoveSourceEndA(i) + TOP_PADDING};
+
+        g.setColor(new Color(color.getRed(), color.getGreen(), color.getBlue(), MOVE_CONNECTOR_ALPHA));
+        g.fillPolygon(xs, ys, xs.length);
+        g.setColor(color);
+        g.drawPolygon(xs, ys, xs.length);
+    }
+
+    private static Color getHighlightColor(ExtendedDiffItemType type) {
+        switch (type) {
+            case INSERT:
+                return INSERTED_LINES_HIGHLIGHT_COLOR;
+
+            case DELETE:
+                return DELETED_LINES_HIGHLIGHT_COLOR;
+
+            case MOVED_FROM:
+            case MOVED_TO:
+                return MOVED_LINES_HIGHLIGHT_COLOR;
+
+            case COPIED:
+                return COPIED_LINES_HIGHLIGHT_COLOR;
+
+            default:
+                throw new RuntimeException("unexpected diff item type: " + type);
         }
     }
 
-    public List<DiffItemPosition> getItemPositions() {
+    public DiffItemPositions getItemPositions() {
         return itemPositions;
     }
 
-    public void setItemPositions(List<DiffItemPosition> itemPositions) {
+    public void setItemPositions(DiffItemPositions itemPositions) {
         this.itemPositions = itemPositions;
     }
 }
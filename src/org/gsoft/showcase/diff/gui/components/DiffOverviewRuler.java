@@ -0,0 +1,155 @@
+package org.gsoft.showcase.diff.gui.components;
+
+import org.gsoft.showcase.diff.gui.logic.ChangesOverview;
+import org.gsoft.showcase.diff.gui.logic.ExtendedDiffItemType;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.function.IntConsumer;
+
+import static org.gsoft.showcase.diff.gui.Colors.*;
+
+/**
+ * Vertical strip showing changes of the whole file (one pixel row per bucket of lines)
+ * and the part of file visible in scroll pane. Click on change scrolls to it.
+ */
+public class DiffOverviewRuler extends JComponent {
+    private static final Color INSERTED_COLOR = INSERTED_LINES_HIGHLIGHT_COLOR.darker();
+    private static final Color DELETED_COLOR = DELETED_LINES_HIGHLIGHT_COLOR.darker();
+    private static final Color MODIFIED_COLOR = MODIFIED_LINES_HIGHLIGHT_COLOR.darker();
+    private static final Color MOVED_COLOR = MOVED_LINES_HIGHLIGHT_COLOR.darker();
+    private static final Color COPIED_COLOR = COPIED_LINES_HIGHLIGHT_COLOR.darker();
+
+    private static final Color VISIBLE_AREA_COLOR = new Color(0, 0, 0, 40);
+
+    /**
+     * Clicks this close to a change (in pixels) are treated as clicks on it
+     */
+    private static final int CLICK_TOLERANCE = 3;
+
+    private final JScrollPane scrollPane;
+
+    private ChangesOverview changesOverview;
+
+    public DiffOverviewRuler(JScrollPane scrollPane, IntConsumer changeClickListener) {
+        this.scrollPane = scrollPane;
+
+        setPreferredSize(new Dimension(12, 0));
+        setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+
+        scrollPane.getViewport().addChangeListener(e -> repaint());
+
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                int itemIndex = findChangeNear(e.getY());
+                if (itemIndex != -1) {
+                    changeClickListener.accept(itemIndex);
+                } else {
+                    scrollTo(e.getY());
+                }
+            }
+        });
+    }
+
+    public void setChangesOverview(ChangesOverview changesOverview) {
+        this.changesOverview = changesOverview;
+        repaint();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+
+        int height = getHeight();
+
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, getWidth(), height);
+
+        if ((changesOverview == null) || (height <= 0)) {
+            return;
+        }
+
+        for (int y = 0; y < height; y++) {
+            ExtendedDiffItemType type = changesOverview.getBucketType(y, height);
+            if (type == null) {
+                continue;
+            }
+
+            switch (type) {
+                case INSERT:
+                    g.setColor(INSERTED_COLOR);
+                    break;
+
+                case DELETE:
+                    g.setColor(DELETED_COLOR);
+                    break;
+
+                case MODIFIED:
+                    g.setColor(MODIFIED_COLOR);
+                    break;
+
+                case MOVED_FROM:
+                case MOVED_TO:
+                    g.setColor(MOVED_COLOR);
+                    break;
+
+                case COPIED:
+                    g.setColor(COPIED_COLOR);
+                    break;
+
+                default:
+                    throw new RuntimeException("unexpected diff item type: " + type);
+            }
+
+            g.fillRect(1, y, getWidth() - 2, 1);
+        }
+
+        Component view = scrollPane.getViewport().getView();
+        if ((view != null) && (view.getHeight() > 0)) {
+            Rectangle viewRect = scrollPane.getViewport().getViewRect();
+            int visibleStart = (int) ((long) viewRect.y * height / view.getHeight());
+            int visibleHeight = Math.max(2, (int) ((long) viewRect.height * height / view.getHeight()));
+
+            g.setColor(VISIBLE_AREA_COLOR);
+            g.fillRect(0, visibleStart, getWidth(), visibleHeight);
+        }
+    }
+
+    private int findChangeNear(int y) {
+        if (changesOverview == null) {
+            return -1;
+        }
+
+        int height = getHeight();
+
+        for (int distance = 0; distance <= CLICK_TOLERANCE; distance++) {
+            for (int bucket : new int[] {y - distance, y + distance}) {
+                if ((bucket >= 0) && (bucket < height)) {
+                    int itemIndex = changesOverview.getBucketItemIndex(bucket, height);
+                    if (itemIndex != -1) {
+                        return itemIndex;
+                    }
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    private void scrollTo(int y) {
+        JViewport viewport = scrollPane.getViewport();
+        Component view = viewport.getView();
+        if ((view == null) || (getHeight() <= 0)) {
+            return;
+        }
+
+        int viewCenterY = (int) ((long) y * view.getHeight() / getHeight());
+        int maxViewY = Math.max(0, view.getHeight() - viewport.getHeight());
+        int viewY = Math.min(maxViewY, Math.max(0, viewCenterY - viewport.getHeight() / 2));
+
+        viewport.setViewPosition(new Point(viewport.getViewPosition().x, viewY));
+    }
+}
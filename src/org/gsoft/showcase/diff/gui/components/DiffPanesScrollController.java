@@ -1,6 +1,6 @@
 package org.gsoft.showcase.diff.gui.components;
 
-import org.gsoft.showcase.diff.gui.logic.DiffItemPosition;
+import org.gsoft.showcase.diff.gui.logic.DiffItemPositions;
 import org.gsoft.showcase.diff.gui.logic.ExtendedDiffItemType;
 
 import javax.swing.*;
@@ -10,7 +10,7 @@ import java.awt.*;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
 public final class DiffPanesScrollController {
@@ -37,7 +37,7 @@ public final class DiffPanesScrollController {
 
     private final DiffMatchingImagePanel diffMatchingImagePanel;
 
-    private final List<DiffItemPosition> diffItemPositions;
+    private final DiffItemPositions diffItemPositions;
 
     private List<LinkedScrollRange> scrollRangesA;
     private List<LinkedScrollRange> scrollRangesB;
@@ -47,6 +47,21 @@ public final class DiffPanesScrollController {
 
     private int currentDiffItemIndex;
 
+    //
+    // index of changes (non-EQUAL items) for navigation: indices of items and
+    // their pixel offsets in both panes (taken from scroll ranges)
+    //
+    private int[] changeItemIndices;
+    private int[] changeStartsA, changeEndsA;
+    private int[] changeStartsB, changeEndsB;
+
+    /**
+     * Index of change current diff item is (in changeItemIndices) or -1 if it is EQUAL
+     */
+    private int currentChangeIndex = -1;
+
+    private Runnable currentChangeListener;
+
     private boolean scrollPending = false;
     private boolean changesScrolling = false;
 
@@ -54,11 +69,13 @@ public final class DiffPanesScrollController {
                                      JScrollPane scrollPaneB,
                                      JFrame diffFrame,
                                      DiffMatchingImagePanel diffMatchingImagePanel,
-                                     List<DiffItemPosition> diffItemPositions) {
+                                     DiffItemPositions diffItemPositions) {
         this.scrollPaneA = scrollPaneA;
         this.scrollPaneB = scrollPaneB;
         this.diffMatchingImagePanel = diffMatchingImagePanel;
-        this.diffItemPositions = new ArrayList<>(diffItemPositions);
+        this.diffItemPositions = new DiffItemPositions(diffItemPositions);
+
+        updateChangeItemIndices();
 
         scrollPaneA.getViewport().addChangeListener(this::onScrollStateChanged);
         scrollPaneB.getViewport().addChangeListener(this::onScrollStateChanged);
@@ -76,41 +93,134 @@ public final class DiffPanesScrollController {
     }
 
     public void scrollToPreviousChange() {
-        if (currentDiffItemIndex == 0) {
-            return; // no previous item
+        if (changeStartsA == null) {
+            return; // not yet initialized
         }
 
-        DiffItemPosition previousItem = diffItemPositions.get(currentDiffItemIndex - 1);
-
-        if (previousItem.getType() == ExtendedDiffItemType.EQUAL) {
-            if (currentDiffItemIndex == 1) {
-                return; // no previous item
-            }
-            currentDiffItemIndex -= 2; // skipping EQUAL item
+        int changeIndex;
+        if (currentChangeIndex != -1) {
+            changeIndex = currentChangeIndex - 1;
         } else {
-            currentDiffItemIndex--;
+            // last change starting above the viewport
+            changeIndex = findFirstChangeStartingAfter(scrollPaneA.getViewport().getViewPosition().y - 1) - 1;
         }
 
-        scrollLeftPaneToCurrentDiffItemPosition();
+        if (changeIndex < 0) {
+            return; // no previous change
+        }
+
+        scrollToChange(changeIndex);
     }
 
     public void scrollToNextChange() {
-        if (currentDiffItemIndex == diffItemPositions.size() - 1) {
-            return; // no next item
+        if (changeStartsA == null) {
+            return; // not yet initialized
         }
 
-        DiffItemPosition nextItem = diffItemPositions.get(currentDiffItemIndex + 1);
-
-        if (nextItem.getType() == ExtendedDiffItemType.EQUAL) {
-            if (currentDiffItemIndex == diffItemPositions.size() - 2) {
-                return; // no next item
-            }
-            currentDiffItemIndex += 2; // skipping EQUAL item
+        int changeIndex;
+        if (currentChangeIndex != -1) {
+            changeIndex = currentChangeIndex + 1;
         } else {
-            currentDiffItemIndex++;
+            // first change starting in or below the viewport
+            changeIndex = findFirstChangeStartingAfter(scrollPaneA.getViewport().getViewPosition().y - 1);
+        }
+
+        if (changeIndex >= changeItemIndices.length) {
+            return; // no next change
+        }
+
+        scrollToChange(changeIndex);
+    }
+
+    public void scrollToDiffItem(int diffItemIndex) {
+        int changeIndex = Arrays.binarySearch(changeItemIndices, diffItemIndex);
+        if (changeIndex < 0) {
+            throw new IllegalArgumentException("diff item " + diffItemIndex + " is not a change");
         }
 
-        scrollLeftPaneToCurrentDiffItemPosition();
+        scrollToChange(changeIndex);
+    }
+
+    /**
+     * @param changeIndex zero-based number of change (non-EQUAL diff item)
+     */
+    public void scrollToChange(int changeIndex) {
+        if (changeStartsA == null) {
+            return; // not yet initialized
+        }
+
+        currentChangeIndex = changeIndex;
+        currentDiffItemIndex = changeItemIndices[changeIndex];
+
+        scrollLeftPaneToCurrentChange();
+        fireCurrentChangeChanged();
+    }
+
+    public int getChangeCount() {
+        return changeItemIndices.length;
+    }
+
+    /**
+     * @return zero-based number of current change or -1 if current diff item is not a change
+     */
+    public int getCurrentChangeIndex() {
+        return currentChangeIndex;
+    }
+
+    /**
+     * @param currentChangeListener called when current change or number of changes changes
+     */
+    public void setCurrentChangeListener(Runnable currentChangeListener) {
+        this.currentChangeListener = currentChangeListener;
+    }
+
+    /**
+     * Patch positions after diff items [fromIndex, oldToIndex) were replaced with
+     * items [fromIndex, newToIndex) (e.g. when file is edited).
+     * Scroll ranges are only calculated for the new items; following ranges are shifted.
+     */
+    public void onDiffItemsPatched(DiffItemPositions newDiffItemPositions,
+                                   int fromIndex, int oldToIndex, int newToIndex,
+                                   int lineDeltaA, int lineDeltaB) throws BadLocationException {
+        diffItemPositions.setAll(newDiffItemPositions);
+
+        if (currentDiffItemIndex >= diffItemPositions.size()) {
+            currentDiffItemIndex = Math.max(0, diffItemPositions.size() - 1);
+        }
+
+        currentScrollRangeA = null;
+        currentScrollRangeB = null;
+
+        updateChangeItemIndices();
+        setCurrentDiffItemIndex(currentDiffItemIndex);
+        fireCurrentChangeChanged(); // number of changes may differ as well
+
+        if (scrollRangesA == null || scrollRangesB == null) {
+            return; // not yet initialized
+        }
+
+        JTextArea textAreaA = (JTextArea) scrollPaneA.getViewport().getView();
+        JTextArea textAreaB = (JTextArea) scrollPaneB.getViewport().getView();
+
+        // no line wrapping, so every line has the same height
+        int pixelDeltaA = lineDeltaA * textAreaA.getFontMetrics(textAreaA.getFont()).getHeight();
+        int pixelDeltaB = lineDeltaB * textAreaB.getFontMetrics(textAreaB.getFont()).getHeight();
+
+        List<LinkedScrollRange> patchRangesA = new ArrayList<>();
+        List<LinkedScrollRange> patchRangesB = new ArrayList<>();
+        for (int i = fromIndex; i < newToIndex; i++) {
+            addScrollRanges(diffItemPositions, i, textAreaA, textAreaB, patchRangesA, patchRangesB);
+        }
+
+        scrollRangesA = patchScrollRanges(scrollRangesA, patchRangesA,
+                fromIndex, oldToIndex, newToIndex, pixelDeltaA, pixelDeltaB);
+        scrollRangesB = patchScrollRanges(scrollRangesB, patchRangesB,
+                fromIndex, oldToIndex, newToIndex, pixelDeltaB, pixelDeltaA);
+
+        updateChangeOffsets();
+
+        diffMatchingImagePanel.setItemPositions(getDiffItemPositionsInViewport());
+        diffMatchingImagePanel.repaint();
     }
 
     private void onScrollStateChanged(ChangeEvent e) {
@@ -164,7 +274,7 @@ public final class DiffPanesScrollController {
         }
 
         if (!changesScrolling) {
-            currentDiffItemIndex = currentScrollRange.diffItemIndex;
+            setCurrentDiffItemIndex(currentScrollRange.diffItemIndex);
         }
 
         Point otherPosition = otherScrollPane.getViewport().getViewPosition();
@@ -195,103 +305,237 @@ public final class DiffPanesScrollController {
         scrollRangesB = new ArrayList<>();
 
         for (int i = 0; i < diffItemPositions.size(); i++) {
-            DiffItemPosition item = diffItemPositions.get(i);
-            switch (item.getType()) {
-                case EQUAL:
-                case MODIFIED:
-                    Rectangle firstCharRectA = textAreaA.modelToView(item.getStartA());
-                    Rectangle lastCharRectA = textAreaA.modelToView(item.getEndA());
-
-                    Rectangle firstCharRectB = textAreaB.modelToView(item.getStartB());
-                    Rectangle lastCharRectB = textAreaB.modelToView(item.getEndB());
-
-                    scrollRangesA.add(new LinkedScrollRange(
-                            firstCharRectA.getLocation().y,
-                            lastCharRectA.getLocation().y + lastCharRectA.height,
-                            firstCharRectB.getLocation().y,
-                            true,
-                            i));
-
-                    scrollRangesB.add(new LinkedScrollRange(
-                            firstCharRectB.getLocation().y,
-                            lastCharRectB.getLocation().y + lastCharRectB.height,
-                            firstCharRectA.getLocation().y,
-                            true,
-                            i));
-
-                    break;
-
-                case DELETE:
-                    firstCharRectA = textAreaA.modelToView(item.getStartA());
-                    lastCharRectA = textAreaA.modelToView(item.getEndA());
-
-                    firstCharRectB = textAreaB.modelToView(item.getStartB());
-
-                    scrollRangesA.add(new LinkedScrollRange(
-                            firstCharRectA.getLocation().y,
-                            lastCharRectA.getLocation().y + lastCharRectA.height,
-                            firstCharRectB.getLocation().y,
-                            false,
-                            i));
-
-                    break;
-
-                case INSERT:
-                    firstCharRectB = textAreaB.modelToView(item.getStartB());
-                    lastCharRectB = textAreaB.modelToView(item.getEndB());
-
-                    firstCharRectA = textAreaA.modelToView(item.getStartA());
-
-                    scrollRangesB.add(new LinkedScrollRange(
-                            firstCharRectB.getLocation().y,
-                            lastCharRectB.getLocation().y + lastCharRectB.height,
-                            firstCharRectA.getLocation().y,
-                            false,
-                            i));
-
-                    break;
-
-                default:
-                    throw new RuntimeException("unexpected diff item type: " + item.getType());
-            }
+            addScrollRanges(diffItemPositions, i, textAreaA, textAreaB, scrollRangesA, scrollRangesB);
         }
 
+        updateChangeOffsets();
+
         diffMatchingImagePanel.setItemPositions(getDiffItemPositionsInViewport());
         diffMatchingImagePanel.repaint();
     }
 
-    private void scrollLeftPaneToCurrentDiffItemPosition() {
-        TextAreaWithOutlineRect textAreaA = (TextAreaWithOutlineRect) scrollPaneA.getViewport().getView();
-        TextAreaWithOutlineRect textAreaB = (TextAreaWithOutlineRect) scrollPaneB.getViewport().getView();
+    /**
+     * @return ranges of patched items replaced with new ones, following ranges shifted
+     */
+    private static List<LinkedScrollRange> patchScrollRanges(List<LinkedScrollRange> ranges,
+                                                             List<LinkedScrollRange> patchRanges,
+                                                             int fromIndex, int oldToIndex, int newToIndex,
+                                                             int pixelDeltaThis, int pixelDeltaOther) {
+        List<LinkedScrollRange> result = new ArrayList<>(ranges.size() + patchRanges.size());
+        boolean patchRangesAdded = false;
+
+        for (LinkedScrollRange range : ranges) {
+            if (range.diffItemIndex < fromIndex) {
+                result.add(range);
+                continue;
+            }
 
-        DiffItemPosition currentItemPosition = diffItemPositions.get(currentDiffItemIndex);
+            if (!patchRangesAdded) {
+                result.addAll(patchRanges);
+                patchRangesAdded = true;
+            }
 
-        Rectangle startRect;
+            if (range.diffItemIndex >= oldToIndex) {
+                result.add(new LinkedScrollRange(
+                        range.startThis + pixelDeltaThis,
+                        range.endThis + pixelDeltaThis,
+                        range.startOther + pixelDeltaOther,
+                        range.scrollOther,
+                        range.diffItemIndex + newToIndex - oldToIndex));
+            }
+        }
 
-        try {
-            startRect = textAreaA.modelToView(currentItemPosition.getStartA());
+        if (!patchRangesAdded) {
+            result.addAll(patchRanges);
+        }
+
+        return result;
+    }
+
+    private static void addScrollRanges(DiffItemPositions positions, int i,
+                                        JTextArea textAreaA, JTextArea textAreaB,
+                                        List<LinkedScrollRange> scrollRangesA,
+                                        List<LinkedScrollRange> scrollRangesB) throws BadLocationException {
+        switch (positions.getType(i)) {
+            case EQUAL:
+            case MODIFIED:
+                Rectangle firstCharRectA = textAreaA.modelToView(positions.getStartA(i));
+                Rectangle lastCharRectA = textAreaA.modelToView(positions.getEndA(i));
+
+                Rectangle firstCharRectB = textAreaB.modelToView(positions.getStartB(i));
+                Rectangle lastCharRectB = textAreaB.modelToView(positions.getEndB(i));
+
+                scrollRangesA.add(new LinkedScrollRange(
+                        firstCharRectA.getLocation().y,
+                        lastCharRectA.getLocation().y + lastCharRectA.height,
+                        firstCharRectB.getLocation().y,
+                        true,
+                        i));
+
+                scrollRangesB.add(new LinkedScrollRange(
+                        firstCharRectB.getLocation().y,
+                        lastCharRectB.getLocation().y + lastCharRectB.height,
+                        firstCharRectA.getLocation().y,
+                        true,
+                        i));
+
+                break;
+
+            case DELETE:
+            case MOVED_FROM:
+                firstCharRectA = textAreaA.modelToView(positions.getStartA(i));
+                lastCharRectA = textAreaA.modelToView(positions.getEndA(i));
+
+                firstCharRectB = textAreaB.modelToView(positions.getStartB(i));
+
+                scrollRangesA.add(new LinkedScrollRange(
+                        firstCharRectA.getLocation().y,
+                        lastCharRectA.getLocation().y + lastCharRectA.height,
+                        firstCharRectB.getLocation().y,
+                        false,
+                        i));
+
+                break;
+
+            case INSERT:
+            case MOVED_TO:
+            case COPIED:
+                firstCharRectB = textAreaB.modelToView(positions.getStartB(i));
+                lastCharRectB = textAreaB.modelToView(positions.getEndB(i));
+
+                firstCharRectA = textAreaA.modelToView(positions.getStartA(i));
+
+                scrollRangesB.add(new LinkedScrollRange(
+                        firstCharRectB.getLocation().y,
+                        lastCharRectB.getLocation().y + lastCharRectB.height,
+                        firstCharRectA.getLocation().y,
+                        false,
+                        i));
+
+                break;
+
+            default:
+                throw new RuntimeException("unexpected diff item type: " + positions.getType(i));
+        }
+    }
+
+    private void updateChangeItemIndices() {
+        changeItemIndices = new int[diffItemPositions.getChangeCount()];
+
+        int changeIndex = 0;
+        for (int i = 0; i < diffItemPositions.size(); i++) {
+            if (diffItemPositions.getType(i) != ExtendedDiffItemType.EQUAL) {
+                changeItemIndices[changeIndex++] = i;
+            }
+        }
+    }
 
-            textAreaA.setHighlightRect(null);
-            textAreaB.setHighlightRect(null);
+    /**
+     * Take pixel offsets of changes from scroll ranges (no view calculations needed)
+     */
+    private void updateChangeOffsets() {
+        int changeCount = changeItemIndices.length;
 
-            if (currentItemPosition.getType() != ExtendedDiffItemType.INSERT) {
-                // adding outline to textAreaA
-                Rectangle outlineEndRect = textAreaA.modelToView(currentItemPosition.getEndA());
+        changeStartsA = new int[changeCount];
+        changeEndsA = new int[changeCount];
+        changeStartsB = new int[changeCount];
+        changeEndsB = new int[changeCount];
 
-                textAreaA.setHighlightRect(new Rectangle(0, startRect.y,
-                        textAreaA.getWidth(),outlineEndRect.y + outlineEndRect.height - startRect.y));
+        fillChangeOffsets(scrollRangesA, changeStartsA, changeEndsA, changeStartsB, changeEndsB);
+        fillChangeOffsets(scrollRangesB, changeStartsB, changeEndsB, changeStartsA, changeEndsA);
+    }
+
+    private void fillChangeOffsets(List<LinkedScrollRange> scrollRanges,
+                                   int[] startsThis, int[] endsThis,
+                                   int[] startsOther, int[] endsOther) {
+        // both ranges and changes are sorted by diff item index
+        int changeIndex = 0;
+        for (LinkedScrollRange range : scrollRanges) {
+            while ((changeIndex < changeItemIndices.length) &&
+                    (changeItemIndices[changeIndex] < range.diffItemIndex)) {
+                changeIndex++;
             }
 
-            if (currentItemPosition.getType() != ExtendedDiffItemType.DELETE) {
-                // adding outline to textAreaB
-                Rectangle outlineStartRect = textAreaB.modelToView(currentItemPosition.getStartB());
-                Rectangle outlineEndRect = textAreaB.modelToView(currentItemPosition.getEndB());
+            if (changeIndex == changeItemIndices.length) {
+                break;
+            }
 
-                textAreaB.setHighlightRect(new Rectangle(0, outlineStartRect.y,
-                        textAreaB.getWidth(),outlineEndRect.y + outlineEndRect.height - outlineStartRect.y));
+            if (changeItemIndices[changeIndex] != range.diffItemIndex) {
+                continue; // EQUAL item
+            }
+
+            startsThis[changeIndex] = range.startThis;
+            endsThis[changeIndex] = range.endThis;
+
+            if (!range.scrollOther) {
+                // change is absent in the other file (there is no range for it there)
+                startsOther[changeIndex] = range.startOther;
+                endsOther[changeIndex] = range.startOther;
             }
-        } catch (BadLocationException e) {
-            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return index of the first change starting below the position in pane A
+     * or number of changes if there is none
+     */
+    private int findFirstChangeStartingAfter(int positionA) {
+        int lo = 0;
+        int hi = changeStartsA.length;
+        while (lo < hi) {
+            int mid = lo + (hi - lo) / 2;
+            if (changeStartsA[mid] > positionA) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    private void setCurrentDiffItemIndex(int diffItemIndex) {
+        currentDiffItemIndex = diffItemIndex;
+
+        int changeIndex = Arrays.binarySearch(changeItemIndices, diffItemIndex);
+        if (changeIndex < 0) {
+            changeIndex = -1;
+        }
+
+        if (changeIndex != currentChangeIndex) {
+            currentChangeIndex = changeIndex;
+            fireCurrentChangeChanged();
+        }
+    }
+
+    private void fireCurrentChangeChanged() {
+        if (currentChangeListener != null) {
+            currentChangeListener.run();
+        }
+    }
+
+    private void scrollLeftPaneToCurrentChange() {
+        TextAreaWithOutlineRect textAreaA = (TextAreaWithOutlineRect) scrollPaneA.getViewport().getView();
+        TextAreaWithOutlineRect textAreaB = (TextAreaWithOutlineRect) scrollPaneB.getViewport().getView();
+
+        ExtendedDiffItemType type = diffItemPositions.getType(currentDiffItemIndex);
+
+        int startA = changeStartsA[currentChangeIndex];
+        int endA = changeEndsA[currentChangeIndex];
+        int startB = changeStartsB[currentChangeIndex];
+        int endB = changeEndsB[currentChangeIndex];
+
+        textAreaA.setHighlightRect(null);
+        textAreaB.setHighlightRect(null);
+
+        if ((type != ExtendedDiffItemType.INSERT) && (type != ExtendedDiffItemType.MOVED_TO) &&
+                (type != ExtendedDiffItemType.COPIED)) {
+            // adding outline to textAreaA
+            textAreaA.setHighlightRect(new Rectangle(0, startA, textAreaA.getWidth(), endA - startA));
+        }
+
+        if ((type != ExtendedDiffItemType.DELETE) && (type != ExtendedDiffItemType.MOVED_FROM)) {
+            // adding outline to textAreaB
+            textAreaB.setHighlightRect(new Rectangle(0, startB, textAreaB.getWidth(), endB - startB));
         }
 
         // for outline drawing
@@ -300,29 +544,29 @@ public final class DiffPanesScrollController {
 
         changesScrolling = true;
 
-        setViewportCenterPosition(scrollPaneA, new Point(startRect.x, startRect.y));
+        setViewportCenterPosition(scrollPaneA, new Point(0, startA));
 
         SwingUtilities.invokeLater(() -> changesScrolling = false);
     }
 
-    private List<DiffItemPosition> getDiffItemPositionsInViewport() throws BadLocationException {
+    private DiffItemPositions getDiffItemPositionsInViewport() throws BadLocationException {
         // TODO fix issue with positioning near end of files
 
         if (scrollRangesA == null || scrollRangesB == null) {
-            return Collections.emptyList(); // not yet initialized
+            return new DiffItemPositions(); // not yet initialized
         }
 
         int[] boundsA = getDiffItemBoundsInViewport(scrollPaneA, scrollRangesA);
         int[] boundsB = getDiffItemBoundsInViewport(scrollPaneB, scrollRangesB);
 
         if (boundsA == null || boundsB == null) {
-            return Collections.emptyList(); // not yet initialized?
+            return new DiffItemPositions(); // not yet initialized?
         }
 
         int minItemIndex = Math.min(boundsA[0], boundsB[0]);
         int maxItemIndex = Math.max(boundsA[1], boundsB[1]);
 
-        List<DiffItemPosition> result = new ArrayList<>(maxItemIndex - minItemIndex);
+        DiffItemPositions result = new DiffItemPositions();
 
         JTextArea textAreaA = (JTextArea) scrollPaneA.getViewport().getView();
         JTextArea textAreaB = (JTextArea) scrollPaneB.getViewport().getView();
@@ -331,16 +575,25 @@ public final class DiffPanesScrollController {
         int viewportBPosition = scrollPaneB.getViewport().getViewPosition().y;
 
         for (int i = minItemIndex; i <= maxItemIndex; i++) {
-            DiffItemPosition position = diffItemPositions.get(i);
-            Rectangle endARect = textAreaA.modelToView(position.getEndA());
-            Rectangle endBRect = textAreaB.modelToView(position.getEndB());
-            result.add(new DiffItemPosition(
-                    textAreaA.modelToView(position.getStartA()).y - viewportAPosition,
-                    textAreaB.modelToView(position.getStartB()).y - viewportBPosition,
+            Rectangle endARect = textAreaA.modelToView(diffItemPositions.getEndA(i));
+            Rectangle endBRect = textAreaB.modelToView(diffItemPositions.getEndB(i));
+
+            int moveSourceStartA = -1, moveSourceEndA = -1;
+            if (diffItemPositions.hasMoveSource(i)) {
+                // source of moved lines may be far outside of viewport
+                Rectangle moveSourceEndRect = textAreaA.modelToView(diffItemPositions.getMoveSourceEndA(i));
+                moveSourceStartA = textAreaA.modelToView(diffItemPositions.getMoveSourceStartA(i)).y - viewportAPosition;
+                moveSourceEndA = moveSourceEndRect.y + moveSourceEndRect.height - viewportAPosition;
+            }
+
+            result.add(
+                    textAreaA.modelToView(diffItemPositions.getStartA(i)).y - viewportAPosition,
+                    textAreaB.modelToView(diffItemPositions.getStartB(i)).y - viewportBPosition,
                     endARect.y + endARect.height - viewportAPosition,
                     endBRect.y + endBRect.height - viewportBPosition,
-                    position.getType()
-            ));
+                    diffItemPositions.getType(i),
+                    moveSourceStartA, moveSourceEndA
+            );
         }
 
         return result;
@@ -0,0 +1,206 @@
+package org.gsoft.showcase.diff.gui.forms;
+
+import org.gsoft.showcase.diff.gui.logic.DiffRunner;
+import org.gsoft.showcase.diff.gui.logic.DiffStatistics;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.lang.ref.SoftReference;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Results of comparing one file A to many files B.
+ */
+public class BatchDiffForm extends JFrame {
+    public static final class Entry {
+        private final Path pathB;
+        private final DiffStatistics statistics;
+
+        /**
+         * Result which is not cached (only minimal diffs are), kept as long as memory allows
+         */
+        private final SoftReference<DiffRunner.Result> notCachedResult;
+
+        /**
+         * @param statistics null if file B was not compared within time limit
+         */
+        public Entry(Path pathB, DiffStatistics statistics) {
+            this.pathB = pathB;
+            this.statistics = statistics;
+            this.notCachedResult = null;
+        }
+
+        /**
+         * @param notCachedResult result of comparison which is not cached, so that its diff
+         *                        is not computed again when entry is opened (unless memory is short)
+         */
+        public Entry(Path pathB, DiffStatistics statistics, DiffRunner.Result notCachedResult) {
+            this.pathB = pathB;
+            this.statistics = statistics;
+            this.notCachedResult = new SoftReference<>(notCachedResult);
+        }
+    }
+
+    private static final String[] COLUMN_NAMES = {
+            "File B", "Changes", "Inserted lines", "Deleted lines", "Similarity"
+    };
+
+    private static final Class<?>[] COLUMN_CLASSES = {
+            String.class, Integer.class, Integer.class, Integer.class, Double.class
+    };
+
+    private final DiffRunner diffRunner;
+    private final DiffRunner.ReferenceFile referenceFile;
+    private final List<Entry> entries;
+
+    private JPanel rootPanel;
+    private JLabel fileAPathLabel;
+    private JTable resultsTable;
+
+    public BatchDiffForm(DiffRunner diffRunner, DiffRunner.ReferenceFile referenceFile, List<Entry> entries) {
+        setTitle("Batch diff");
+        setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+        setPreferredSize(new Dimension(800, 600));
+
+        this.diffRunner = diffRunner;
+        this.referenceFile = referenceFile;
+
+        // least similar files first (the ones not compared in time go before them)
+        this.entries = new ArrayList<>(entries);
+        this.entries.sort(Comparator.comparingDouble(entry ->
+                entry.statistics != null ? entry.statistics.getSimilarity() : -1));
+
+        fileAPathLabel.setText("File A: " + referenceFile.getPath());
+
+        resultsTable.setModel(new AbstractTableModel() {
+            @Override
+            public int getRowCount() {
+                return BatchDiffForm.this.entries.size();
+            }
+
+            @Override
+            public int getColumnCount() {
+                return COLUMN_NAMES.length;
+            }
+
+            @Override
+            public String getColumnName(int column) {
+                return COLUMN_NAMES[column];
+            }
+
+            @Override
+            public Class<?> getColumnClass(int column) {
+                return COLUMN_CLASSES[column];
+            }
+
+            @Override
+            public Object getValueAt(int row, int column) {
+                Entry entry = BatchDiffForm.this.entries.get(row);
+                if (entry.statistics == null) {
+                    return column == 0 ? entry.pathB + " (not compared: time limit exceeded)" : null;
+                }
+                switch (column) {
+                    case 0: return entry.pathB.toString();
+                    case 1: return entry.statistics.getChangeCount();
+                    case 2: return entry.statistics.getInsertedLineCount();
+                    case 3: return entry.statistics.getDeletedLineCount();
+                    case 4: return entry.statistics.getSimilarity();
+                    default: throw new IndexOutOfBoundsException("unexpected column: " + column);
+                }
+            }
+        });
+
+        resultsTable.setAutoCreateRowSorter(true);
+        resultsTable.setDefaultRenderer(Double.class, new DefaultTableCellRenderer() {
+            @Override
+            protected void setValue(Object value) {
+                setHorizontalAlignment(SwingConstants.RIGHT);
+                setText(String.format("%.1f %%", (Double) value * 100));
+            }
+        });
+        resultsTable.getColumnModel().getColumn(0).setPreferredWidth(400);
+        resultsTable.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+
+        resultsTable.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() != 2) {
+                    return;
+                }
+                int row = resultsTable.rowAtPoint(e.getPoint());
+                if (row != -1) {
+                    showDiff(BatchDiffForm.this.entries.get(resultsTable.convertRowIndexToModel(row)));
+                }
+            }
+        });
+
+        setContentPane(rootPanel);
+        pack();
+    }
+
+    private void showDiff(Entry entry) {
+        AtomicBoolean stopFlag = new AtomicBoolean();
+
+        // minimal diffs are taken from cache filled in by the batch run, other ones are kept by entries
+        // (softly, so they may have to be computed again)
+        DiffRunner.Result notCachedResult = entry.notCachedResult != null ? entry.notCachedResult.get() : null;
+
+        WaitDialog waitDialog = new WaitDialog(stopFlag);
+        if ((entry.notCachedResult != null) && (notCachedResult == null)) {
+            waitDialog.setMessage("Diff is not minimal, so it was not cached: computing it again...");
+        }
+        waitDialog.setLocationRelativeTo(this);
+
+        new Thread(() -> {
+            try {
+                DiffRunner.Result result = notCachedResult != null ? notCachedResult
+                        : diffRunner.run(referenceFile, entry.pathB, stopFlag);
+
+                if (stopFlag.get()) {
+                    return;
+                }
+
+                if (result.isFilesEqual()) {
+                    waitDialog.dispose();
+                    JOptionPane.showMessageDialog(BatchDiffForm.this, "Files are equal!", "Diff",
+                            JOptionPane.INFORMATION_MESSAGE);
+                    return;
+                }
+
+                DiffForm diffForm = new DiffForm(referenceFile.getPath().toString(), entry.pathB.toString(),
+                        result.getByLineDiffItems(), result.getLinesEncoding(), stopFlag);
+                diffForm.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+                if (!result.isMinimal()) {
+                    diffForm.markDiffNotMinimal();
+                }
+                diffForm.enablePatches(referenceFile.getPath(), entry.pathB, result.getByLineDiffItems());
+
+                if (stopFlag.get()) {
+                    diffForm.dispose();
+                    return;
+                }
+
+                waitDialog.dispose();
+
+                diffForm.setLocationRelativeTo(null);
+                diffForm.setVisible(true);
+            } catch (Throwable t) {
+                JOptionPane.showMessageDialog(waitDialog,
+                        String.format("Failed to compute diff!\n%s: %s", t.getClass().getSimpleName(), t.getMessage()),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                t.printStackTrace();
+                System.exit(1);
+            }
+        }).start();
+
+        waitDialog.setVisible(true);
+    }
+}
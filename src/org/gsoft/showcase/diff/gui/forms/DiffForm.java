@@ -1,25 +1,45 @@
 package org.gsoft.showcase.diff.gui.forms;
 
-import org.gsoft.showcase.diff.generators.DiffGeneratorUtils;
 import org.gsoft.showcase.diff.generators.DiffGeneratorUtils.LinesEncoding;
 import org.gsoft.showcase.diff.generators.DiffItem;
-import org.gsoft.showcase.diff.generators.impl.MyersDiffGenerator;
+import org.gsoft.showcase.diff.generators.LineComparisonOptions;
+import org.gsoft.showcase.diff.generators.StopFlags;
+import org.gsoft.showcase.diff.generators.TextLines;
 import org.gsoft.showcase.diff.gui.components.*;
+import org.gsoft.showcase.diff.gui.logic.ByCharDiff;
 import org.gsoft.showcase.diff.gui.logic.ByLineDiffItem;
-import org.gsoft.showcase.diff.gui.logic.DiffItemPosition;
+import org.gsoft.showcase.diff.gui.logic.ByLineDiffItemsConverter;
+import org.gsoft.showcase.diff.gui.logic.ChangesOverview;
+import org.gsoft.showcase.diff.gui.logic.DiffItemPositions;
+import org.gsoft.showcase.diff.gui.logic.EqualItemsFolding;
 import org.gsoft.showcase.diff.gui.logic.ExtendedDiffItemType;
+import org.gsoft.showcase.diff.gui.logic.IncrementalDiffEngine;
+import org.gsoft.showcase.diff.patch.EditScript;
+import org.gsoft.showcase.diff.patch.UnifiedDiffWriter;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.DocumentFilter;
+import javax.swing.text.Element;
 import javax.swing.text.Highlighter;
 import java.awt.*;
 import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
 
 import static org.gsoft.showcase.diff.gui.Colors.*;
 
@@ -33,8 +53,170 @@ public class DiffForm extends JFrame {
         }
     }
 
+    /**
+     * Writes patch file or file patched with it
+     */
+    private interface PatchOperation {
+        void run() throws IOException;
+    }
+
+    /**
+     * Highlights added for diff item (needed to update them when files are edited)
+     */
+    private static class ItemHighlights {
+        final List<Object> tagsA = new ArrayList<>();
+        final List<Object> tagsB = new ArrayList<>();
+    }
+
+    private class EditListener implements DocumentListener {
+        private final boolean editedA;
+
+        private EditListener(boolean editedA) {
+            this.editedA = editedA;
+        }
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            if (!diffAreasUpdating) {
+                onFileEdited(e, editedA);
+            }
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            if (!diffAreasUpdating) {
+                onFileEdited(e, editedA);
+            }
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            // attributes change - not relevant for plain text
+        }
+    }
+
+    /**
+     * Rejects edits of placeholder lines of folded items (including line feeds around them)
+     */
+    private class FoldedLinesProtectionFilter extends DocumentFilter {
+        private final boolean editedA;
+
+        private FoldedLinesProtectionFilter(boolean editedA) {
+            this.editedA = editedA;
+        }
+
+        @Override
+        public void insertString(FilterBypass fb, int offset, String string, AttributeSet attr)
+                throws BadLocationException {
+            if (isFoldedLinesEdit(offset, 0)) {
+                UIManager.getLookAndFeel().provideErrorFeedback(editedA ? textAreaA : textAreaB);
+                return;
+            }
+            super.insertString(fb, offset, string, attr);
+        }
+
+        @Override
+        public void remove(FilterBypass fb, int offset, int length) throws BadLocationException {
+            if (isFoldedLinesEdit(offset, length)) {
+                UIManager.getLookAndFeel().provideErrorFeedback(editedA ? textAreaA : textAreaB);
+                return;
+            }
+            super.remove(fb, offset, length);
+        }
+
+        @Override
+        public void replace(FilterBypass fb, int offset, int length, String text, AttributeSet attrs)
+                throws BadLocationException {
+            if (isFoldedLinesEdit(offset, length)) {
+                UIManager.getLookAndFeel().provideErrorFeedback(editedA ? textAreaA : textAreaB);
+                return;
+            }
+            super.replace(fb, offset, length, text, attrs);
+        }
+
+        private boolean isFoldedLinesEdit(int offset, int length) {
+            if (diffAreasUpdating || foldedItems.isEmpty()) {
+                return false;
+            }
+
+            // positions are sorted, only the items around edited range have to be checked
+            for (int i = Math.max(0, diffItemPositions.findLastStartingAtOrBefore(offset, editedA) - 1);
+                 i < diffItemPositions.size(); i++) {
+                int start = editedA ? diffItemPositions.getStartA(i) : diffItemPositions.getStartB(i);
+                int end = editedA ? diffItemPositions.getEndA(i) : diffItemPositions.getEndB(i);
+
+                if (start > offset + length + 1) {
+                    break;
+                }
+
+                if (foldedItems.contains(diffItems.get(i)) && (offset <= end) && (offset + length >= start)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    private class UnfoldMouseListener extends MouseAdapter {
+        private final boolean clickedA;
+
+        private UnfoldMouseListener(boolean clickedA) {
+            this.clickedA = clickedA;
+        }
+
+        @Override
+        public void mouseClicked(MouseEvent e) {
+            if (e.getClickCount() != 2) {
+                return;
+            }
+
+            JTextArea textArea = clickedA ? textAreaA : textAreaB;
+            int offset = textArea.viewToModel(e.getPoint());
+
+            int index = diffItemPositions.findLastStartingAtOrBefore(offset, clickedA);
+            if ((index < 0) || !foldedItems.contains(diffItems.get(index))) {
+                return;
+            }
+
+            try {
+                unfoldItem(index);
+            } catch (BadLocationException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
     private final List<ByLineDiffItem> diffItems;
 
+    /**
+     * Options files were compared with (edited lines are compared with them too)
+     */
+    private final LineComparisonOptions comparisonOptions;
+
+    private final DiffItemPositions diffItemPositions = new DiffItemPositions();
+    private final List<ItemHighlights> itemHighlights = new ArrayList<>();
+
+    /**
+     * EQUAL items displayed as a single placeholder line (compared by identity)
+     */
+    private final Set<ByLineDiffItem> foldedItems = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Set while text areas are changed by the form itself, not by user
+     */
+    private boolean diffAreasUpdating = false;
+
+    /**
+     * Set while diff is being computed and its items are appended
+     */
+    private boolean loading = false;
+
+    private final DiffPanesScrollController scrollController;
+
+    private final DiffOverviewRuler overviewRulerA;
+    private final DiffOverviewRuler overviewRulerB;
+
     private JPanel rootPanel;
     private JLabel fileAPathLabel;
     private JLabel fileBPathLabel;
@@ -42,8 +224,14 @@ public class DiffForm extends JFrame {
     private JScrollPane fileBScrollPane;
     private JButton prevChangeButton;
     private JButton nextChangeButton;
+    private JButton goToChangeButton;
+    private JLabel changeCounterLabel;
     private JPanel diffMatchingWrapperPanel;
+    private JPanel overviewRulerAWrapperPanel;
+    private JPanel overviewRulerBWrapperPanel;
     private JButton compareNewButton;
+    private JToggleButton hideUnchangedButton;
+    private JButton patchButton;
 
     private JTextArea textAreaA;
     private JTextArea textAreaB;
@@ -51,6 +239,31 @@ public class DiffForm extends JFrame {
     public DiffForm(String fileAPath, String fileBPath,
                     List<DiffItem> byLineDiffItems,
                     LinesEncoding linesEncoding) {
+        this(fileAPath, fileBPath, byLineDiffItems, linesEncoding, new AtomicBoolean());
+    }
+
+    /**
+     * Create form showing diff while it is being computed: items are added with
+     * {@link #appendDiffItems(List, boolean)}, files can not be edited until the last of them arrive.
+     */
+    public DiffForm(String fileAPath, String fileBPath, LinesEncoding linesEncoding) {
+        this(fileAPath, fileBPath, Collections.emptyList(), linesEncoding, new AtomicBoolean());
+
+        loading = true;
+        setTitle("Diff (loading...)");
+        textAreaA.setEditable(false);
+        textAreaB.setEditable(false);
+        hideUnchangedButton.setEnabled(false);
+    }
+
+    /**
+     * @param stopFlag stops converting and displaying diff items; the form is left empty then
+     *                 and should be disposed
+     */
+    public DiffForm(String fileAPath, String fileBPath,
+                    List<DiffItem> byLineDiffItems,
+                    LinesEncoding linesEncoding,
+                    AtomicBoolean stopFlag) {
         setTitle("Diff");
         setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
         setPreferredSize(new Dimension(800, 600));
@@ -58,12 +271,19 @@ public class DiffForm extends JFrame {
         fileAPathLabel.setText(fileAPath);
         fileBPathLabel.setText(fileBPath);
 
-        this.diffItems = convertByLineDiffItems(byLineDiffItems, linesEncoding);
+        this.comparisonOptions = linesEncoding.getOptions();
+        List<ByLineDiffItem> convertedItems = ByLineDiffItemsConverter.convert(byLineDiffItems, linesEncoding, stopFlag);
+        this.diffItems = new ArrayList<>(convertedItems != null ?
+                EqualItemsFolding.fold(convertedItems, foldedItems) : Collections.emptyList());
 
-        List<DiffItemPosition> diffItemPositions;
+        textAreaA = makeTextArea(true);
+        textAreaB = makeTextArea(false);
+
+        fileAScrollPane.getViewport().setView(textAreaA);
+        fileBScrollPane.getViewport().setView(textAreaB);
 
         try {
-            diffItemPositions = populateDiffAreas();
+            populateDiffAreas(stopFlag);
         } catch (BadLocationException e) {
             throw new RuntimeException(e);
         }
@@ -72,10 +292,22 @@ public class DiffForm extends JFrame {
 
         diffMatchingWrapperPanel.add(diffMatchingImagePanel);
 
-        DiffPanesScrollController scrollController = new DiffPanesScrollController(
+        scrollController = new DiffPanesScrollController(
                 fileAScrollPane, fileBScrollPane, this, diffMatchingImagePanel,
                 diffItemPositions);
 
+        overviewRulerA = new DiffOverviewRuler(fileAScrollPane, scrollController::scrollToDiffItem);
+        overviewRulerB = new DiffOverviewRuler(fileBScrollPane, scrollController::scrollToDiffItem);
+
+        overviewRulerAWrapperPanel.add(overviewRulerA);
+        overviewRulerBWrapperPanel.add(overviewRulerB);
+
+        try {
+            updateChangesOverview();
+        } catch (BadLocationException e) {
+            throw new RuntimeException(e);
+        }
+
         prevChangeButton.setMnemonic(KeyEvent.VK_LEFT);
         prevChangeButton.setToolTipText("Previous change " + getMnemonicKeyHint("Left"));
         prevChangeButton.addActionListener(e -> scrollController.scrollToPreviousChange());
@@ -84,10 +316,30 @@ public class DiffForm extends JFrame {
         nextChangeButton.setToolTipText("Next change " + getMnemonicKeyHint("Right"));
         nextChangeButton.addActionListener(e -> scrollController.scrollToNextChange());
 
+        goToChangeButton.setMnemonic(KeyEvent.VK_G);
+        goToChangeButton.setToolTipText("Go to change by its number " + getMnemonicKeyHint("G"));
+        goToChangeButton.addActionListener(e -> goToChange());
+
+        scrollController.setCurrentChangeListener(this::updateChangeCounter);
+        updateChangeCounter();
+
+        hideUnchangedButton.setSelected(true);
+        hideUnchangedButton.setToolTipText("Hide unchanged lines (double-click hidden lines to show them)");
+        hideUnchangedButton.addActionListener(e -> {
+            try {
+                setUnchangedLinesHidden(hideUnchangedButton.isSelected());
+            } catch (BadLocationException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+
         // TODO can it be done in designer?
         prevChangeButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        goToChangeButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
         nextChangeButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
         compareNewButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        hideUnchangedButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        patchButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
 
         compareNewButton.addActionListener(e -> {
             int response = JOptionPane.showConfirmDialog(DiffForm.this,
@@ -108,195 +360,449 @@ public class DiffForm extends JFrame {
         pack();
     }
 
-    private List<ByLineDiffItem> convertByLineDiffItems(List<DiffItem> plainItems,
-                                                        LinesEncoding linesEncoding) {
-        List<ByLineDiffItem> result = new ArrayList<>(plainItems.size()); // at least the same size
-        ByLineDiffItem pendingInsertOrDelete = null;
+    /**
+     * Append the next items of diff being computed (must be called on event dispatch thread).
+     *
+     * @param byLineDiffItems items following the ones appended before
+     * @param last            whether these are the last items (diff is complete then)
+     */
+    public void appendDiffItems(List<ByLineDiffItem> byLineDiffItems, boolean last) {
+        if (!loading) {
+            throw new IllegalStateException("diff is already complete");
+        }
 
-        //
-        // applying heuristic to improve diff display: converting consecutive
-        // INSERT-DELETE or DELETE-INSERT into new diff element - MODIFIED
-        //
-        for (DiffItem plainItem : plainItems) {
-            String[] decodedStrings = decodeStrings(linesEncoding, plainItem);
-            switch (plainItem.getType()) {
-                case EQUAL:
-                    if (pendingInsertOrDelete != null) {
-                        result.add(pendingInsertOrDelete);
-                        pendingInsertOrDelete = null;
-                    }
-                    result.add(new ByLineDiffItem(ExtendedDiffItemType.EQUAL,
-                            decodedStrings,null));
-                    break;
+        try {
+            appendItems(byLineDiffItems, last);
+        } catch (BadLocationException e) {
+            throw new RuntimeException(e);
+        }
 
-                case INSERT:
-                    ByLineDiffItem newInsert = new ByLineDiffItem(ExtendedDiffItemType.INSERT,
-                            decodedStrings,null);
-                    if (pendingInsertOrDelete != null) {
-                        result.add(createModifiedItem(pendingInsertOrDelete, newInsert));
-                        pendingInsertOrDelete = null;
-                    } else {
-                        pendingInsertOrDelete = newInsert;
-                    }
-                    break;
+        if (last) {
+            loading = false;
+            setTitle("Diff");
+            textAreaA.setEditable(true);
+            textAreaB.setEditable(true);
+            hideUnchangedButton.setEnabled(true);
+        }
+    }
 
-                case DELETE:
-                    ByLineDiffItem newDelete = new ByLineDiffItem(ExtendedDiffItemType.DELETE,
-                            decodedStrings,null);
-                    if (pendingInsertOrDelete != null) {
-                        result.add(createModifiedItem(pendingInsertOrDelete, newDelete));
-                        pendingInsertOrDelete = null;
-                    } else {
-                        pendingInsertOrDelete = newDelete;
-                    }
-                    break;
+    /**
+     * Let user save diff of files as unified diff or binary edit script and apply edit scripts to file A.
+     *
+     * @param byLineDiffItems items of comparison of files as they are on disk (edits made in the form
+     *                        are not saved, so they are not included in patches)
+     */
+    public void enablePatches(Path pathA, Path pathB, List<DiffItem> byLineDiffItems) {
+        JPopupMenu patchMenu = new JPopupMenu();
+
+        patchMenu.add("Save as unified diff ...").addActionListener(e -> {
+            Path patchPath = choosePatchPath("Save unified diff", true);
+            if (patchPath != null) {
+                runPatchOperation(() -> UnifiedDiffWriter.write(patchPath, pathA, pathB, byLineDiffItems,
+                        UnifiedDiffWriter.DEFAULT_CONTEXT_LINES));
+            }
+        });
 
-                default:
-                    throw new RuntimeException("unexpected diff item type: " + plainItem.getType());
+        patchMenu.add("Save as edit script ...").addActionListener(e -> {
+            Path scriptPath = choosePatchPath("Save edit script", true);
+            if (scriptPath != null) {
+                runPatchOperation(() -> EditScript.write(scriptPath, pathA, pathB, byLineDiffItems));
             }
-        }
+        });
 
-        if (pendingInsertOrDelete != null) {
-            result.add(pendingInsertOrDelete);
-        }
+        patchMenu.add("Apply edit script to file A ...").addActionListener(e -> {
+            Path scriptPath = choosePatchPath("Open edit script", false);
+            if (scriptPath == null) {
+                return;
+            }
+            Path targetPath = choosePatchPath("Save patched file", true);
+            if (targetPath != null) {
+                runPatchOperation(() -> EditScript.apply(scriptPath, pathA, targetPath));
+            }
+        });
 
-        return result;
+        patchButton.setToolTipText("Save diff of files as patch or apply edit script to file A");
+        patchButton.addActionListener(e -> patchMenu.show(patchButton, 0, patchButton.getHeight()));
+        patchButton.setEnabled(true);
     }
 
-    private ByLineDiffItem createModifiedItem(ByLineDiffItem firstItem, ByLineDiffItem secondItem) {
-        ByLineDiffItem deleteItem, insertItem;
-        if ((firstItem.getType() == ExtendedDiffItemType.DELETE) && (secondItem.getType() == ExtendedDiffItemType.INSERT)) {
-            deleteItem = firstItem;
-            insertItem = secondItem;
-        } else if ((firstItem.getType() == ExtendedDiffItemType.INSERT) && (secondItem.getType() == ExtendedDiffItemType.DELETE)) {
-            deleteItem = secondItem;
-            insertItem = firstItem;
-        } else {
-            throw new IllegalArgumentException("items must only be inserts or deletes!");
-        }
+    /**
+     * @return chosen path or null if cancelled
+     */
+    private Path choosePatchPath(String title, boolean save) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle(title);
+        int result = save ? fileChooser.showSaveDialog(this) : fileChooser.showOpenDialog(this);
+        return result == JFileChooser.APPROVE_OPTION ? fileChooser.getSelectedFile().toPath() : null;
+    }
 
-        List<DiffItem> byCharPlainItems = produceByCharDiff(deleteItem.getStrings(), insertItem.getStrings());
+    /**
+     * Run operation in background (files are streamed, but may be huge), then tell user how it went
+     */
+    private void runPatchOperation(PatchOperation operation) {
+        patchButton.setEnabled(false);
+
+        new Thread(() -> {
+            String error = null;
+            try {
+                operation.run();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                error = String.format("%s: %s", e.getClass().getSimpleName(), e.getMessage());
+            }
 
-        return new ByLineDiffItem(ExtendedDiffItemType.MODIFIED, null, byCharPlainItems);
+            String finalError = error;
+            SwingUtilities.invokeLater(() -> {
+                patchButton.setEnabled(true);
+                if (finalError != null) {
+                    JOptionPane.showMessageDialog(DiffForm.this, "Patch operation failed!\n" + finalError,
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                } else {
+                    JOptionPane.showMessageDialog(DiffForm.this, "Done!", "Patch",
+                            JOptionPane.INFORMATION_MESSAGE);
+                }
+            });
+        }).start();
     }
 
-    private List<DiffItem> produceByCharDiff(String[] stringsA, String[] stringsB) {
-        String a = Arrays.stream(stringsA).collect(Collectors.joining("\n"));
-        String b = Arrays.stream(stringsB).collect(Collectors.joining("\n"));
+    /**
+     * Tell user that files were too different to find the shortest diff, so some changes may be excessive
+     */
+    public void markDiffNotMinimal() {
+        setTitle("Diff (not minimal: files are too different)");
+    }
 
-        return new MyersDiffGenerator(new AtomicBoolean()).generate(
-                DiffGeneratorUtils.encodeString(a), DiffGeneratorUtils.encodeString(b));
+    /**
+     * Tell user that diff was computed approximately, so some changes may be excessive
+     */
+    public void markDiffApproximate() {
+        setTitle("Diff (approximate)");
     }
 
-    private List<DiffItemPosition> populateDiffAreas() throws BadLocationException {
-        textAreaA = makeTextArea();
-        textAreaB = makeTextArea();
+    private void goToChange() {
+        int changeCount = scrollController.getChangeCount();
+        if (changeCount == 0) {
+            return;
+        }
 
-        List<DiffItemPosition> diffItemPositions = new ArrayList<>();
+        String input = JOptionPane.showInputDialog(this,
+                String.format("Change number (1 - %,d):", changeCount), "Go to change",
+                JOptionPane.QUESTION_MESSAGE);
+        if (input == null) {
+            return; // cancelled
+        }
 
-        for (ByLineDiffItem item : diffItems) {
-            switch (item.getType()) {
-                case EQUAL:
-                    TextPosition positionA = addLinesToTextArea(textAreaA, item.getStrings());
-                    TextPosition positionB = addLinesToTextArea(textAreaB, item.getStrings());
+        int changeNumber;
+        try {
+            changeNumber = Integer.parseInt(input.trim().replace(",", ""));
+        } catch (NumberFormatException e) {
+            changeNumber = -1;
+        }
 
-                    diffItemPositions.add(new DiffItemPosition(
-                            positionA.start, positionB.start, positionA.end, positionB.end, item.getType()));
+        if ((changeNumber < 1) || (changeNumber > changeCount)) {
+            JOptionPane.showMessageDialog(this, "There is no change " + input.trim(),
+                    "Go to change", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
 
-                    break;
+        scrollController.scrollToChange(changeNumber - 1);
+    }
 
-                case DELETE:
-                    positionA = addLinesToTextArea(textAreaA, item.getStrings());
+    private void updateChangeCounter() {
+        int changeCount = scrollController.getChangeCount();
+        int currentChangeIndex = scrollController.getCurrentChangeIndex();
 
-                    int nextCharPositionB = textAreaB.getLineCount() != 0 ?
-                            textAreaB.getLineEndOffset(textAreaB.getLineCount() - 1) + 1
-                            : 0;
+        if (changeCount == 0) {
+            changeCounterLabel.setText("No changes");
+        } else if (currentChangeIndex == -1) {
+            changeCounterLabel.setText(String.format("%,d changes", changeCount));
+        } else {
+            changeCounterLabel.setText(String.format("Change %,d of %,d", currentChangeIndex + 1, changeCount));
+        }
 
-                    diffItemPositions.add(new DiffItemPosition(
-                            positionA.start, nextCharPositionB, positionA.end, nextCharPositionB, item.getType()));
+        goToChangeButton.setEnabled(changeCount != 0);
+    }
 
-                    break;
+    private void populateDiffAreas() throws BadLocationException {
+        populateDiffAreas(new AtomicBoolean());
+    }
 
-                case INSERT:
-                    positionB = addLinesToTextArea(textAreaB, item.getStrings());
+    /**
+     * If stopped, text areas are left empty and all items are removed.
+     */
+    private void populateDiffAreas(AtomicBoolean stopFlag) throws BadLocationException {
+        diffAreasUpdating = true;
 
-                    int nextCharPositionA = textAreaA.getLineCount() != 0 ?
-                            textAreaA.getLineEndOffset(textAreaA.getLineCount() - 1) + 1
-                            : 0;
+        StopFlags.AmortizedCheck stopCheck = new StopFlags.AmortizedCheck(stopFlag);
 
-                    diffItemPositions.add(new DiffItemPosition(
-                            nextCharPositionA, positionB.start, nextCharPositionA, positionB.end, item.getType()));
+        textAreaA.setText("");
+        textAreaB.setText("");
 
-                    break;
+        textAreaA.getHighlighter().removeAllHighlights();
+        textAreaB.getHighlighter().removeAllHighlights();
 
-                case MODIFIED:
-                    diffItemPositions.add(addModifiedLines(item));
-                    break;
+        diffItemPositions.clear();
+        itemHighlights.clear();
 
-                default:
-                    throw new RuntimeException("unexpected diff item type: " + item.getType());
+        for (ByLineDiffItem item : diffItems) {
+            // appending lines to text areas is the most expensive part
+            if (stopCheck.isStopped(1 + item.getLineCountA() + item.getLineCountB())) {
+                textAreaA.setText("");
+                textAreaB.setText("");
+                diffItems.clear();
+                diffItemPositions.clear();
+                break;
             }
+
+            addItemToTextAreas(item);
         }
 
         // quick fix for deleted/inserted lines highlighting at end of files
         textAreaA.append("\n");
         textAreaB.append("\n");
 
+        updateMoveSourcePositions();
+
         //
         // we can not assign highlighters as we append line to text area;
         // doing it in a separate pass
         //
         for (int i = 0; i < diffItems.size(); i++) {
-            DiffItemPosition itemPos = diffItemPositions.get(i);
-            switch (itemPos.getType()) {
-                case EQUAL:
-                    // no highlight necessary
-                    break;
+            itemHighlights.add(highlightDiffItem(diffItemPositions, i, diffItems.get(i)));
+        }
 
-                case DELETE:
-                    highlightByLineDiffItem(itemPos,
-                            new WholeLineHighlightPainter(DELETED_LINES_HIGHLIGHT_COLOR),
-                            new InsertOrDeletePointHighlighter(DELETED_LINES_HIGHLIGHT_COLOR));
-                    break;
+        diffAreasUpdating = false;
+    }
 
-                case INSERT:
-                    highlightByLineDiffItem(itemPos,
-                            new InsertOrDeletePointHighlighter(INSERTED_LINES_HIGHLIGHT_COLOR),
-                            new WholeLineHighlightPainter(INSERTED_LINES_HIGHLIGHT_COLOR));
-                    break;
+    /**
+     * Append lines of item to the end of text areas and its position to diffItemPositions
+     */
+    private void addItemToTextAreas(ByLineDiffItem item) throws BadLocationException {
+        switch (item.getType()) {
+            case EQUAL:
+                // text of folded item is not added until it is expanded
+                boolean folded = foldedItems.contains(item);
+                TextLines placeholder = new TextLines(new String[]{getFoldedItemPlaceholder(item)});
+
+                TextPosition positionA = addLinesToTextArea(textAreaA,
+                        folded ? placeholder : item.getLines());
+                TextPosition positionB = addLinesToTextArea(textAreaB,
+                        folded ? placeholder : item.getLinesB());
+
+                diffItemPositions.add(positionA.start, positionB.start, positionA.end, positionB.end, item.getType());
+                break;
+
+            case DELETE:
+            case MOVED_FROM:
+                positionA = addLinesToTextArea(textAreaA, item.getLines());
+
+                int nextCharPositionB = textAreaB.getLineCount() != 0 ?
+                        textAreaB.getLineEndOffset(textAreaB.getLineCount() - 1) + 1
+                        : 0;
+
+                diffItemPositions.add(positionA.start, nextCharPositionB, positionA.end, nextCharPositionB,
+                        item.getType());
+                break;
+
+            case INSERT:
+            case MOVED_TO:
+            case COPIED:
+                positionB = addLinesToTextArea(textAreaB, item.getLines());
+
+                int nextCharPositionA = textAreaA.getLineCount() != 0 ?
+                        textAreaA.getLineEndOffset(textAreaA.getLineCount() - 1) + 1
+                        : 0;
+
+                diffItemPositions.add(nextCharPositionA, positionB.start, nextCharPositionA, positionB.end,
+                        item.getType());
+                break;
+
+            case MODIFIED:
+                addModifiedLines(item);
+                break;
+
+            default:
+                throw new RuntimeException("unexpected diff item type: " + item.getType());
+        }
+    }
 
-                case MODIFIED:
-                    highlightByLineDiffItem(itemPos,
-                            new WholeLineHighlightPainter(MODIFIED_LINES_HIGHLIGHT_COLOR),
-                            new WholeLineHighlightPainter(MODIFIED_LINES_HIGHLIGHT_COLOR));
-                    highlightByCharModifications(itemPos, diffItems.get(i));
-                    break;
+    private void appendItems(List<ByLineDiffItem> byLineDiffItems, boolean last) throws BadLocationException {
+        int fromIndex = diffItems.size();
+        int oldLineCountA = textAreaA.getLineCount();
+        int oldLineCountB = textAreaB.getLineCount();
 
-                default:
-                    throw new RuntimeException("unexpected diff item type: " + itemPos.getType());
+        List<ByLineDiffItem> items = hideUnchangedButton.isSelected() ?
+                EqualItemsFolding.fold(byLineDiffItems, foldedItems, fromIndex == 0, last) : byLineDiffItems;
+
+        diffAreasUpdating = true;
+        try {
+            // items are appended exactly as populateDiffAreas does it, before the quick fix line feed
+            removeLastChar(textAreaA);
+            removeLastChar(textAreaB);
+
+            for (ByLineDiffItem item : items) {
+                diffItems.add(item);
+                addItemToTextAreas(item);
             }
+
+            textAreaA.append("\n");
+            textAreaB.append("\n");
+        } finally {
+            diffAreasUpdating = false;
         }
 
-        fileAScrollPane.getViewport().setView(textAreaA);
-        fileBScrollPane.getViewport().setView(textAreaB);
+        for (int i = fromIndex; i < diffItems.size(); i++) {
+            itemHighlights.add(highlightDiffItem(diffItemPositions, i, diffItems.get(i)));
+        }
+
+        updateMoveSourcePositions();
+
+        scrollController.onDiffItemsPatched(diffItemPositions, fromIndex, fromIndex, diffItems.size(),
+                textAreaA.getLineCount() - oldLineCountA, textAreaB.getLineCount() - oldLineCountB);
+
+        updateChangesOverview();
+    }
+
+    private static void removeLastChar(JTextArea textArea) {
+        int length = textArea.getDocument().getLength();
+        if (length > 0) {
+            textArea.replaceRange("", length - 1, length);
+        }
+    }
+
+    private void setUnchangedLinesHidden(boolean hidden) throws BadLocationException {
+        int oldItemCount = diffItems.size();
+
+        List<ByLineDiffItem> items = EqualItemsFolding.unfold(diffItems);
+        foldedItems.clear();
+        if (hidden) {
+            items = EqualItemsFolding.fold(items, foldedItems);
+        }
+
+        diffItems.clear();
+        diffItems.addAll(items);
+
+        populateDiffAreas();
+
+        scrollController.onDiffItemsPatched(diffItemPositions, 0, oldItemCount, diffItems.size(), 0, 0);
+
+        updateChangesOverview();
+    }
 
-        return diffItemPositions;
+    private void unfoldItem(int index) throws BadLocationException {
+        ByLineDiffItem item = diffItems.get(index);
+        int startA = diffItemPositions.getStartA(index), endA = diffItemPositions.getEndA(index);
+        int startB = diffItemPositions.getStartB(index), endB = diffItemPositions.getEndB(index);
+
+        int startLineA = textAreaA.getLineOfOffset(startA);
+        int startLineB = textAreaB.getLineOfOffset(startB);
+
+        String textA = item.getLines().join("\n");
+        String textB = item.getLinesB().join("\n");
+
+        diffAreasUpdating = true;
+        try {
+            textAreaA.replaceRange(textA, startA, endA);
+            textAreaB.replaceRange(textB, startB, endB);
+        } finally {
+            diffAreasUpdating = false;
+        }
+
+        foldedItems.remove(item);
+
+        int lineDelta = item.getLineCountA() - 1;
+
+        applyPatch(index, index + 1, startLineA, startLineB, Collections.singletonList(item),
+                textA.length() - (endA - startA),
+                textB.length() - (endB - startB),
+                lineDelta, lineDelta);
     }
 
-    private void highlightByLineDiffItem(DiffItemPosition item,
+    private static String getFoldedItemPlaceholder(ByLineDiffItem item) {
+        return "... " + item.getLineCountA() + " unchanged lines hidden (double-click to show) ...";
+    }
+
+    private ItemHighlights highlightDiffItem(DiffItemPositions positions, int index, ByLineDiffItem item)
+            throws BadLocationException {
+        ItemHighlights highlights = new ItemHighlights();
+
+        switch (positions.getType(index)) {
+            case EQUAL:
+                if (foldedItems.contains(item)) {
+                    highlightByLineDiffItem(positions, index,
+                            new WholeLineHighlightPainter(FOLDED_LINES_HIGHLIGHT_COLOR),
+                            new WholeLineHighlightPainter(FOLDED_LINES_HIGHLIGHT_COLOR),
+                            highlights);
+                }
+                // no highlight necessary otherwise
+                break;
+
+            case DELETE:
+                highlightByLineDiffItem(positions, index,
+                        new WholeLineHighlightPainter(DELETED_LINES_HIGHLIGHT_COLOR),
+                        new InsertOrDeletePointHighlighter(DELETED_LINES_HIGHLIGHT_COLOR),
+                        highlights);
+                break;
+
+            case INSERT:
+                highlightByLineDiffItem(positions, index,
+                        new InsertOrDeletePointHighlighter(INSERTED_LINES_HIGHLIGHT_COLOR),
+                        new WholeLineHighlightPainter(INSERTED_LINES_HIGHLIGHT_COLOR),
+                        highlights);
+                break;
+
+            case MOVED_FROM:
+                highlightByLineDiffItem(positions, index,
+                        new WholeLineHighlightPainter(MOVED_LINES_HIGHLIGHT_COLOR),
+                        new InsertOrDeletePointHighlighter(MOVED_LINES_HIGHLIGHT_COLOR),
+                        highlights);
+                break;
+
+            case MOVED_TO:
+                highlightByLineDiffItem(positions, index,
+                        new InsertOrDeletePointHighlighter(MOVED_LINES_HIGHLIGHT_COLOR),
+                        new WholeLineHighlightPainter(MOVED_LINES_HIGHLIGHT_COLOR),
+                        highlights);
+                break;
+
+            case COPIED:
+                highlightByLineDiffItem(positions, index,
+                        new InsertOrDeletePointHighlighter(COPIED_LINES_HIGHLIGHT_COLOR),
+                        new WholeLineHighlightPainter(COPIED_LINES_HIGHLIGHT_COLOR),
+                        highlights);
+                break;
+
+            case MODIFIED:
+                highlightByLineDiffItem(positions, index,
+                        new WholeLineHighlightPainter(MODIFIED_LINES_HIGHLIGHT_COLOR),
+                        new WholeLineHighlightPainter(MODIFIED_LINES_HIGHLIGHT_COLOR),
+                        highlights);
+                highlightByCharModifications(positions, index, item, highlights);
+                break;
+
+            default:
+                throw new RuntimeException("unexpected diff item type: " + positions.getType(index));
+        }
+
+        return highlights;
+    }
+
+    private void highlightByLineDiffItem(DiffItemPositions positions, int index,
                                          Highlighter.HighlightPainter highlightPainterA,
-                                         Highlighter.HighlightPainter highlightPainterB)
+                                         Highlighter.HighlightPainter highlightPainterB,
+                                         ItemHighlights highlights)
             throws BadLocationException {
-        textAreaA.getHighlighter().addHighlight(item.getStartA(), item.getEndA(),
-                highlightPainterA);
-        textAreaB.getHighlighter().addHighlight(item.getStartB(), item.getEndB(),
-                highlightPainterB);
+        highlights.tagsA.add(textAreaA.getHighlighter().addHighlight(positions.getStartA(index),
+                positions.getEndA(index), highlightPainterA));
+        highlights.tagsB.add(textAreaB.getHighlighter().addHighlight(positions.getStartB(index),
+                positions.getEndB(index), highlightPainterB));
     }
 
-    private DiffItemPosition addModifiedLines(ByLineDiffItem modifiedItem)
+    private void addModifiedLines(ByLineDiffItem modifiedItem)
             throws BadLocationException {
-        if (modifiedItem.getByCharDiffItems() == null) {
-            throw new IllegalArgumentException("by char diff items are absent");
+        ByCharDiff byCharDiff = modifiedItem.getByCharDiff();
+        if (byCharDiff == null) {
+            throw new IllegalArgumentException("by char diff is absent");
         }
 
         int previousLineCountA = textAreaA.getLineCount();
@@ -311,12 +817,12 @@ public class DiffForm extends JFrame {
             previousLineCountB++;
         }
 
-        for (DiffItem byCharItem : modifiedItem.getByCharDiffItems()) {
-            String decodedString = DiffGeneratorUtils.decodeString(byCharItem.getChars());
-            switch (byCharItem.getType()) {
+        for (int i = 0; i < byCharDiff.size(); i++) {
+            String decodedString = byCharDiff.getText(i);
+            switch (byCharDiff.getType(i)) {
                 case EQUAL:
                     textAreaA.append(decodedString);
-                    textAreaB.append(decodedString);
+                    textAreaB.append(byCharDiff.getTextB(i));
                     break;
 
                 case INSERT:
@@ -328,7 +834,7 @@ public class DiffForm extends JFrame {
                     break;
 
                 default:
-                    throw new RuntimeException("unexpected diff item type: " + byCharItem.getType());
+                    throw new RuntimeException("unexpected diff item type: " + byCharDiff.getType(i));
             }
         }
 
@@ -338,19 +844,20 @@ public class DiffForm extends JFrame {
         TextPosition positionB = new TextPosition(textAreaB.getLineStartOffset(previousLineCountB - 1),
                 textAreaB.getLineEndOffset(textAreaB.getLineCount() - 1));
 
-        return new DiffItemPosition(
-                positionA.start, positionB.start, positionA.end, positionB.end,
+        diffItemPositions.add(positionA.start, positionB.start, positionA.end, positionB.end,
                 ExtendedDiffItemType.MODIFIED);
     }
 
-    private void highlightByCharModifications(DiffItemPosition position,
-                                              ByLineDiffItem modifiedItem) throws BadLocationException {
-        if (modifiedItem.getByCharDiffItems() == null) {
-            throw new IllegalArgumentException("by char diff items are absent");
+    private void highlightByCharModifications(DiffItemPositions positions, int index,
+                                              ByLineDiffItem modifiedItem,
+                                              ItemHighlights highlights) throws BadLocationException {
+        ByCharDiff byCharDiff = modifiedItem.getByCharDiff();
+        if (byCharDiff == null) {
+            throw new IllegalArgumentException("by char diff is absent");
         }
 
-        int posA = position.getStartA();
-        int posB = position.getStartB();
+        int posA = positions.getStartA(index);
+        int posB = positions.getStartB(index);
 
         //
         // applying simple heuristic to improve readability: coalescing highlight of
@@ -359,12 +866,12 @@ public class DiffForm extends JFrame {
         int[] pendingInsertPositions = null;
         int[] pendingDeletePositions = null;
 
-        for (DiffItem byCharItem : modifiedItem.getByCharDiffItems()) {
-            switch (byCharItem.getType()) {
+        for (int i = 0; i < byCharDiff.size(); i++) {
+            switch (byCharDiff.getType(i)) {
                 case EQUAL:
-                    posA += byCharItem.getChars().length;
-                    posB += byCharItem.getChars().length;
-                    if (byCharItem.getChars().length <= 3) {
+                    posA += byCharDiff.getLength(i);
+                    posB += byCharDiff.getLengthB(i);
+                    if (byCharDiff.getLength(i) <= 3) {
                         if (pendingDeletePositions != null) {
                             pendingDeletePositions[1] = posA;
                         }
@@ -373,11 +880,11 @@ public class DiffForm extends JFrame {
                         }
                     } else {
                         if (pendingDeletePositions != null) {
-                            highlightByCharModifications(pendingDeletePositions[0], pendingDeletePositions[1], textAreaA);
+                            highlights.tagsA.add(highlightByCharModifications(pendingDeletePositions[0], pendingDeletePositions[1], textAreaA));
                             pendingDeletePositions = null;
                         }
                         if (pendingInsertPositions != null) {
-                            highlightByCharModifications(pendingInsertPositions[0], pendingInsertPositions[1], textAreaB);
+                            highlights.tagsB.add(highlightByCharModifications(pendingInsertPositions[0], pendingInsertPositions[1], textAreaB));
                             pendingInsertPositions = null;
                         }
                     }
@@ -385,61 +892,263 @@ public class DiffForm extends JFrame {
 
                 case INSERT:
                     if (pendingInsertPositions != null) {
-                        pendingInsertPositions[1] = posB + byCharItem.getChars().length;
+                        pendingInsertPositions[1] = posB + byCharDiff.getLength(i);
                     } else {
-                        pendingInsertPositions = new int[] {posB, posB + byCharItem.getChars().length};
+                        pendingInsertPositions = new int[] {posB, posB + byCharDiff.getLength(i)};
                     }
-                    posB += byCharItem.getChars().length;
+                    posB += byCharDiff.getLength(i);
                     break;
 
                 case DELETE:
                     if (pendingDeletePositions != null) {
-                        pendingDeletePositions[1] = posA + byCharItem.getChars().length;
+                        pendingDeletePositions[1] = posA + byCharDiff.getLength(i);
                     } else {
-                        pendingDeletePositions = new int[] {posA, posA + byCharItem.getChars().length};
+                        pendingDeletePositions = new int[] {posA, posA + byCharDiff.getLength(i)};
                     }
-                    posA += byCharItem.getChars().length;
+                    posA += byCharDiff.getLength(i);
                     break;
 
                 default:
-                    throw new RuntimeException("unexpected diff item type: " + byCharItem.getType());
+                    throw new RuntimeException("unexpected diff item type: " + byCharDiff.getType(i));
             }
         }
 
         if (pendingDeletePositions != null) {
-            highlightByCharModifications(pendingDeletePositions[0], pendingDeletePositions[1], textAreaA);
+            highlights.tagsA.add(highlightByCharModifications(pendingDeletePositions[0], pendingDeletePositions[1], textAreaA));
         }
         if (pendingInsertPositions != null) {
-            highlightByCharModifications(pendingInsertPositions[0], pendingInsertPositions[1], textAreaB);
+            highlights.tagsB.add(highlightByCharModifications(pendingInsertPositions[0], pendingInsertPositions[1], textAreaB));
         }
     }
 
-    private static void highlightByCharModifications(int start, int end, JTextArea textArea) throws BadLocationException {
-        textArea.getHighlighter().addHighlight(start, end,
+    private static Object highlightByCharModifications(int start, int end, JTextArea textArea) throws BadLocationException {
+        return textArea.getHighlighter().addHighlight(start, end,
                 new DefaultHighlighter.DefaultHighlightPainter(MODIFIED_CHARS_HIGHLIGHT_COLOR));
     }
 
-    private static TextPosition addLinesToTextArea(JTextArea textArea, String[] lines) throws BadLocationException {
+    private static TextPosition addLinesToTextArea(JTextArea textArea, TextLines lines) throws BadLocationException {
         int previousLineCount = textArea.getLineCount();
         if (previousLineCount != 1) {
             textArea.append("\n");
             previousLineCount++;
         }
-        textArea.append(Arrays.stream(lines).collect(Collectors.joining("\n")));
+        textArea.append(lines.join("\n"));
         return new TextPosition(textArea.getLineStartOffset(previousLineCount - 1),
                 textArea.getLineEndOffset(textArea.getLineCount() - 1));
     }
 
-    private static String[] decodeStrings(LinesEncoding linesEncoding, DiffItem item) {
-        return DiffGeneratorUtils.decodeLines(item.getChars(), linesEncoding);
+    private void onFileEdited(DocumentEvent e, boolean editedA) {
+        Element rootElement = e.getDocument().getDefaultRootElement();
+        DocumentEvent.ElementChange linesChange = e.getChange(rootElement);
+
+        int firstEditedLine, lastEditedLineBefore, lineDelta;
+        if (linesChange != null) {
+            firstEditedLine = linesChange.getIndex();
+            lastEditedLineBefore = firstEditedLine + Math.max(linesChange.getChildrenRemoved().length, 1) - 1;
+            lineDelta = linesChange.getChildrenAdded().length - linesChange.getChildrenRemoved().length;
+        } else {
+            // edit inside single line
+            firstEditedLine = lastEditedLineBefore = rootElement.getElementIndex(e.getOffset());
+            lineDelta = 0;
+        }
+
+        int charDelta = e.getType() == DocumentEvent.EventType.INSERT ? e.getLength() : -e.getLength();
+
+        IncrementalDiffEngine.Patch patch = IncrementalDiffEngine.rediff(diffItems, editedA,
+                firstEditedLine, lastEditedLineBefore, lineDelta,
+                line -> getLine(textAreaA, line), line -> getLine(textAreaB, line),
+                foldedItems, comparisonOptions);
+
+        if (!patch.isMinimal()) {
+            markDiffNotMinimal();
+        }
+
+        try {
+            if (editedA) {
+                applyPatch(patch.getFromIndex(), patch.getToIndex(),
+                        patch.getStartLineA(), patch.getStartLineB(), patch.getItems(),
+                        charDelta, 0, lineDelta, 0);
+            } else {
+                applyPatch(patch.getFromIndex(), patch.getToIndex(),
+                        patch.getStartLineA(), patch.getStartLineB(), patch.getItems(),
+                        0, charDelta, 0, lineDelta);
+            }
+        } catch (BadLocationException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Replace items [fromIndex, oldToIndex) with patch items already displayed in text areas
+     * starting at the specified lines.
+     */
+    private void applyPatch(int fromIndex, int oldToIndex,
+                            int startLineA, int startLineB, List<ByLineDiffItem> patchItems,
+                            int charDeltaA, int charDeltaB,
+                            int lineDeltaA, int lineDeltaB) throws BadLocationException {
+        DiffItemPositions patchPositions = new DiffItemPositions();
+        int lineA = startLineA;
+        int lineB = startLineB;
+        for (ByLineDiffItem item : patchItems) {
+            addItemPosition(patchPositions, item, lineA, lineB);
+            lineA += getDisplayedLineCount(item, item.getLineCountA());
+            lineB += getDisplayedLineCount(item, item.getLineCountB());
+        }
+
+        // items following the patched ones are not changed, only moved
+        diffItemPositions.shift(oldToIndex, charDeltaA, charDeltaB);
+
+        // (highlights of following items are moved by text areas themselves)
+        for (ItemHighlights highlights : itemHighlights.subList(fromIndex, oldToIndex)) {
+            for (Object tag : highlights.tagsA) {
+                textAreaA.getHighlighter().removeHighlight(tag);
+            }
+            for (Object tag : highlights.tagsB) {
+                textAreaB.getHighlighter().removeHighlight(tag);
+            }
+        }
+
+        diffItems.subList(fromIndex, oldToIndex).clear();
+        diffItems.addAll(fromIndex, patchItems);
+
+        diffItemPositions.replace(fromIndex, oldToIndex, patchPositions);
+
+        List<ItemHighlights> patchHighlights = new ArrayList<>(patchItems.size());
+        for (int i = 0; i < patchPositions.size(); i++) {
+            patchHighlights.add(highlightDiffItem(patchPositions, i, patchItems.get(i)));
+        }
+        itemHighlights.subList(fromIndex, oldToIndex).clear();
+        itemHighlights.addAll(fromIndex, patchHighlights);
+
+        updateMoveSourcePositions();
+
+        scrollController.onDiffItemsPatched(diffItemPositions,
+                fromIndex, oldToIndex, fromIndex + patchPositions.size(),
+                lineDeltaA, lineDeltaB);
+
+        updateChangesOverview();
+    }
+
+    /**
+     * Set positions of MOVED_FROM items to positions of MOVED_TO and COPIED items
+     * (for connectors drawn between them); sources removed by edits are forgotten
+     */
+    private void updateMoveSourcePositions() {
+        Map<ByLineDiffItem, Integer> moveSourceIndices = new IdentityHashMap<>();
+        for (int i = 0; i < diffItems.size(); i++) {
+            if (diffItems.get(i).getType() == ExtendedDiffItemType.MOVED_FROM) {
+                moveSourceIndices.put(diffItems.get(i), i);
+            }
+        }
+
+        for (int i = 0; i < diffItems.size(); i++) {
+            ByLineDiffItem item = diffItems.get(i);
+            if (item.getMoveSource() == null) {
+                continue;
+            }
+
+            Integer sourceIndex = moveSourceIndices.get(item.getMoveSource());
+            if (sourceIndex != null) {
+                diffItemPositions.setMoveSource(i,
+                        diffItemPositions.getStartA(sourceIndex), diffItemPositions.getEndA(sourceIndex));
+            } else {
+                diffItemPositions.setMoveSource(i, -1, -1);
+            }
+        }
+    }
+
+    /**
+     * Rebuild changes index used by overview rulers (rulers are repainted from it
+     * in time proportional to their height, not to the number of changes)
+     */
+    private void updateChangesOverview() throws BadLocationException {
+        int changeCount = diffItemPositions.getChangeCount();
+
+        int[] itemIndices = new int[changeCount];
+        int[] startLinesA = new int[changeCount];
+        int[] endLinesA = new int[changeCount];
+        int[] startLinesB = new int[changeCount];
+        int[] endLinesB = new int[changeCount];
+        ExtendedDiffItemType[] types = new ExtendedDiffItemType[changeCount];
+
+        int changeIndex = 0;
+        for (int i = 0; i < diffItemPositions.size(); i++) {
+            if (diffItemPositions.getType(i) == ExtendedDiffItemType.EQUAL) {
+                continue;
+            }
+
+            // changes are never folded
+            ByLineDiffItem item = diffItems.get(i);
+
+            itemIndices[changeIndex] = i;
+            startLinesA[changeIndex] = getLineOfOffset(textAreaA, diffItemPositions.getStartA(i));
+            endLinesA[changeIndex] = startLinesA[changeIndex] + item.getLineCountA();
+            startLinesB[changeIndex] = getLineOfOffset(textAreaB, diffItemPositions.getStartB(i));
+            endLinesB[changeIndex] = startLinesB[changeIndex] + item.getLineCountB();
+            types[changeIndex] = diffItemPositions.getType(i);
+
+            changeIndex++;
+        }
+
+        overviewRulerA.setChangesOverview(new ChangesOverview(textAreaA.getLineCount(),
+                itemIndices, startLinesA, endLinesA, types));
+        overviewRulerB.setChangesOverview(new ChangesOverview(textAreaB.getLineCount(),
+                itemIndices, startLinesB, endLinesB, types));
+    }
+
+    private static int getLineOfOffset(JTextArea textArea, int offset) throws BadLocationException {
+        // position of item absent in file may point past the end of text
+        return textArea.getLineOfOffset(Math.min(offset, textArea.getDocument().getLength()));
+    }
+
+    private void addItemPosition(DiffItemPositions positions, ByLineDiffItem item, int startLineA, int startLineB)
+            throws BadLocationException {
+        TextPosition positionA = getLinesPosition(textAreaA, startLineA,
+                getDisplayedLineCount(item, item.getLineCountA()));
+        TextPosition positionB = getLinesPosition(textAreaB, startLineB,
+                getDisplayedLineCount(item, item.getLineCountB()));
+        positions.add(positionA.start, positionB.start, positionA.end, positionB.end, item.getType());
+    }
+
+    private int getDisplayedLineCount(ByLineDiffItem item, int lineCount) {
+        return foldedItems.contains(item) ? 1 : lineCount;
+    }
+
+    /**
+     * @return position of lines as it is calculated while populating text areas
+     * (line feed following the last line is not included)
+     */
+    private static TextPosition getLinesPosition(JTextArea textArea, int startLine, int lineCount)
+            throws BadLocationException {
+        int start = textArea.getLineStartOffset(startLine);
+        if (lineCount == 0) {
+            return new TextPosition(start, start);
+        }
+        return new TextPosition(start, textArea.getLineEndOffset(startLine + lineCount - 1) - 1);
     }
 
-    private JTextArea makeTextArea() {
+    private static String getLine(JTextArea textArea, int line) {
+        try {
+            int start = textArea.getLineStartOffset(line);
+            int end = textArea.getLineEndOffset(line);
+            String text = textArea.getText(start, end - start);
+            return text.endsWith("\n") ? text.substring(0, text.length() - 1) : text;
+        } catch (BadLocationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private JTextArea makeTextArea(boolean isA) {
         JTextArea textArea = new TextAreaWithOutlineRect(CHANGE_HIGHLIGHT_COLOR);
         textArea.setFont(new Font("Courier New", Font.PLAIN, 11));
-        textArea.setEditable(false); // TODO
+        textArea.setEditable(true); // TODO saving edited files
         textArea.setLineWrap(false);
         textArea.setCursor(Cursor.getPredefinedCursor(Cursor.TEXT_CURSOR));
+
+        textArea.getDocument().addDocumentListener(new EditListener(isA));
+        ((AbstractDocument) textArea.getDocument()).setDocumentFilter(new FoldedLinesProtectionFilter(isA));
+        textArea.addMouseListener(new UnfoldMouseListener(isA));
+
         return textArea;
     }
 
@@ -1,10 +1,19 @@
 package org.gsoft.showcase.diff.gui.forms;
 
-import org.gsoft.showcase.diff.generators.DiffGeneratorUtils;
+import org.gsoft.showcase.diff.cache.DiffResultCache;
 import org.gsoft.showcase.diff.generators.DiffGeneratorUtils.LinesEncoding;
 import org.gsoft.showcase.diff.generators.DiffItem;
 import org.gsoft.showcase.diff.generators.DiffItemType;
-import org.gsoft.showcase.diff.generators.impl.MyersDiffGenerator;
+import org.gsoft.showcase.diff.generators.LineComparisonOptions;
+import org.gsoft.showcase.diff.generators.StopFlags;
+import org.gsoft.showcase.diff.generators.impl.BidirectionalMyersDiffGenerator;
+import org.gsoft.showcase.diff.gui.logic.ByLineDiffItem;
+import org.gsoft.showcase.diff.gui.logic.DiffRunner;
+import org.gsoft.showcase.diff.gui.logic.DiffStatistics;
+import org.gsoft.showcase.diff.gui.logic.ProgressiveDiffConverter;
+import org.gsoft.showcase.diff.gui.logic.ThreeWayMerge;
+import org.gsoft.showcase.diff.io.EncodedFilesCache;
+import org.gsoft.showcase.diff.io.TextFileUtils;
 
 import javax.swing.*;
 import java.awt.*;
@@ -13,19 +22,51 @@ import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
 
 public class FileSelectionForm extends JFrame {
+    /**
+     * Caches are shared between all comparisons in the session (form is recreated for each comparison)
+     */
+    private static final DiffRunner DIFF_RUNNER = new DiffRunner(
+            new EncodedFilesCache(4 * 1024 * 1024),
+            new DiffResultCache(
+                    Paths.get(System.getProperty("user.home"), ".diff-swing-showcase", "cache"),
+                    256L * 1024 * 1024));
+
+    /**
+     * Time limit of comparing file A to one of files B in batch mode, so that a single pathological file
+     * does not hold up the whole batch (it is compared without limit when its diff is opened)
+     */
+    private static final long BATCH_ENTRY_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Limits time and memory of comparing base file to ours and theirs files which have almost nothing
+     * in common (the same limit as of comparing two files)
+     */
+    private static final int MERGE_MAX_EDIT_COST = 4000;
+
     private class BrowseForFileActionListener implements ActionListener {
         private final JTextField relatedTextField;
+        private final boolean multiSelectionEnabled;
 
-        private BrowseForFileActionListener(JTextField relatedTextField) {
+        private BrowseForFileActionListener(JTextField relatedTextField, boolean multiSelectionEnabled) {
             this.relatedTextField = relatedTextField;
+            this.multiSelectionEnabled = multiSelectionEnabled;
         }
 
         @Override
@@ -37,14 +78,66 @@ public class FileSelectionForm extends JFrame {
                 fileChooser = new JFileChooser();
             }
 
+            fileChooser.setMultiSelectionEnabled(multiSelectionEnabled);
+
             int result = fileChooser.showOpenDialog(FileSelectionForm.this);
 
             if (result == JFileChooser.APPROVE_OPTION) {
-                File selectedFile = fileChooser.getSelectedFile();
-                String selectedFilePath = selectedFile.getAbsolutePath();
+                File[] selectedFiles = multiSelectionEnabled ?
+                        fileChooser.getSelectedFiles() : new File[] { fileChooser.getSelectedFile() };
+
+                String selectedFilePaths = Arrays.stream(selectedFiles)
+                        .map(File::getAbsolutePath)
+                        .collect(Collectors.joining(File.pathSeparator));
+
+                relatedTextField.setText(selectedFilePaths);
+                selectedDirectoryPath = selectedFiles[0].getParent();
+            }
+        }
+    }
+
+    /**
+     * Shows diff form as soon as files are encoded and appends parts of diff to it as they are computed
+     */
+    private class ProgressiveDiffListener implements DiffRunner.ProgressListener {
+        private final String fileBPath;
+        private final WaitDialog waitDialog;
+        private final AtomicBoolean stopFlag;
+
+        private DiffForm diffForm;
+        private ProgressiveDiffConverter converter;
+
+        private ProgressiveDiffListener(String fileBPath, WaitDialog waitDialog, AtomicBoolean stopFlag) {
+            this.fileBPath = fileBPath;
+            this.waitDialog = waitDialog;
+            this.stopFlag = stopFlag;
+        }
+
+        @Override
+        public void onStarted(LinesEncoding linesEncoding) {
+            converter = new ProgressiveDiffConverter(linesEncoding);
+            diffForm = new DiffForm(getFileAPath(), fileBPath, linesEncoding);
+
+            SwingUtilities.invokeLater(() -> {
+                // stop flag is set by wait dialog (on event dispatch thread too)
+                if (stopFlag.get()) {
+                    return;
+                }
+
+                waitDialog.dispose();
 
-                relatedTextField.setText(selectedFilePath);
-                selectedDirectoryPath = selectedFile.getParent();
+                FileSelectionForm.this.setVisible(false);
+
+                diffForm.setLocationRelativeTo(null);
+                diffForm.setVisible(true);
+            });
+        }
+
+        @Override
+        public void onItems(List<DiffItem> byLineDiffItems) {
+            List<ByLineDiffItem> items = converter.convert(byLineDiffItems, stopFlag);
+            if ((items != null) && !items.isEmpty()) {
+                SwingUtilities.invokeLater(() -> diffForm.appendDiffItems(items, false));
             }
         }
     }
@@ -53,7 +146,15 @@ public class FileSelectionForm extends JFrame {
     private JButton fileABrowseButton;
     private JTextField fileBTextField;
     private JButton fileBBrowseButton;
+    private JTextField baseFileTextField;
+    private JButton baseFileBrowseButton;
     private JButton runDiffButton;
+    private JCheckBox ignoreWhitespaceCheckBox;
+    private JCheckBox ignoreTrailingWhitespaceCheckBox;
+    private JCheckBox ignoreCaseCheckBox;
+    private JCheckBox ignoreBlankLinesCheckBox;
+    private JTextArea ignoredPatternsTextArea;
+    private JCheckBox approximateCheckBox;
     private JPanel rootPanel;
 
     private String selectedDirectoryPath;
@@ -67,13 +168,15 @@ public class FileSelectionForm extends JFrame {
         // TODO can it be done in designer?
         fileABrowseButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
         fileBBrowseButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        baseFileBrowseButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
         runDiffButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
 
         setContentPane(rootPanel);
         pack();
 
-        fileABrowseButton.addActionListener(new BrowseForFileActionListener(fileATextField));
-        fileBBrowseButton.addActionListener(new BrowseForFileActionListener(fileBTextField));
+        fileABrowseButton.addActionListener(new BrowseForFileActionListener(fileATextField, false));
+        fileBBrowseButton.addActionListener(new BrowseForFileActionListener(fileBTextField, true));
+        baseFileBrowseButton.addActionListener(new BrowseForFileActionListener(baseFileTextField, false));
 
         runDiffButton.addActionListener((e) -> runDiff());
     }
@@ -83,52 +186,218 @@ public class FileSelectionForm extends JFrame {
             return;
         }
 
+        List<String> fileBPaths = getFileBPaths();
+        if (!getBaseFilePath().isEmpty()) {
+            runMerge(fileBPaths.get(0));
+            return;
+        }
+        if (fileBPaths.size() > 1) {
+            runBatchDiff(fileBPaths);
+            return;
+        }
+
+        LineComparisonOptions options = getComparisonOptions();
+        boolean approximate = approximateCheckBox.isSelected();
+
         AtomicBoolean stopFlag = new AtomicBoolean();
 
         WaitDialog waitDialog = new WaitDialog(stopFlag);
         waitDialog.setLocationRelativeTo(this);
 
+        ProgressiveDiffListener progressListener = new ProgressiveDiffListener(fileBPaths.get(0), waitDialog, stopFlag);
+
+        Path pathA = Paths.get(getFileAPath());
+        Path pathB = Paths.get(fileBPaths.get(0));
+
         new Thread(() -> {
             try {
-                LinesEncoding linesEncoding = DiffGeneratorUtils.encodeLines(
-                        readFileIntoStringsSplit(fileATextField.getText()),
-                        readFileIntoStringsSplit(fileBTextField.getText()),
-                        stopFlag);
+                DiffRunner.Result result = DIFF_RUNNER.run(pathA, pathB, options, approximate, stopFlag,
+                        progressListener);
 
                 if (stopFlag.get()) {
+                    if (progressListener.diffForm != null) {
+                        progressListener.diffForm.dispose();
+                    }
+                    return;
+                }
+
+                if (result.isFilesEqual()) {
+                    waitDialog.dispose();
+                    JOptionPane.showMessageDialog(FileSelectionForm.this, "Files are equal!", "Diff",
+                            JOptionPane.INFORMATION_MESSAGE);
                     return;
                 }
 
-                List<DiffItem> byLineDiffItems = new MyersDiffGenerator(stopFlag).generate(
-                        linesEncoding.getLinesA(), linesEncoding.getLinesB());
+                List<DiffItem> byLineDiffItems = result.getByLineDiffItems();
+                List<ByLineDiffItem> lastItems = progressListener.converter.finish(stopFlag);
+                DiffForm diffForm = progressListener.diffForm;
+
+                SwingUtilities.invokeLater(() -> {
+                    diffForm.appendDiffItems(lastItems, true);
+                    if (approximate) {
+                        diffForm.markDiffApproximate();
+                    } else if (!result.isMinimal()) {
+                        diffForm.markDiffNotMinimal();
+                    }
+                    diffForm.enablePatches(pathA, pathB, byLineDiffItems);
+
+                    if ((byLineDiffItems.size() == 1) && (byLineDiffItems.get(0).getType() == DiffItemType.EQUAL)) {
+                        JOptionPane.showMessageDialog(diffForm, "Files are equal!", "Diff", JOptionPane.INFORMATION_MESSAGE);
+                    }
+                });
+            } catch (Throwable t) {
+                JOptionPane.showMessageDialog(waitDialog,
+                        String.format("Failed to compute diff!\n%s: %s", t.getClass().getSimpleName(), t.getMessage()),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                t.printStackTrace();
+                System.exit(1);
+            }
+        }).start();
+
+        waitDialog.setVisible(true);
+    }
+
+    /**
+     * Compare file A to each of files B in parallel, reading and encoding file A only once.
+     */
+    private void runBatchDiff(List<String> fileBPaths) {
+        LineComparisonOptions options = getComparisonOptions();
+
+        AtomicBoolean stopFlag = new AtomicBoolean();
+
+        WaitDialog waitDialog = new WaitDialog(stopFlag);
+        waitDialog.setLocationRelativeTo(this);
+
+        new Thread(() -> {
+            ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try {
+                DiffRunner.ReferenceFile referenceFile = DIFF_RUNNER.prepareReferenceFile(
+                        Paths.get(getFileAPath()), options, stopFlag);
 
                 if (stopFlag.get()) {
                     return;
                 }
 
-                if ((byLineDiffItems.size() == 1) && (byLineDiffItems.get(0).getType() == DiffItemType.EQUAL)) {
-                    JOptionPane.showMessageDialog(waitDialog, "Files are equal!", "Diff", JOptionPane.INFORMATION_MESSAGE);
+                List<Future<BatchDiffForm.Entry>> futures = new ArrayList<>(fileBPaths.size());
+                for (String fileBPath : fileBPaths) {
+                    futures.add(executor.submit(() -> {
+                        Path pathB = Paths.get(fileBPath);
+
+                        AtomicBoolean entryStopFlag = new AtomicBoolean();
+                        ScheduledFuture<?> deadline = StopFlags.stopAfter(entryStopFlag, stopFlag,
+                                BATCH_ENTRY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                        DiffRunner.Result result;
+                        try {
+                            result = DIFF_RUNNER.run(referenceFile, pathB, entryStopFlag);
+                        } finally {
+                            deadline.cancel(false);
+                        }
+
+                        if (stopFlag.get()) {
+                            return null;
+                        }
+                        if (result == null) {
+                            return new BatchDiffForm.Entry(pathB, null); // time limit exceeded
+                        }
+                        if (result.isFilesEqual()) {
+                            return new BatchDiffForm.Entry(pathB, DiffStatistics.ofEqualFiles());
+                        }
+                        DiffStatistics statistics = DiffStatistics.of(result.getByLineDiffItems());
+                        // only statistics of minimal diffs are kept - diff is taken from cache when entry
+                        // is opened; other diffs are not cached, so they are kept too
+                        return result.isMinimal() ? new BatchDiffForm.Entry(pathB, statistics)
+                                : new BatchDiffForm.Entry(pathB, statistics, result);
+                    }));
                 }
 
-                DiffForm diffForm = new DiffForm(fileATextField.getText(), fileBTextField.getText(),
-                        byLineDiffItems, linesEncoding);
+                List<BatchDiffForm.Entry> entries = new ArrayList<>(futures.size());
+                for (Future<BatchDiffForm.Entry> future : futures) {
+                    try {
+                        entries.add(future.get());
+                    } catch (ExecutionException e) {
+                        throw e.getCause();
+                    }
+                }
 
                 if (stopFlag.get()) {
                     return;
                 }
 
+                BatchDiffForm batchDiffForm = new BatchDiffForm(DIFF_RUNNER, referenceFile, entries);
+
                 waitDialog.dispose();
 
                 FileSelectionForm.this.setVisible(false);
 
-                diffForm.setLocationRelativeTo(null);
-                diffForm.setVisible(true);
+                batchDiffForm.setLocationRelativeTo(null);
+                batchDiffForm.setVisible(true);
             } catch (Throwable t) {
                 JOptionPane.showMessageDialog(waitDialog,
                         String.format("Failed to compute diff!\n%s: %s", t.getClass().getSimpleName(), t.getMessage()),
                         "Error", JOptionPane.ERROR_MESSAGE);
                 t.printStackTrace();
                 System.exit(1);
+            } finally {
+                executor.shutdownNow();
+            }
+        }).start();
+
+        waitDialog.setVisible(true);
+    }
+
+    /**
+     * Merge changes made to base file in file A (ours) and file B (theirs).
+     */
+    private void runMerge(String fileBPath) {
+        LineComparisonOptions options = getComparisonOptions();
+
+        AtomicBoolean stopFlag = new AtomicBoolean();
+
+        WaitDialog waitDialog = new WaitDialog(stopFlag);
+        waitDialog.setLocationRelativeTo(this);
+
+        new Thread(() -> {
+            try {
+                String[] baseLines = TextFileUtils.readFileIntoStringsSplit(Paths.get(getBaseFilePath()), stopFlag);
+                String[] oursLines = TextFileUtils.readFileIntoStringsSplit(Paths.get(getFileAPath()), stopFlag);
+                String[] theirsLines = TextFileUtils.readFileIntoStringsSplit(Paths.get(fileBPath), stopFlag);
+
+                if (stopFlag.get()) {
+                    return;
+                }
+
+                // merged file is saved with line separators of ours file
+                TextFileUtils.LineFormat lineFormat = TextFileUtils.readLineFormat(Paths.get(getFileAPath()));
+
+                BidirectionalMyersDiffGenerator oursGenerator = new BidirectionalMyersDiffGenerator(stopFlag,
+                        MERGE_MAX_EDIT_COST);
+                BidirectionalMyersDiffGenerator theirsGenerator = new BidirectionalMyersDiffGenerator(stopFlag,
+                        MERGE_MAX_EDIT_COST);
+
+                ThreeWayMerge.Result result = ThreeWayMerge.merge(baseLines, oursLines, theirsLines,
+                        options, oursGenerator, theirsGenerator, stopFlag);
+
+                if (result == null) {
+                    return; // stopped
+                }
+
+                MergeForm mergeForm = new MergeForm(getBaseFilePath(), getFileAPath(), fileBPath, result, lineFormat);
+                if (!oursGenerator.isLastResultMinimal() || !theirsGenerator.isLastResultMinimal()) {
+                    mergeForm.markMergeNotMinimal();
+                }
+
+                waitDialog.dispose();
+
+                FileSelectionForm.this.setVisible(false);
+
+                mergeForm.setLocationRelativeTo(null);
+                mergeForm.setVisible(true);
+            } catch (Throwable t) {
+                JOptionPane.showMessageDialog(waitDialog,
+                        String.format("Failed to merge files!\n%s: %s", t.getClass().getSimpleName(), t.getMessage()),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                t.printStackTrace();
+                System.exit(1);
             }
         }).start();
 
@@ -136,32 +405,86 @@ public class FileSelectionForm extends JFrame {
     }
 
     private boolean validateSelectedFiles() {
-        String fileAPath = fileATextField.getText().trim();
-        String fileBPath = fileBTextField.getText().trim();
+        String fileAPath = getFileAPath();
+        List<String> fileBPaths = getFileBPaths();
 
-        if (fileAPath.isEmpty() || fileBPath.isEmpty()) {
+        if (fileAPath.isEmpty() || fileBPaths.isEmpty()) {
             JOptionPane.showMessageDialog(this, "You must select two files!",
                     "Error", JOptionPane.ERROR_MESSAGE);
             return false;
         }
 
-        if (checkForAbsentFile(fileAPath) || checkForAbsentFile(fileBPath)) {
+        if (checkForAbsentFile(fileAPath) || fileBPaths.stream().anyMatch(this::checkForAbsentFile)) {
             return false;
         }
 
-        if (fileATextField.getText().equals(fileBTextField.getText())) {
+        if (fileBPaths.contains(fileAPath)) {
             JOptionPane.showMessageDialog(this, "File A and file B are the same files!",
                     "Error", JOptionPane.ERROR_MESSAGE);
             return false;
         }
 
-        if (checkForBinaryFile(fileAPath) || checkForBinaryFile(fileBPath)) {
+        if (checkForBinaryFile(fileAPath) || fileBPaths.stream().anyMatch(this::checkForBinaryFile)) {
+            return false;
+        }
+
+        String baseFilePath = getBaseFilePath();
+        if (!baseFilePath.isEmpty()) {
+            if (fileBPaths.size() > 1) {
+                JOptionPane.showMessageDialog(this, "Only one file B can be merged with file A!",
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                return false;
+            }
+            if (checkForAbsentFile(baseFilePath) || checkForBinaryFile(baseFilePath)) {
+                return false;
+            }
+        }
+
+        try {
+            getIgnoredPatterns();
+        } catch (PatternSyntaxException e) {
+            JOptionPane.showMessageDialog(this, "Invalid regular expression:\n" + e.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
             return false;
         }
 
         return true;
     }
 
+    private String getFileAPath() {
+        return fileATextField.getText().trim();
+    }
+
+    private String getBaseFilePath() {
+        return baseFileTextField.getText().trim();
+    }
+
+    /**
+     * @return paths of files B (several files are separated with {@link File#pathSeparator})
+     */
+    private List<String> getFileBPaths() {
+        return Arrays.stream(fileBTextField.getText().split(Pattern.quote(File.pathSeparator)))
+                .map(String::trim)
+                .filter(path -> !path.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private LineComparisonOptions getComparisonOptions() {
+        return new LineComparisonOptions(ignoreWhitespaceCheckBox.isSelected(),
+                ignoreTrailingWhitespaceCheckBox.isSelected(), ignoreCaseCheckBox.isSelected(),
+                ignoreBlankLinesCheckBox.isSelected(), getIgnoredPatterns());
+    }
+
+    /**
+     * @return patterns compiled once for all compared lines
+     */
+    private List<Pattern> getIgnoredPatterns() {
+        return Arrays.stream(ignoredPatternsTextArea.getText().split("\n"))
+                .filter(regex -> !regex.trim().isEmpty())
+                .map(Pattern::compile)
+                .collect(Collectors.toList());
+    }
+
     private boolean checkForAbsentFile(String path) {
         if (!new File(path).isFile()) {
             JOptionPane.showMessageDialog(this,
@@ -207,29 +530,4 @@ public class FileSelectionForm extends JFrame {
         }
         return false;
     }
-
-    private static String[] readFileIntoStringsSplit(String path) {
-        // TODO support other encodings
-        String fileContents = readFile(path, StandardCharsets.UTF_8);
-
-        // TODO handle mixed line endings
-        String lineEndings = fileContents.contains("\r\n") ? "\r\n" : "\n";
-
-        return fileContents.split(lineEndings);
-    }
-
-    /**
-     * Taken from: https://stackoverflow.com/a/326440
-     * TODO use commons
-     */
-    private static String readFile(String path, Charset encoding)
-    {
-        byte[] encoded;
-        try {
-            encoded = Files.readAllBytes(Paths.get(path));
-        } catch (IOException e) {
-            throw new RuntimeException("error reading file!");
-        }
-        return new String(encoded, encoding);
-    }
-}
\ No newline at end of file
+}
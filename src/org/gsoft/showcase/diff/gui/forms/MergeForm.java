@@ -0,0 +1,327 @@
+package org.gsoft.showcase.diff.gui.forms;
+
+import org.gsoft.showcase.diff.gui.components.*;
+import org.gsoft.showcase.diff.gui.logic.DiffItemPositions;
+import org.gsoft.showcase.diff.gui.logic.ExtendedDiffItemType;
+import org.gsoft.showcase.diff.gui.logic.ThreeWayMerge;
+import org.gsoft.showcase.diff.gui.logic.ThreeWayMerge.Region;
+import org.gsoft.showcase.diff.gui.logic.ThreeWayMerge.RegionType;
+import org.gsoft.showcase.diff.io.TextFileUtils;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Highlighter;
+import java.awt.*;
+import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.gsoft.showcase.diff.gui.Colors.*;
+
+/**
+ * Three-pane variant of {@link DiffForm}: ours, base and theirs files side by side.
+ *
+ * Scrolling is synchronised by two {@link DiffPanesScrollController}s sharing the base pane
+ * (ours-base and base-theirs), so scrolling any pane scrolls both others.
+ */
+public class MergeForm extends JFrame {
+    private final ThreeWayMerge.Result mergeResult;
+
+    /**
+     * Format merged file is saved with
+     */
+    private final TextFileUtils.LineFormat lineFormat;
+
+    /**
+     * Indices of conflicting regions
+     */
+    private final List<Integer> conflictRegionIndices = new ArrayList<>();
+
+    private int currentConflictIndex = -1;
+
+    private JPanel rootPanel;
+    private JLabel oursPathLabel;
+    private JLabel basePathLabel;
+    private JLabel theirsPathLabel;
+    private JScrollPane oursScrollPane;
+    private JScrollPane baseScrollPane;
+    private JScrollPane theirsScrollPane;
+    private JPanel oursMatchingWrapperPanel;
+    private JPanel theirsMatchingWrapperPanel;
+    private JButton compareNewButton;
+    private JButton prevConflictButton;
+    private JButton nextConflictButton;
+    private JLabel conflictCounterLabel;
+    private JButton saveMergedButton;
+
+    private final TextAreaWithOutlineRect textAreaOurs;
+    private final TextAreaWithOutlineRect textAreaBase;
+    private final TextAreaWithOutlineRect textAreaTheirs;
+
+    /**
+     * @param lineFormat format merged file is saved with (e.g. the one of ours file)
+     */
+    public MergeForm(String basePath, String oursPath, String theirsPath, ThreeWayMerge.Result mergeResult,
+                     TextFileUtils.LineFormat lineFormat) {
+        setTitle("Merge");
+        setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+        setPreferredSize(new Dimension(1100, 600));
+
+        oursPathLabel.setText(oursPath);
+        basePathLabel.setText(basePath);
+        theirsPathLabel.setText(theirsPath);
+
+        this.mergeResult = mergeResult;
+        this.lineFormat = lineFormat;
+
+        List<Region> regions = mergeResult.getRegions();
+        for (int i = 0; i < regions.size(); i++) {
+            if (regions.get(i).getType() == RegionType.CONFLICT) {
+                conflictRegionIndices.add(i);
+            }
+        }
+
+        textAreaOurs = makeTextArea(mergeResult.getOursLines());
+        textAreaBase = makeTextArea(mergeResult.getBaseLines());
+        textAreaTheirs = makeTextArea(mergeResult.getTheirsLines());
+
+        oursScrollPane.getViewport().setView(textAreaOurs);
+        baseScrollPane.getViewport().setView(textAreaBase);
+        theirsScrollPane.getViewport().setView(textAreaTheirs);
+
+        DiffItemPositions oursPositions = new DiffItemPositions();
+        DiffItemPositions theirsPositions = new DiffItemPositions();
+        try {
+            for (Region region : regions) {
+                addPosition(oursPositions,
+                        textAreaOurs, region.getOursStart(), region.getOursEnd(),
+                        textAreaBase, region.getBaseStart(), region.getBaseEnd(),
+                        isChangedInOurs(region.getType()));
+                addPosition(theirsPositions,
+                        textAreaBase, region.getBaseStart(), region.getBaseEnd(),
+                        textAreaTheirs, region.getTheirsStart(), region.getTheirsEnd(),
+                        isChangedInTheirs(region.getType()));
+
+                highlightRegion(region);
+            }
+        } catch (BadLocationException e) {
+            throw new RuntimeException(e);
+        }
+
+        DiffMatchingImagePanel oursMatchingImagePanel = new DiffMatchingImagePanel();
+        DiffMatchingImagePanel theirsMatchingImagePanel = new DiffMatchingImagePanel();
+
+        oursMatchingWrapperPanel.add(oursMatchingImagePanel);
+        theirsMatchingWrapperPanel.add(theirsMatchingImagePanel);
+
+        new DiffPanesScrollController(oursScrollPane, baseScrollPane, this, oursMatchingImagePanel, oursPositions);
+        new DiffPanesScrollController(baseScrollPane, theirsScrollPane, this, theirsMatchingImagePanel, theirsPositions);
+
+        prevConflictButton.setMnemonic(KeyEvent.VK_LEFT);
+        prevConflictButton.addActionListener(e -> scrollToConflict(currentConflictIndex - 1));
+
+        nextConflictButton.setMnemonic(KeyEvent.VK_RIGHT);
+        nextConflictButton.addActionListener(e -> scrollToConflict(currentConflictIndex + 1));
+
+        saveMergedButton.addActionListener(e -> saveMergedFile());
+
+        updateConflictCounter();
+
+        // TODO can it be done in designer?
+        prevConflictButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        nextConflictButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        compareNewButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        saveMergedButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+
+        compareNewButton.addActionListener(e -> {
+            int response = JOptionPane.showConfirmDialog(MergeForm.this,
+                    "Are you sure (current results will be lost)?", "Compare new files",
+                    JOptionPane.YES_NO_OPTION, JOptionPane.INFORMATION_MESSAGE);
+            if (response != JOptionPane.YES_OPTION) {
+                return;
+            }
+
+            MergeForm.this.setVisible(false);
+
+            FileSelectionForm fileSelectionForm = new FileSelectionForm();
+            fileSelectionForm.setLocationRelativeTo(null);
+            fileSelectionForm.setVisible(true);
+        });
+
+        setContentPane(rootPanel);
+        pack();
+    }
+
+    private static boolean isChangedInOurs(RegionType type) {
+        return (type == RegionType.OURS) || (type == RegionType.BOTH_SAME) || (type == RegionType.CONFLICT);
+    }
+
+    private static boolean isChangedInTheirs(RegionType type) {
+        return (type == RegionType.THEIRS) || (type == RegionType.BOTH_SAME) || (type == RegionType.CONFLICT);
+    }
+
+    /**
+     * Add position of region in pair of panes (as if the left one was compared to the right one)
+     */
+    private static void addPosition(DiffItemPositions positions,
+                                    JTextArea textAreaLeft, int startLineLeft, int endLineLeft,
+                                    JTextArea textAreaRight, int startLineRight, int endLineRight,
+                                    boolean changed) throws BadLocationException {
+        int[] left = getLinesPosition(textAreaLeft, startLineLeft, endLineLeft);
+        int[] right = getLinesPosition(textAreaRight, startLineRight, endLineRight);
+
+        ExtendedDiffItemType type;
+        if (!changed) {
+            type = ExtendedDiffItemType.EQUAL;
+        } else if (startLineLeft == endLineLeft) {
+            type = ExtendedDiffItemType.INSERT;
+        } else if (startLineRight == endLineRight) {
+            type = ExtendedDiffItemType.DELETE;
+        } else {
+            type = ExtendedDiffItemType.MODIFIED;
+        }
+
+        positions.add(left[0], right[0], left[1], right[1], type);
+    }
+
+    /**
+     * @return [start, end) offsets of lines (line feed following the last line is not included)
+     */
+    private static int[] getLinesPosition(JTextArea textArea, int startLine, int endLine)
+            throws BadLocationException {
+        int start = textArea.getLineStartOffset(startLine);
+        if (endLine == startLine) {
+            return new int[] {start, start};
+        }
+        return new int[] {start, textArea.getLineEndOffset(endLine - 1) - 1};
+    }
+
+    private void highlightRegion(Region region) throws BadLocationException {
+        if (region.getType() == RegionType.UNCHANGED) {
+            return;
+        }
+
+        Color color = region.getType() == RegionType.CONFLICT ?
+                CONFLICT_LINES_HIGHLIGHT_COLOR : MODIFIED_LINES_HIGHLIGHT_COLOR;
+
+        highlightLines(textAreaBase, region.getBaseStart(), region.getBaseEnd(), color);
+        if (isChangedInOurs(region.getType())) {
+            highlightLines(textAreaOurs, region.getOursStart(), region.getOursEnd(), color);
+        }
+        if (isChangedInTheirs(region.getType())) {
+            highlightLines(textAreaTheirs, region.getTheirsStart(), region.getTheirsEnd(), color);
+        }
+    }
+
+    private static void highlightLines(JTextArea textArea, int startLine, int endLine, Color color)
+            throws BadLocationException {
+        int[] position = getLinesPosition(textArea, startLine, endLine);
+        Highlighter.HighlightPainter painter = startLine == endLine ?
+                new InsertOrDeletePointHighlighter(color) : new WholeLineHighlightPainter(color);
+        textArea.getHighlighter().addHighlight(position[0], position[1], painter);
+    }
+
+    private void scrollToConflict(int conflictIndex) {
+        if ((conflictIndex < 0) || (conflictIndex >= conflictRegionIndices.size())) {
+            return;
+        }
+
+        currentConflictIndex = conflictIndex;
+        Region region = mergeResult.getRegions().get(conflictRegionIndices.get(conflictIndex));
+
+        try {
+            outlineLines(textAreaOurs, region.getOursStart(), region.getOursEnd());
+            outlineLines(textAreaTheirs, region.getTheirsStart(), region.getTheirsEnd());
+            Rectangle baseRect = outlineLines(textAreaBase, region.getBaseStart(), region.getBaseEnd());
+
+            // other panes are scrolled by scroll controllers
+            JViewport viewport = baseScrollPane.getViewport();
+            viewport.setViewPosition(new Point(viewport.getViewPosition().x,
+                    Math.max(0, baseRect.y + baseRect.height / 2 - viewport.getHeight() / 2)));
+        } catch (BadLocationException e) {
+            throw new RuntimeException(e);
+        }
+
+        textAreaOurs.repaint();
+        textAreaBase.repaint();
+        textAreaTheirs.repaint();
+
+        updateConflictCounter();
+    }
+
+    /**
+     * @return outlined rectangle
+     */
+    private static Rectangle outlineLines(TextAreaWithOutlineRect textArea, int startLine, int endLine)
+            throws BadLocationException {
+        int[] position = getLinesPosition(textArea, startLine, endLine);
+        Rectangle startRect = textArea.modelToView(position[0]);
+        Rectangle endRect = textArea.modelToView(position[1]);
+
+        Rectangle rect = new Rectangle(0, startRect.y, textArea.getWidth(),
+                startLine == endLine ? 1 : endRect.y + endRect.height - startRect.y);
+        textArea.setHighlightRect(rect);
+        return rect;
+    }
+
+    private void updateConflictCounter() {
+        int conflictCount = conflictRegionIndices.size();
+
+        if (conflictCount == 0) {
+            conflictCounterLabel.setText("No conflicts");
+        } else if (currentConflictIndex == -1) {
+            conflictCounterLabel.setText(String.format("%,d conflicts", conflictCount));
+        } else {
+            conflictCounterLabel.setText(String.format("Conflict %,d of %,d", currentConflictIndex + 1, conflictCount));
+        }
+
+        prevConflictButton.setEnabled(currentConflictIndex > 0);
+        nextConflictButton.setEnabled(currentConflictIndex < conflictCount - 1);
+    }
+
+    /**
+     * Tell user that files were too different from base file to find the shortest diffs,
+     * so some changes (and conflicts) may be excessive
+     */
+    public void markMergeNotMinimal() {
+        setTitle("Merge (not minimal: files are too different)");
+    }
+
+    private void saveMergedFile() {
+        if (!conflictRegionIndices.isEmpty()) {
+            int response = JOptionPane.showConfirmDialog(this,
+                    "Conflicts will be saved with conflict markers. Continue?", "Save merged file",
+                    JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+            if (response != JOptionPane.YES_OPTION) {
+                return;
+            }
+        }
+
+        JFileChooser fileChooser = new JFileChooser();
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        try {
+            TextFileUtils.writeLines(fileChooser.getSelectedFile().toPath(), mergeResult.getMergedLines(), lineFormat);
+        } catch (Throwable t) {
+            JOptionPane.showMessageDialog(this,
+                    String.format("%s: %s", t.getClass().getSimpleName(), t.getMessage()),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            t.printStackTrace();
+        }
+    }
+
+    private static TextAreaWithOutlineRect makeTextArea(String[] lines) {
+        TextAreaWithOutlineRect textArea = new TextAreaWithOutlineRect(CHANGE_HIGHLIGHT_COLOR);
+        textArea.setFont(new Font("Courier New", Font.PLAIN, 11));
+        textArea.setEditable(false);
+        textArea.setLineWrap(false);
+        textArea.setCursor(Cursor.getPredefinedCursor(Cursor.TEXT_CURSOR));
+
+        // line feed following the last line - empty regions at the end of file are positioned at it
+        textArea.setText(String.join("\n", lines) + "\n");
+
+        return textArea;
+    }
+}
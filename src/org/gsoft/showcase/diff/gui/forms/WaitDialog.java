@@ -7,6 +7,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class WaitDialog extends JDialog {
     private JPanel contentPane;
     private JButton buttonCancel;
+    private JLabel messageLabel;
 
     public WaitDialog(AtomicBoolean stopFlag) {
         setContentPane(contentPane);
@@ -23,4 +24,13 @@ public class WaitDialog extends JDialog {
 
         pack();
     }
+
+    /**
+     * Replace default message (dialog is resized to fit it)
+     */
+    public void setMessage(String message) {
+        messageLabel.setText(message);
+        setPreferredSize(null);
+        pack();
+    }
 }
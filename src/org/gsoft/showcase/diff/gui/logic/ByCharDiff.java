@@ -0,0 +1,210 @@
+package org.gsoft.showcase.diff.gui.logic;
+
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.generators.DiffItemType;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * By-char diff of MODIFIED item.
+ *
+ * By-char items are stored column by column (types, ends of chars and chars themselves) in arrays
+ * shared by all MODIFIED items created together (see {@link Columns}), each diff viewing its range
+ * of items, so that no object and no chars array is kept per by-char item.
+ *
+ * Immutable.
+ */
+public final class ByCharDiff {
+    /**
+     * Arrays by-char items of several diffs are appended to.
+     *
+     * Not thread-safe: diffs must be appended before they are passed to other threads.
+     */
+    public static final class Columns {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private int itemCount;
+        private DiffItemType[] types = new DiffItemType[INITIAL_CAPACITY];
+
+        /**
+         * Chars of item i are [charEnds[i - 1], charEnds[i]) of chars (items are stored one after another)
+         */
+        private int[] charEnds = new int[INITIAL_CAPACITY];
+
+        private int charCount;
+        private char[] chars = new char[INITIAL_CAPACITY];
+
+        /**
+         * Only set for EQUAL items with chars of string B differing from chars of string A
+         * (they are equal according to comparison options only)
+         */
+        private boolean[] hasCharsB = new boolean[INITIAL_CAPACITY];
+
+        /**
+         * Chars of item i in string B (if it has them) are [charEndsB[i - 1], charEndsB[i]) of charsB
+         */
+        private int[] charEndsB = new int[INITIAL_CAPACITY];
+
+        private int charCountB;
+        private char[] charsB = new char[0];
+
+        /**
+         * @param byCharItems items of comparison of strings encoded with
+         *                    {@link org.gsoft.showcase.diff.generators.DiffGeneratorUtils#encodeString(String)};
+         *                    neighbouring items of the same type are merged, empty ones are skipped
+         * @return diff viewing the appended items
+         */
+        public ByCharDiff append(List<DiffItem> byCharItems) {
+            int from = itemCount;
+
+            for (DiffItem byCharItem : byCharItems) {
+                boolean itemHasCharsB = (byCharItem.getType() == DiffItemType.EQUAL) && !byCharItem.isExactlyEqual();
+                if ((byCharItem.getLength() == 0) && (!itemHasCharsB || (byCharItem.getLengthB() == 0))) {
+                    continue;
+                }
+
+                if ((itemCount == from) || (types[itemCount - 1] != byCharItem.getType())) {
+                    if (itemCount == types.length) {
+                        types = Arrays.copyOf(types, 2 * itemCount);
+                        charEnds = Arrays.copyOf(charEnds, 2 * itemCount);
+                        hasCharsB = Arrays.copyOf(hasCharsB, 2 * itemCount);
+                        charEndsB = Arrays.copyOf(charEndsB, 2 * itemCount);
+                    }
+                    types[itemCount] = byCharItem.getType();
+                    charEnds[itemCount] = charCount;
+                    hasCharsB[itemCount] = false;
+                    charEndsB[itemCount] = charCountB;
+                    itemCount++;
+                }
+
+                int last = itemCount - 1;
+                if (itemHasCharsB && !hasCharsB[last]) {
+                    // chars merged into the item so far are the same in string B
+                    appendCharsB(chars, getCharStart(last), charEnds[last]);
+                    hasCharsB[last] = true;
+                }
+
+                int length = byCharItem.getLength();
+                if (charCount + length > chars.length) {
+                    chars = Arrays.copyOf(chars, Math.max(2 * chars.length, charCount + length));
+                }
+                for (int c = 0; c < length; c++) {
+                    chars[charCount++] = (char) byCharItem.charAt(c);
+                }
+                charEnds[last] = charCount;
+
+                if (hasCharsB[last]) {
+                    int lengthB = byCharItem.getLengthB();
+                    if (charCountB + lengthB > charsB.length) {
+                        charsB = Arrays.copyOf(charsB, Math.max(2 * charsB.length, charCountB + lengthB));
+                    }
+                    for (int c = 0; c < lengthB; c++) {
+                        charsB[charCountB++] = (char) byCharItem.charAtB(c);
+                    }
+                }
+                charEndsB[last] = charCountB;
+            }
+
+            return new ByCharDiff(this, from, itemCount);
+        }
+
+        private void appendCharsB(char[] source, int start, int end) {
+            if (charCountB + end - start > charsB.length) {
+                charsB = Arrays.copyOf(charsB, Math.max(2 * charsB.length, charCountB + end - start));
+            }
+            System.arraycopy(source, start, charsB, charCountB, end - start);
+            charCountB += end - start;
+        }
+
+        private int getCharStart(int index) {
+            return index == 0 ? 0 : charEnds[index - 1];
+        }
+
+        private int getCharStartB(int index) {
+            return index == 0 ? 0 : charEndsB[index - 1];
+        }
+    }
+
+    private final Columns columns;
+    private final int from, to;
+
+    private ByCharDiff(Columns columns, int from, int to) {
+        this.columns = columns;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @return number of by-char items
+     */
+    public int size() {
+        return to - from;
+    }
+
+    public DiffItemType getType(int index) {
+        return columns.types[checkIndex(index)];
+    }
+
+    /**
+     * @return number of chars of by-char item (in string A for EQUAL items)
+     */
+    public int getLength(int index) {
+        int i = checkIndex(index);
+        return columns.charEnds[i] - columns.getCharStart(i);
+    }
+
+    /**
+     * @return chars of by-char item (in string A for EQUAL items)
+     */
+    public String getText(int index) {
+        int i = checkIndex(index);
+        int start = columns.getCharStart(i);
+        return new String(columns.chars, start, columns.charEnds[i] - start);
+    }
+
+    /**
+     * @return number of chars of EQUAL by-char item in string B (the same as {@link #getLength(int)} for other items)
+     */
+    public int getLengthB(int index) {
+        int i = checkIndex(index);
+        if (!columns.hasCharsB[i]) {
+            return getLength(index);
+        }
+        return columns.charEndsB[i] - columns.getCharStartB(i);
+    }
+
+    /**
+     * @return chars of EQUAL by-char item in string B (the same as {@link #getText(int)} for other items)
+     */
+    public String getTextB(int index) {
+        int i = checkIndex(index);
+        if (!columns.hasCharsB[i]) {
+            return getText(index);
+        }
+        int start = columns.getCharStartB(i);
+        return new String(columns.charsB, start, columns.charEndsB[i] - start);
+    }
+
+    /**
+     * @return number of line feeds among chars of by-char item (lines of MODIFIED item are joined with them);
+     *         line feeds are never ignored, so EQUAL items have the same number of them in both strings
+     */
+    public int countLineFeeds(int index) {
+        int i = checkIndex(index);
+        int count = 0;
+        for (int c = columns.getCharStart(i); c < columns.charEnds[i]; c++) {
+            if (columns.chars[c] == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int checkIndex(int index) {
+        if ((index < 0) || (index >= to - from)) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + (to - from));
+        }
+        return from + index;
+    }
+}
@@ -1,10 +1,8 @@
 package org.gsoft.showcase.diff.gui.logic;
 
 import org.gsoft.showcase.diff.generators.DiffItem;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import org.gsoft.showcase.diff.generators.DiffItemType;
+import org.gsoft.showcase.diff.generators.TextLines;
 
 /**
  * Logically extends {@link DiffItem}.
@@ -17,25 +15,135 @@ public final class ByLineDiffItem {
     /**
      * Not set for ExtendedDiffItemType.MODIFIED
      */
-    private final String[] strings;
+    private final TextLines strings;
+
+    /**
+     * Only set for ExtendedDiffItemType.EQUAL with lines of file B differing from lines of file A
+     * (they are equal according to comparison options only); number of lines may differ too if blank
+     * lines are ignored
+     */
+    private final TextLines stringsB;
 
     /**
      * Only set for ExtendedDiffItemType.MODIFIED
      */
-    private final List<DiffItem> byCharDiffItems;
+    private final ByCharDiff byCharDiff;
+
+    /**
+     * Only set for ExtendedDiffItemType.MOVED_TO and ExtendedDiffItemType.COPIED:
+     * MOVED_FROM item lines were taken from
+     */
+    private final ByLineDiffItem moveSource;
+
+    private final int lineCountA;
+    private final int lineCountB;
+
+    public ByLineDiffItem(ExtendedDiffItemType type, String[] strings) {
+        this(type, strings, null);
+    }
 
-    public ByLineDiffItem(ExtendedDiffItemType type, String[] strings,
-                          List<DiffItem> byCharDiffItems) {
+    public ByLineDiffItem(ExtendedDiffItemType type, String[] strings, String[] stringsB) {
+        this(type, toLines(strings), toLines(stringsB), null, null);
+    }
+
+    /**
+     * @param byCharDiff by-char diff of lines of MODIFIED item joined with line feeds
+     */
+    public ByLineDiffItem(ExtendedDiffItemType type, ByCharDiff byCharDiff) {
+        this(type, null, null, byCharDiff, null);
+    }
+
+    /**
+     * @param moveSource MOVED_FROM item lines of MOVED_TO or COPIED item were taken from
+     */
+    public ByLineDiffItem(ExtendedDiffItemType type, ByLineDiffItem moveSource, String[] strings) {
+        this(type, toLines(strings), null, null, moveSource);
+    }
+
+    /**
+     * The same as {@link #ByLineDiffItem(ExtendedDiffItemType, String[])} for items other
+     * than MODIFIED, lines are given as a view (e.g. of original lines of file)
+     */
+    public ByLineDiffItem(ExtendedDiffItemType type, TextLines lines) {
+        this(type, lines, null, null, null);
+    }
+
+    /**
+     * @param linesB lines of EQUAL item in file B (null if they are the same as in file A)
+     */
+    public ByLineDiffItem(ExtendedDiffItemType type, TextLines lines, TextLines linesB) {
+        this(type, lines, linesB, null, null);
+    }
+
+    /**
+     * @param moveSource MOVED_FROM item lines of MOVED_TO or COPIED item were taken from
+     */
+    public ByLineDiffItem(ExtendedDiffItemType type, ByLineDiffItem moveSource, TextLines lines) {
+        this(type, lines, null, null, moveSource);
+    }
+
+    private ByLineDiffItem(ExtendedDiffItemType type, TextLines strings, TextLines stringsB,
+                           ByCharDiff byCharDiff, ByLineDiffItem moveSource) {
         if ((strings != null) && (type == ExtendedDiffItemType.MODIFIED)) {
             throw new IllegalArgumentException("strings parameter is forbidden for MODIFIED items");
         }
-        if ((byCharDiffItems != null) && (type != ExtendedDiffItemType.MODIFIED)) {
-            throw new IllegalArgumentException("byCharDiffItems parameter is only allowed for MODIFIED items");
+        if ((stringsB != null) && (type != ExtendedDiffItemType.EQUAL)) {
+            throw new IllegalArgumentException("stringsB parameter is only allowed for EQUAL items");
+        }
+        if ((byCharDiff != null) != (type == ExtendedDiffItemType.MODIFIED)) {
+            throw new IllegalArgumentException("byCharDiff parameter is required for MODIFIED items only");
+        }
+        if ((moveSource != null) != ((type == ExtendedDiffItemType.MOVED_TO) || (type == ExtendedDiffItemType.COPIED))) {
+            throw new IllegalArgumentException("moveSource parameter is required for MOVED_TO and COPIED items only");
+        }
+        if ((moveSource != null) && (moveSource.getType() != ExtendedDiffItemType.MOVED_FROM)) {
+            throw new IllegalArgumentException("moveSource must be MOVED_FROM item");
         }
 
         this.type = type;
         this.strings = strings;
-        this.byCharDiffItems = byCharDiffItems != null ? new ArrayList<>(byCharDiffItems) : null;
+        this.stringsB = stringsB;
+        this.byCharDiff = byCharDiff;
+        this.moveSource = moveSource;
+
+        switch (type) {
+            case EQUAL:
+                lineCountA = strings.size();
+                lineCountB = stringsB != null ? stringsB.size() : strings.size();
+                break;
+
+            case DELETE:
+            case MOVED_FROM:
+                lineCountA = strings.size();
+                lineCountB = 0;
+                break;
+
+            case INSERT:
+            case MOVED_TO:
+            case COPIED:
+                lineCountA = 0;
+                lineCountB = strings.size();
+                break;
+
+            case MODIFIED:
+                // by char diff is produced for lines joined with line feeds
+                int lineFeedsA = 0, lineFeedsB = 0;
+                for (int i = 0; i < byCharDiff.size(); i++) {
+                    int lineFeeds = byCharDiff.countLineFeeds(i);
+                    if (byCharDiff.getType(i) != DiffItemType.INSERT) {
+                        lineFeedsA += lineFeeds;
+                    }
+                    if (byCharDiff.getType(i) != DiffItemType.DELETE) {
+                        lineFeedsB += lineFeeds;
+                    }
+                }
+                lineCountA = lineFeedsA + 1;
+                lineCountB = lineFeedsB + 1;
+                break;
+
+            default:
+                throw new RuntimeException("unexpected diff item type: " + type);
+        }
     }
 
     public ExtendedDiffItemType getType() {
@@ -46,13 +154,71 @@ public final class ByLineDiffItem {
         if (strings == null) {
             return null;
         }
-        return strings.clone();
+        return strings.toArray();
+    }
+
+    /**
+     * @return lines of EQUAL item in file B
+     */
+    public String[] getStringsB() {
+        TextLines linesB = getLinesB();
+        return linesB != null ? linesB.toArray() : null;
+    }
+
+    /**
+     * @return lines of item without copying them (null for MODIFIED item)
+     */
+    public TextLines getLines() {
+        return strings;
     }
 
-    public List<DiffItem> getByCharDiffItems() {
-        if (byCharDiffItems == null) {
+    /**
+     * @return lines of EQUAL item in file B without copying them
+     */
+    public TextLines getLinesB() {
+        if (type != ExtendedDiffItemType.EQUAL) {
             return null;
         }
-        return Collections.unmodifiableList(byCharDiffItems);
+        return stringsB != null ? stringsB : strings;
+    }
+
+    /**
+     * @return true if EQUAL item has the same lines in both files
+     *         (otherwise they are equal according to comparison options only)
+     */
+    public boolean isExactlyEqual() {
+        return (type == ExtendedDiffItemType.EQUAL) && (stringsB == null);
+    }
+
+    /**
+     * @return by-char diff of MODIFIED item (null for other items)
+     */
+    public ByCharDiff getByCharDiff() {
+        return byCharDiff;
+    }
+
+    /**
+     * @return MOVED_FROM item lines of MOVED_TO or COPIED item were taken from
+     */
+    public ByLineDiffItem getMoveSource() {
+        return moveSource;
+    }
+
+    /**
+     * @return number of lines item occupies in file A
+     */
+    public int getLineCountA() {
+        return lineCountA;
+    }
+
+    /**
+     * @return number of lines item occupies in file B
+     */
+    public int getLineCountB() {
+        return lineCountB;
+    }
+
+    private static TextLines toLines(String[] strings) {
+        return strings != null ? new TextLines(strings) : null;
     }
 }
@@ -0,0 +1,335 @@
+package org.gsoft.showcase.diff.gui.logic;
+
+import org.gsoft.showcase.diff.generators.DiffGeneratorUtils.LinesEncoding;
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.generators.LineComparisonOptions;
+import org.gsoft.showcase.diff.generators.StopFlags;
+import org.gsoft.showcase.diff.generators.TextLines;
+import org.gsoft.showcase.diff.generators.impl.MyersDiffGenerator;
+import org.gsoft.showcase.diff.generators.impl.TokenDiffGenerator;
+import org.gsoft.showcase.diff.gui.logic.MovedBlocksDetector.MovedBlock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Converts by-line diff produced by {@link org.gsoft.showcase.diff.generators.DiffGenerator}
+ * into {@link ByLineDiffItem}s ready for display.
+ *
+ * Lines are taken from original lines of files (not decoded), so that EQUAL items keep
+ * lines of both files if they are equal only according to comparison options. Items are views
+ * of original lines (see {@link TextLines}), lines are not copied.
+ *
+ * Blocks of lines moved to other place of file are detected with {@link MovedBlocksDetector}.
+ */
+public final class ByLineDiffItemsConverter {
+    private ByLineDiffItemsConverter() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static List<ByLineDiffItem> convert(List<DiffItem> plainItems, LinesEncoding linesEncoding) {
+        return convert(plainItems, linesEncoding, new AtomicBoolean());
+    }
+
+    /**
+     * @return converted items or null if stopped
+     */
+    public static List<ByLineDiffItem> convert(List<DiffItem> plainItems, LinesEncoding linesEncoding,
+                                               AtomicBoolean stopFlag) {
+        LineComparisonOptions options = linesEncoding.getOptions();
+
+        //
+        // blocks moved to other place of file are shown as moved instead of deleted and inserted,
+        // they are never paired with other changed lines
+        //
+        TreeMap<Integer, MovedBlock> movedBlocks = new TreeMap<>(); // by lines of file B
+        TreeMap<Integer, ByLineDiffItem> movedFromItems = new TreeMap<>(); // by lines of file A
+        for (MovedBlock movedBlock : MovedBlocksDetector.detect(plainItems, linesEncoding)) {
+            movedBlocks.put(movedBlock.getStartB(), movedBlock);
+            if (!movedBlock.isCopy()) {
+                movedFromItems.put(movedBlock.getStartA(), new ByLineDiffItem(ExtendedDiffItemType.MOVED_FROM,
+                        linesEncoding.getTextLinesA(movedBlock.getStartA(),
+                                movedBlock.getStartA() + movedBlock.getLength())));
+            }
+        }
+
+        List<ByLineDiffItem> result = new ArrayList<>(plainItems.size()); // at least the same size
+        List<ByLineDiffItem> changeItems = new ArrayList<>(); // changes between EQUAL items
+
+        int lineA = 0, lineB = 0;
+
+        StopFlags.AmortizedCheck stopCheck = new StopFlags.AmortizedCheck(stopFlag);
+
+        for (DiffItem plainItem : plainItems) {
+            int length = plainItem.getLength();
+
+            // lines are copied, changed ones are also compared by chars (checked inside by the generator)
+            if (stopCheck.isStopped(1 + length)) {
+                return null;
+            }
+
+            switch (plainItem.getType()) {
+                case EQUAL:
+                    addChangeItems(result, changeItems, options, stopFlag);
+                    changeItems.clear();
+
+                    TextLines lines = linesEncoding.getTextLinesA(lineA, lineA + length);
+                    ByLineDiffItem equalItem = options.isExact() ?
+                            new ByLineDiffItem(ExtendedDiffItemType.EQUAL, lines)
+                            : IncrementalDiffEngine.makeEqualItem(lines,
+                                    linesEncoding.getTextLinesB(lineB, lineB + length));
+                    IncrementalDiffEngine.addMergingEqualItems(result, equalItem);
+                    lineA += length;
+                    lineB += length;
+                    break;
+
+                case INSERT:
+                    splitInsertedLines(linesEncoding, lineB, lineB + length,
+                            movedBlocks, movedFromItems, changeItems);
+                    lineB += length;
+                    break;
+
+                case DELETE:
+                    splitDeletedLines(linesEncoding, lineA, lineA + length,
+                            movedFromItems, changeItems);
+                    lineA += length;
+                    break;
+
+                default:
+                    throw new RuntimeException("unexpected diff item type: " + plainItem.getType());
+            }
+        }
+
+        addChangeItems(result, changeItems, options, stopFlag);
+
+        if (stopFlag.get()) {
+            return null;
+        }
+
+        if (options.isIgnoreBlankLines()) {
+            absorbBlankLinesFollowedByEqualItems(result, options);
+        }
+
+        return result;
+    }
+
+    /**
+     * Split inserted lines into INSERT items and MOVED_TO or COPIED items for moved blocks.
+     */
+    private static void splitInsertedLines(LinesEncoding linesEncoding, int start, int end,
+                                           TreeMap<Integer, MovedBlock> movedBlocks,
+                                           TreeMap<Integer, ByLineDiffItem> movedFromItems,
+                                           List<ByLineDiffItem> changeItems) {
+        int line = start;
+        while (line < end) {
+            Map.Entry<Integer, MovedBlock> entry = movedBlocks.ceilingEntry(line);
+            int blockStart = (entry != null) && (entry.getKey() < end) ? entry.getKey() : end;
+
+            if (blockStart > line) {
+                changeItems.add(new ByLineDiffItem(ExtendedDiffItemType.INSERT,
+                        linesEncoding.getTextLinesB(line, blockStart)));
+            }
+            if (blockStart == end) {
+                break;
+            }
+
+            // moved blocks never cross inserted runs
+            MovedBlock movedBlock = entry.getValue();
+            ByLineDiffItem moveSource = movedFromItems.floorEntry(movedBlock.getStartA()).getValue();
+            line = blockStart + movedBlock.getLength();
+            changeItems.add(new ByLineDiffItem(
+                    movedBlock.isCopy() ? ExtendedDiffItemType.COPIED : ExtendedDiffItemType.MOVED_TO,
+                    moveSource, linesEncoding.getTextLinesB(blockStart, line)));
+        }
+    }
+
+    /**
+     * Split deleted lines into DELETE items and MOVED_FROM items for moved blocks.
+     */
+    private static void splitDeletedLines(LinesEncoding linesEncoding, int start, int end,
+                                          TreeMap<Integer, ByLineDiffItem> movedFromItems,
+                                          List<ByLineDiffItem> changeItems) {
+        int line = start;
+        while (line < end) {
+            Map.Entry<Integer, ByLineDiffItem> entry = movedFromItems.ceilingEntry(line);
+            int blockStart = (entry != null) && (entry.getKey() < end) ? entry.getKey() : end;
+
+            if (blockStart > line) {
+                changeItems.add(new ByLineDiffItem(ExtendedDiffItemType.DELETE,
+                        linesEncoding.getTextLinesA(line, blockStart)));
+            }
+            if (blockStart == end) {
+                break;
+            }
+
+            changeItems.add(entry.getValue());
+            line = blockStart + entry.getValue().getLineCountA();
+        }
+    }
+
+    /**
+     * Add changes found between two EQUAL items, applying heuristic to improve diff display:
+     * consecutive INSERT-DELETE or DELETE-INSERT are converted into new diff element - MODIFIED.
+     * If some of lines were moved, only the largest remaining DELETE and INSERT items are paired.
+     */
+    private static void addChangeItems(List<ByLineDiffItem> result, List<ByLineDiffItem> changeItems,
+                                       LineComparisonOptions options, AtomicBoolean stopFlag) {
+        ByLineDiffItem largestDelete = null, largestInsert = null;
+        boolean moved = false;
+        for (ByLineDiffItem item : changeItems) {
+            switch (item.getType()) {
+                case DELETE:
+                    if ((largestDelete == null) || (item.getLineCountA() > largestDelete.getLineCountA())) {
+                        largestDelete = item;
+                    }
+                    break;
+
+                case INSERT:
+                    if ((largestInsert == null) || (item.getLineCountB() > largestInsert.getLineCountB())) {
+                        largestInsert = item;
+                    }
+                    break;
+
+                default:
+                    moved = true;
+                    break;
+            }
+        }
+
+        if (!moved) {
+            ByLineDiffItem pendingInsertOrDelete = null;
+            for (ByLineDiffItem item : changeItems) {
+                if (pendingInsertOrDelete != null) {
+                    for (ByLineDiffItem modifiedItem : createModifiedItems(pendingInsertOrDelete, item, options, stopFlag)) {
+                        addChangeItem(result, modifiedItem, options);
+                    }
+                    pendingInsertOrDelete = null;
+                } else {
+                    pendingInsertOrDelete = item;
+                }
+            }
+            if (pendingInsertOrDelete != null) {
+                addChangeItem(result, pendingInsertOrDelete, options);
+            }
+            return;
+        }
+
+        //
+        // order of changes in each of files is kept: changes of file A preceding paired DELETE item
+        // and changes of file B preceding paired INSERT item go first
+        //
+        List<ByLineDiffItem> changesA = new ArrayList<>();
+        List<ByLineDiffItem> changesB = new ArrayList<>();
+        for (ByLineDiffItem item : changeItems) {
+            (item.getLineCountA() > 0 ? changesA : changesB).add(item);
+        }
+
+        if ((largestDelete == null) || (largestInsert == null)) {
+            for (ByLineDiffItem item : changesA) {
+                addChangeItem(result, item, options);
+            }
+            for (ByLineDiffItem item : changesB) {
+                addChangeItem(result, item, options);
+            }
+            return;
+        }
+
+        int pairedIndexA = changesA.indexOf(largestDelete);
+        int pairedIndexB = changesB.indexOf(largestInsert);
+
+        for (ByLineDiffItem item : changesA.subList(0, pairedIndexA)) {
+            addChangeItem(result, item, options);
+        }
+        for (ByLineDiffItem item : changesB.subList(0, pairedIndexB)) {
+            addChangeItem(result, item, options);
+        }
+        for (ByLineDiffItem item : createModifiedItems(largestDelete, largestInsert, options, stopFlag)) {
+            addChangeItem(result, item, options);
+        }
+        for (ByLineDiffItem item : changesA.subList(pairedIndexA + 1, changesA.size())) {
+            addChangeItem(result, item, options);
+        }
+        for (ByLineDiffItem item : changesB.subList(pairedIndexB + 1, changesB.size())) {
+            addChangeItem(result, item, options);
+        }
+    }
+
+    /**
+     * Add change item; if blank lines are ignored and the item only inserts or deletes them,
+     * it is merged with preceding EQUAL item.
+     */
+    private static void addChangeItem(List<ByLineDiffItem> result, ByLineDiffItem item,
+                                      LineComparisonOptions options) {
+        int lastIndex = result.size() - 1;
+        if (options.isIgnoreBlankLines() && (lastIndex >= 0) &&
+                (result.get(lastIndex).getType() == ExtendedDiffItemType.EQUAL) && isBlankLinesItem(item, options)) {
+            result.set(lastIndex, mergeBlankLines(result.get(lastIndex), item, false));
+        } else {
+            result.add(item);
+        }
+    }
+
+    /**
+     * Merge items only inserting or deleting blank lines into following EQUAL items
+     * (the ones at the start of file or following other changes).
+     */
+    private static void absorbBlankLinesFollowedByEqualItems(List<ByLineDiffItem> items,
+                                                             LineComparisonOptions options) {
+        for (int i = items.size() - 2; i >= 0; i--) {
+            if ((items.get(i + 1).getType() == ExtendedDiffItemType.EQUAL) && isBlankLinesItem(items.get(i), options)) {
+                items.set(i, mergeBlankLines(items.get(i + 1), items.get(i), true));
+                items.remove(i + 1);
+            }
+        }
+    }
+
+    private static boolean isBlankLinesItem(ByLineDiffItem item, LineComparisonOptions options) {
+        if ((item.getType() != ExtendedDiffItemType.INSERT) && (item.getType() != ExtendedDiffItemType.DELETE)) {
+            return false;
+        }
+        TextLines lines = item.getLines();
+        for (int i = 0; i < lines.size(); i++) {
+            if (!options.isBlank(lines.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByLineDiffItem mergeBlankLines(ByLineDiffItem equalItem, ByLineDiffItem blankLinesItem,
+                                                  boolean prepend) {
+        TextLines lines = equalItem.getLines();
+        TextLines linesB = equalItem.getLinesB();
+
+        TextLines blankLines = blankLinesItem.getLines();
+        if (blankLinesItem.getType() == ExtendedDiffItemType.DELETE) {
+            lines = prepend ? blankLines.concat(lines) : lines.concat(blankLines);
+        } else {
+            linesB = prepend ? blankLines.concat(linesB) : linesB.concat(blankLines);
+        }
+
+        return IncrementalDiffEngine.makeEqualItem(lines, linesB);
+    }
+
+    private static List<ByLineDiffItem> createModifiedItems(ByLineDiffItem firstItem, ByLineDiffItem secondItem,
+                                                            LineComparisonOptions options, AtomicBoolean stopFlag) {
+        ByLineDiffItem deleteItem, insertItem;
+        if ((firstItem.getType() == ExtendedDiffItemType.DELETE) && (secondItem.getType() == ExtendedDiffItemType.INSERT)) {
+            deleteItem = firstItem;
+            insertItem = secondItem;
+        } else if ((firstItem.getType() == ExtendedDiffItemType.INSERT) && (secondItem.getType() == ExtendedDiffItemType.DELETE)) {
+            deleteItem = secondItem;
+            insertItem = firstItem;
+        } else {
+            throw new IllegalArgumentException("items must only be inserts or deletes!");
+        }
+
+        // only similar lines are compared by char (and become MODIFIED), others are left as is;
+        // comparing by tokens first: it is faster and produces less noisy result than comparing all chars
+        return ModifiedLinesPairing.pairLines(deleteItem.getLines(), insertItem.getLines(),
+                new TokenDiffGenerator(new MyersDiffGenerator(stopFlag), options), options);
+    }
+}
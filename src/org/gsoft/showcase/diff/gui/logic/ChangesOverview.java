@@ -0,0 +1,94 @@
+package org.gsoft.showcase.diff.gui.logic;
+
+import java.util.Arrays;
+
+/**
+ * Compact index of changes (non-EQUAL diff items) of one of the files for drawing overview of the whole file:
+ * line ranges of changes are downsampled into fixed number of buckets (e.g. one bucket per pixel),
+ * so that drawing does not depend on the number of changes.
+ */
+public final class ChangesOverview {
+    private final int lineCount;
+
+    private final int[] itemIndices;
+    private final int[] startLines;
+    private final int[] endLines;
+    private final ExtendedDiffItemType[] types;
+
+    private int bucketCount = -1;
+    private int[] bucketItemIndices;
+    private ExtendedDiffItemType[] bucketTypes;
+
+    /**
+     * @param lineCount number of lines in file
+     * @param itemIndices indices of changed items (ascending)
+     * @param startLines first line of every change
+     * @param endLines line following the last line of every change (equal to the start line if
+     *                 change does not occupy any lines in this file, e.g. INSERT in file A)
+     * @param types types of changes
+     */
+    public ChangesOverview(int lineCount, int[] itemIndices, int[] startLines, int[] endLines,
+                           ExtendedDiffItemType[] types) {
+        if ((itemIndices.length != startLines.length) || (itemIndices.length != endLines.length) ||
+                (itemIndices.length != types.length)) {
+            throw new IllegalArgumentException("arrays lengths differ");
+        }
+
+        this.lineCount = Math.max(lineCount, 1);
+        this.itemIndices = itemIndices;
+        this.startLines = startLines;
+        this.endLines = endLines;
+        this.types = types;
+    }
+
+    /**
+     * @return index of diff item of the first change falling into the bucket or -1 if there is none
+     */
+    public int getBucketItemIndex(int bucket, int bucketCount) {
+        ensureBucketsComputed(bucketCount);
+        return bucketItemIndices[bucket];
+    }
+
+    /**
+     * @return type of changes falling into the bucket (MODIFIED if types differ) or null if there is none
+     */
+    public ExtendedDiffItemType getBucketType(int bucket, int bucketCount) {
+        ensureBucketsComputed(bucketCount);
+        return bucketTypes[bucket];
+    }
+
+    private void ensureBucketsComputed(int bucketCount) {
+        if (this.bucketCount == bucketCount) {
+            return;
+        }
+
+        int[] bucketItemIndices = new int[bucketCount];
+        ExtendedDiffItemType[] bucketTypes = new ExtendedDiffItemType[bucketCount];
+
+        Arrays.fill(bucketItemIndices, -1);
+
+        // changes do not overlap, so it takes O(number of changes + number of buckets)
+        for (int i = 0; i < itemIndices.length; i++) {
+            int firstBucket = getBucket(startLines[i], bucketCount);
+            int lastBucket = Math.max(firstBucket, getBucket(endLines[i] - 1, bucketCount));
+
+            for (int bucket = firstBucket; bucket <= lastBucket; bucket++) {
+                if (bucketTypes[bucket] == null) {
+                    bucketItemIndices[bucket] = itemIndices[i];
+                    bucketTypes[bucket] = types[i];
+                } else if (bucketTypes[bucket] != types[i]) {
+                    bucketTypes[bucket] = ExtendedDiffItemType.MODIFIED;
+                }
+            }
+        }
+
+        this.bucketItemIndices = bucketItemIndices;
+        this.bucketTypes = bucketTypes;
+        this.bucketCount = bucketCount;
+    }
+
+    private int getBucket(int line, int bucketCount) {
+        long bucket = (long) Math.max(line, 0) * bucketCount / lineCount;
+        return (int) Math.min(bucket, bucketCount - 1);
+    }
+}
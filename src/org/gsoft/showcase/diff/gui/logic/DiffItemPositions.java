@@ -0,0 +1,215 @@
+package org.gsoft.showcase.diff.gui.logic;
+
+import java.util.Arrays;
+
+/**
+ * Positions of all diff items shown in a pair of panes, stored column by column in parallel arrays
+ * (instead of an object per item), so that large diffs take little memory and scanning positions
+ * (e.g. while scrolling) touches only the arrays needed.
+ *
+ * Positions are offsets of chars in text areas, or Y coordinates of items relative to viewports
+ * when they are passed to {@link org.gsoft.showcase.diff.gui.components.DiffMatchingImagePanel}.
+ *
+ * Not thread-safe.
+ */
+public final class DiffItemPositions {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int size;
+
+    private int[] startsA = new int[INITIAL_CAPACITY];
+    private int[] startsB = new int[INITIAL_CAPACITY];
+    private int[] endsA = new int[INITIAL_CAPACITY];
+    private int[] endsB = new int[INITIAL_CAPACITY];
+    private ExtendedDiffItemType[] types = new ExtendedDiffItemType[INITIAL_CAPACITY];
+
+    //
+    // position of MOVED_FROM item in file A for MOVED_TO and COPIED items (-1 if unknown)
+    //
+    private int[] moveSourceStartsA = new int[INITIAL_CAPACITY];
+    private int[] moveSourceEndsA = new int[INITIAL_CAPACITY];
+
+    public DiffItemPositions() {
+    }
+
+    public DiffItemPositions(DiffItemPositions positions) {
+        setAll(positions);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getStartA(int index) {
+        return startsA[checkIndex(index)];
+    }
+
+    public int getStartB(int index) {
+        return startsB[checkIndex(index)];
+    }
+
+    public int getEndA(int index) {
+        return endsA[checkIndex(index)];
+    }
+
+    public int getEndB(int index) {
+        return endsB[checkIndex(index)];
+    }
+
+    public ExtendedDiffItemType getType(int index) {
+        return types[checkIndex(index)];
+    }
+
+    public boolean hasMoveSource(int index) {
+        return moveSourceStartsA[checkIndex(index)] != -1;
+    }
+
+    public int getMoveSourceStartA(int index) {
+        return moveSourceStartsA[checkIndex(index)];
+    }
+
+    public int getMoveSourceEndA(int index) {
+        return moveSourceEndsA[checkIndex(index)];
+    }
+
+    public void add(int startA, int startB, int endA, int endB, ExtendedDiffItemType type) {
+        add(startA, startB, endA, endB, type, -1, -1);
+    }
+
+    public void add(int startA, int startB, int endA, int endB, ExtendedDiffItemType type,
+                    int moveSourceStartA, int moveSourceEndA) {
+        ensureCapacity(size + 1);
+
+        startsA[size] = startA;
+        startsB[size] = startB;
+        endsA[size] = endA;
+        endsB[size] = endB;
+        types[size] = type;
+        moveSourceStartsA[size] = moveSourceStartA;
+        moveSourceEndsA[size] = moveSourceEndA;
+        size++;
+    }
+
+    /**
+     * @param moveSourceStartA -1 if source of moved lines is unknown
+     */
+    public void setMoveSource(int index, int moveSourceStartA, int moveSourceEndA) {
+        moveSourceStartsA[checkIndex(index)] = moveSourceStartA;
+        moveSourceEndsA[index] = moveSourceEndA;
+    }
+
+    /**
+     * Move items [fromIndex, size) by the specified number of chars (e.g. following edited item);
+     * positions of move sources are not changed
+     */
+    public void shift(int fromIndex, int charDeltaA, int charDeltaB) {
+        for (int i = fromIndex; i < size; i++) {
+            startsA[i] += charDeltaA;
+            startsB[i] += charDeltaB;
+            endsA[i] += charDeltaA;
+            endsB[i] += charDeltaB;
+        }
+    }
+
+    /**
+     * Replace items [fromIndex, toIndex) with all items of patch
+     */
+    public void replace(int fromIndex, int toIndex, DiffItemPositions patch) {
+        if ((fromIndex < 0) || (fromIndex > toIndex) || (toIndex > size)) {
+            throw new IndexOutOfBoundsException("range [" + fromIndex + ", " + toIndex + "), size " + size);
+        }
+
+        int newSize = size - (toIndex - fromIndex) + patch.size;
+        ensureCapacity(newSize);
+
+        int tailLength = size - toIndex;
+        int newToIndex = fromIndex + patch.size;
+
+        System.arraycopy(startsA, toIndex, startsA, newToIndex, tailLength);
+        System.arraycopy(startsB, toIndex, startsB, newToIndex, tailLength);
+        System.arraycopy(endsA, toIndex, endsA, newToIndex, tailLength);
+        System.arraycopy(endsB, toIndex, endsB, newToIndex, tailLength);
+        System.arraycopy(types, toIndex, types, newToIndex, tailLength);
+        System.arraycopy(moveSourceStartsA, toIndex, moveSourceStartsA, newToIndex, tailLength);
+        System.arraycopy(moveSourceEndsA, toIndex, moveSourceEndsA, newToIndex, tailLength);
+
+        System.arraycopy(patch.startsA, 0, startsA, fromIndex, patch.size);
+        System.arraycopy(patch.startsB, 0, startsB, fromIndex, patch.size);
+        System.arraycopy(patch.endsA, 0, endsA, fromIndex, patch.size);
+        System.arraycopy(patch.endsB, 0, endsB, fromIndex, patch.size);
+        System.arraycopy(patch.types, 0, types, fromIndex, patch.size);
+        System.arraycopy(patch.moveSourceStartsA, 0, moveSourceStartsA, fromIndex, patch.size);
+        System.arraycopy(patch.moveSourceEndsA, 0, moveSourceEndsA, fromIndex, patch.size);
+
+        // no references to types left behind
+        Arrays.fill(types, newSize, Math.max(size, newSize), null);
+
+        size = newSize;
+    }
+
+    public void setAll(DiffItemPositions positions) {
+        replace(0, size, positions);
+    }
+
+    public void clear() {
+        Arrays.fill(types, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * @return number of items other than EQUAL
+     */
+    public int getChangeCount() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (types[i] != ExtendedDiffItemType.EQUAL) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return index of the last item starting at or before the offset in file A or B
+     * (-1 if there is no such item); items must be sorted, as they are in text areas
+     */
+    public int findLastStartingAtOrBefore(int offset, boolean inA) {
+        int[] starts = inA ? startsA : startsB;
+
+        int lo = 0;
+        int hi = size - 1;
+        int result = -1;
+        while (lo <= hi) {
+            int mid = lo + (hi - lo) / 2;
+            if (starts[mid] <= offset) {
+                result = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    private int checkIndex(int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return index;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity <= startsA.length) {
+            return;
+        }
+
+        int capacity = Math.max(minCapacity, startsA.length * 2);
+        startsA = Arrays.copyOf(startsA, capacity);
+        startsB = Arrays.copyOf(startsB, capacity);
+        endsA = Arrays.copyOf(endsA, capacity);
+        endsB = Arrays.copyOf(endsB, capacity);
+        types = Arrays.copyOf(types, capacity);
+        moveSourceStartsA = Arrays.copyOf(moveSourceStartsA, capacity);
+        moveSourceEndsA = Arrays.copyOf(moveSourceEndsA, capacity);
+    }
+}
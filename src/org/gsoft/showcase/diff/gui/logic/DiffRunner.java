@@ -0,0 +1,322 @@
+package org.gsoft.showcase.diff.gui.logic;
+
+import org.gsoft.showcase.diff.cache.DiffResultCache;
+import org.gsoft.showcase.diff.generators.DiffGeneratorUtils;
+import org.gsoft.showcase.diff.generators.DiffGeneratorUtils.LinesEncoding;
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.generators.LineComparisonOptions;
+import org.gsoft.showcase.diff.generators.impl.BidirectionalMyersDiffGenerator;
+import org.gsoft.showcase.diff.generators.impl.MyersDiffGenerator;
+import org.gsoft.showcase.diff.generators.impl.QGramDiffGenerator;
+import org.gsoft.showcase.diff.generators.impl.SegmentedDiffGenerator;
+import org.gsoft.showcase.diff.io.EncodedFilesCache;
+import org.gsoft.showcase.diff.io.EncodedFilesCache.EncodedFile;
+import org.gsoft.showcase.diff.io.FileComparisonUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Computes by-line diff of two files: compares raw contents, reads and encodes files,
+ * looks for cached result and runs diff generator if there is none.
+ *
+ * File A can be prepared once with {@link #prepareReferenceFile(Path, LineComparisonOptions, AtomicBoolean)}
+ * and then compared to many other files. Thread-safe.
+ */
+public final class DiffRunner {
+    private static final String DIFF_ALGORITHM = "myers-bidirectional";
+    private static final String SEGMENTED_DIFF_ALGORITHM = "myers-segmented";
+    private static final String APPROXIMATE_DIFF_ALGORITHM = "q-gram";
+    private static final String DIFF_OPTIONS = "by-line";
+
+    /**
+     * Limits time spent on files which have almost nothing in common (and memory of comparing
+     * each segment of large files, about 64 MB);
+     * see {@link MyersDiffGenerator#MyersDiffGenerator(AtomicBoolean, int)} and
+     * {@link BidirectionalMyersDiffGenerator#BidirectionalMyersDiffGenerator(AtomicBoolean, int)}
+     */
+    private static final int MAX_EDIT_COST = 4000;
+
+    /**
+     * Keeps approximate comparison near-linear: strings between matching runs are compared
+     * in O(length * APPROXIMATE_MAX_EDIT_COST) time
+     */
+    private static final int APPROXIMATE_MAX_EDIT_COST = 256;
+
+    /**
+     * Files with at least this number of lines (in total) are compared by segments in parallel
+     * with {@link SegmentedDiffGenerator}, so that the beginning of diff can be shown before it is complete
+     */
+    private static final int SEGMENTED_DIFF_MIN_LINES = 20000;
+
+    /**
+     * Receives diff while it is being computed
+     */
+    public interface ProgressListener {
+        /**
+         * Called when files are read and encoded, before any items are computed
+         * (not called for byte-by-byte equal files)
+         */
+        void onStarted(LinesEncoding linesEncoding);
+
+        /**
+         * Called with consecutive parts of by-line diff, in order
+         * (all of them concatenated form the result)
+         */
+        void onItems(List<DiffItem> byLineDiffItems);
+    }
+
+    private static final ProgressListener NO_PROGRESS_LISTENER = new ProgressListener() {
+        @Override
+        public void onStarted(LinesEncoding linesEncoding) {
+        }
+
+        @Override
+        public void onItems(List<DiffItem> byLineDiffItems) {
+        }
+    };
+
+    /**
+     * File A with everything that does not depend on file B computed
+     */
+    public static final class ReferenceFile {
+        private final Path path;
+        private final String contentHash;
+        private final EncodedFile encodedFile;
+
+        private ReferenceFile(Path path, String contentHash, EncodedFile encodedFile) {
+            this.path = path;
+            this.contentHash = contentHash;
+            this.encodedFile = encodedFile;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public LineComparisonOptions getOptions() {
+            return encodedFile.getDictionary().getOptions();
+        }
+    }
+
+    public static final class Result {
+        private final LinesEncoding linesEncoding;
+        private final List<DiffItem> byLineDiffItems;
+        private final boolean minimal;
+
+        private Result(LinesEncoding linesEncoding, List<DiffItem> byLineDiffItems, boolean minimal) {
+            this.linesEncoding = linesEncoding;
+            this.byLineDiffItems = byLineDiffItems;
+            this.minimal = minimal;
+        }
+
+        /**
+         * @return true if files contents are byte-by-byte equal (nothing else is computed in this case)
+         */
+        public boolean isFilesEqual() {
+            return byLineDiffItems == null;
+        }
+
+        public LinesEncoding getLinesEncoding() {
+            return linesEncoding;
+        }
+
+        public List<DiffItem> getByLineDiffItems() {
+            return byLineDiffItems;
+        }
+
+        /**
+         * @return false if files were too different to find the shortest diff in reasonable time
+         * or approximate comparison was requested, so it may contain more changes than necessary
+         */
+        public boolean isMinimal() {
+            return minimal;
+        }
+    }
+
+    private final EncodedFilesCache encodedFilesCache;
+    private final DiffResultCache diffResultCache;
+
+    public DiffRunner(EncodedFilesCache encodedFilesCache, DiffResultCache diffResultCache) {
+        this.encodedFilesCache = encodedFilesCache;
+        this.diffResultCache = diffResultCache;
+    }
+
+    /**
+     * @return reference file or null if stopped
+     */
+    public ReferenceFile prepareReferenceFile(Path path, LineComparisonOptions options,
+                                              AtomicBoolean stopFlag) throws IOException {
+        String contentHash = FileComparisonUtils.computeContentHash(path, stopFlag);
+        if (stopFlag.get()) {
+            return null;
+        }
+
+        EncodedFile encodedFile = encodedFilesCache.getEncodedFile(path, options, null, stopFlag);
+        if (stopFlag.get()) {
+            return null;
+        }
+
+        return new ReferenceFile(path, contentHash, encodedFile);
+    }
+
+    /**
+     * @return diff result or null if stopped
+     */
+    public Result run(Path pathA, Path pathB, LineComparisonOptions options,
+                      AtomicBoolean stopFlag) throws IOException {
+        return run(pathA, pathB, options, false, stopFlag, NO_PROGRESS_LISTENER);
+    }
+
+    /**
+     * @param approximate      use {@link QGramDiffGenerator}: much faster on huge files with many changes,
+     *                         but the result is never minimal
+     * @param progressListener receives parts of diff as they are computed (all at once if the diff
+     *                         is cached, approximate or files are small)
+     * @return diff result or null if stopped
+     */
+    public Result run(Path pathA, Path pathB, LineComparisonOptions options, boolean approximate,
+                      AtomicBoolean stopFlag, ProgressListener progressListener) throws IOException {
+        // comparing raw contents first, so that equal files are reported without decoding and diffing
+        long mismatchOffset = FileComparisonUtils.findFirstMismatch(pathA, pathB, stopFlag);
+
+        if (stopFlag.get()) {
+            return null;
+        }
+
+        if (mismatchOffset == -1) {
+            return new Result(null, null, true);
+        }
+
+        ReferenceFile referenceFile = prepareReferenceFile(pathA, options, stopFlag);
+        if (referenceFile == null) {
+            return null;
+        }
+
+        return run(referenceFile, pathB, mismatchOffset, approximate, stopFlag, progressListener);
+    }
+
+    /**
+     * Compare file B to reference file with options the reference file was prepared with.
+     *
+     * @return diff result or null if stopped
+     */
+    public Result run(ReferenceFile referenceFile, Path pathB, AtomicBoolean stopFlag) throws IOException {
+        long mismatchOffset = FileComparisonUtils.findFirstMismatch(referenceFile.path, pathB, stopFlag);
+
+        if (stopFlag.get()) {
+            return null;
+        }
+
+        if (mismatchOffset == -1) {
+            return new Result(null, null, true);
+        }
+
+        return run(referenceFile, pathB, mismatchOffset, false, stopFlag, NO_PROGRESS_LISTENER);
+    }
+
+    private Result run(ReferenceFile referenceFile, Path pathB, long mismatchOffset, boolean approximate,
+                       AtomicBoolean stopFlag, ProgressListener progressListener) throws IOException {
+        // lines preceding the first mismatching byte are equal - no need to diff them
+        int commonPrefixLinesHint = FileComparisonUtils.countLineFeeds(referenceFile.path, mismatchOffset, stopFlag);
+
+        if (stopFlag.get()) {
+            return null;
+        }
+
+        String contentHashB = FileComparisonUtils.computeContentHash(pathB, stopFlag);
+
+        if (stopFlag.get()) {
+            return null;
+        }
+
+        EncodedFile encodedFileA = referenceFile.encodedFile;
+        EncodedFile encodedFileB = encodedFilesCache.getEncodedFile(pathB, referenceFile.getOptions(),
+                encodedFileA.getDictionary(), stopFlag);
+
+        if (stopFlag.get()) {
+            return null;
+        }
+
+        LinesEncoding linesEncoding = new LinesEncoding(encodedFileA.getEncodedLines(),
+                encodedFileB.getEncodedLines(), encodedFileA.getLines(), encodedFileB.getLines(),
+                // (dictionary of file B may extend the one of file A, see EncodedFilesCache)
+                encodedFileB.getDictionary().getDecodingMap(), referenceFile.getOptions());
+
+        progressListener.onStarted(linesEncoding);
+
+        // large files are compared by segments (the same way with or without progress listener,
+        // so that the cached result does not depend on it)
+        boolean segmented = !approximate && (linesEncoding.getSequenceA().length()
+                + linesEncoding.getSequenceB().length() >= SEGMENTED_DIFF_MIN_LINES);
+
+        String cacheKey = DiffResultCache.makeKey(referenceFile.contentHash, contentHashB,
+                approximate ? APPROXIMATE_DIFF_ALGORITHM : segmented ? SEGMENTED_DIFF_ALGORITHM : DIFF_ALGORITHM,
+                DIFF_OPTIONS + "," + referenceFile.getOptions().getKey());
+
+        List<DiffItem> byLineDiffItems = loadCachedDiff(cacheKey, linesEncoding);
+        boolean minimal = !approximate;
+
+        if (byLineDiffItems != null) {
+            progressListener.onItems(byLineDiffItems);
+        } else {
+            if (approximate) {
+                // lines between matching runs found by index are compared with low cost limit
+                // (encoded lines are read in place: huge files are encoded off-heap)
+                QGramDiffGenerator generator = new QGramDiffGenerator(stopFlag, new BidirectionalMyersDiffGenerator(
+                        stopFlag, APPROXIMATE_MAX_EDIT_COST));
+                byLineDiffItems = generator.generate(linesEncoding.getSequenceA(), linesEncoding.getSequenceB());
+            } else if (segmented) {
+                SegmentedDiffGenerator generator = new SegmentedDiffGenerator(stopFlag, MAX_EDIT_COST);
+                byLineDiffItems = generator.generate(linesEncoding.getSequenceA(), linesEncoding.getSequenceB(),
+                        progressListener::onItems);
+                minimal = generator.isLastResultMinimal();
+            } else {
+                // smaller files are compared in a single thread, in memory linear in their size
+                BidirectionalMyersDiffGenerator generator = new BidirectionalMyersDiffGenerator(stopFlag,
+                        MAX_EDIT_COST);
+                byLineDiffItems = DiffGeneratorUtils.generateWithCommonPrefix(generator,
+                        linesEncoding.getSequenceA(), linesEncoding.getSequenceB(),
+                        commonPrefixLinesHint);
+                minimal = generator.isLastResultMinimal();
+            }
+
+            if (stopFlag.get()) {
+                return null;
+            }
+
+            if (!segmented) {
+                progressListener.onItems(byLineDiffItems);
+            }
+
+            // only minimal diffs are cached (so that cached result is always minimal);
+            // approximate ones never are, but they do not depend on edit cost limits
+            if (minimal || approximate) {
+                storeCachedDiff(cacheKey, byLineDiffItems);
+            }
+        }
+
+        return new Result(linesEncoding, byLineDiffItems, minimal);
+    }
+
+    private List<DiffItem> loadCachedDiff(String cacheKey, LinesEncoding linesEncoding) {
+        try {
+            return diffResultCache.load(cacheKey, linesEncoding.getSequenceA(), linesEncoding.getSequenceB());
+        } catch (IOException e) {
+            // cache is just an optimization - computing diff from scratch
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void storeCachedDiff(String cacheKey, List<DiffItem> diffItems) {
+        try {
+            diffResultCache.store(cacheKey, diffItems);
+        } catch (IOException e) {
+            // cache is just an optimization - not failing the diff
+            e.printStackTrace();
+        }
+    }
+}
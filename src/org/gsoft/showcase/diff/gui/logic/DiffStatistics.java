@@ -0,0 +1,83 @@
+package org.gsoft.showcase.diff.gui.logic;
+
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.generators.DiffItemType;
+
+import java.util.List;
+
+/**
+ * Summary of by-line diff.
+ */
+public final class DiffStatistics {
+    private final int changeCount;
+    private final int insertedLineCount;
+    private final int deletedLineCount;
+    private final double similarity;
+
+    private DiffStatistics(int changeCount, int insertedLineCount, int deletedLineCount, double similarity) {
+        this.changeCount = changeCount;
+        this.insertedLineCount = insertedLineCount;
+        this.deletedLineCount = deletedLineCount;
+        this.similarity = similarity;
+    }
+
+    public static DiffStatistics of(List<DiffItem> byLineDiffItems) {
+        int changeCount = 0;
+        int equalLineCount = 0, insertedLineCount = 0, deletedLineCount = 0;
+
+        DiffItemType previousType = DiffItemType.EQUAL;
+
+        for (DiffItem item : byLineDiffItems) {
+            switch (item.getType()) {
+                case EQUAL:
+                    equalLineCount += item.getLength();
+                    break;
+
+                case INSERT:
+                    insertedLineCount += item.getLength();
+                    break;
+
+                case DELETE:
+                    deletedLineCount += item.getLength();
+                    break;
+
+                default:
+                    throw new RuntimeException("unexpected diff item type: " + item.getType());
+            }
+
+            // consecutive INSERT and DELETE items are displayed as single change
+            if ((item.getType() != DiffItemType.EQUAL) && (previousType == DiffItemType.EQUAL)) {
+                changeCount++;
+            }
+            previousType = item.getType();
+        }
+
+        int totalLineCount = 2 * equalLineCount + insertedLineCount + deletedLineCount;
+        double similarity = totalLineCount != 0 ? 2.0 * equalLineCount / totalLineCount : 1.0;
+
+        return new DiffStatistics(changeCount, insertedLineCount, deletedLineCount, similarity);
+    }
+
+    public static DiffStatistics ofEqualFiles() {
+        return new DiffStatistics(0, 0, 0, 1.0);
+    }
+
+    public int getChangeCount() {
+        return changeCount;
+    }
+
+    public int getInsertedLineCount() {
+        return insertedLineCount;
+    }
+
+    public int getDeletedLineCount() {
+        return deletedLineCount;
+    }
+
+    /**
+     * @return share of lines of both files which are equal (from 0 to 1)
+     */
+    public double getSimilarity() {
+        return similarity;
+    }
+}
@@ -0,0 +1,92 @@
+package org.gsoft.showcase.diff.gui.logic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Folding of long EQUAL items: only a few context lines around changes are displayed,
+ * the rest of item is replaced with a single placeholder line until it is expanded.
+ */
+public final class EqualItemsFolding {
+    /**
+     * Number of lines of EQUAL item left visible next to a change
+     */
+    public static final int CONTEXT_LINES = 3;
+
+    /**
+     * EQUAL item is folded only if at least this number of lines can be hidden
+     */
+    public static final int MIN_FOLDED_LINES = 8;
+
+    private EqualItemsFolding() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Split long EQUAL items into context lines and the folded middle part.
+     *
+     * @param foldedItems receives items which must be displayed folded
+     */
+    public static List<ByLineDiffItem> fold(List<ByLineDiffItem> items, Set<ByLineDiffItem> foldedItems) {
+        return fold(items, foldedItems, true, true);
+    }
+
+    /**
+     * Fold items which are only a part of all items of the file.
+     *
+     * @param atFileStart whether items start at the beginning of file (leading EQUAL item needs no context then)
+     * @param atFileEnd whether items end at the end of file (trailing EQUAL item needs no context then)
+     */
+    public static List<ByLineDiffItem> fold(List<ByLineDiffItem> items, Set<ByLineDiffItem> foldedItems,
+                                            boolean atFileStart, boolean atFileEnd) {
+        List<ByLineDiffItem> result = new ArrayList<>(items.size());
+
+        for (int i = 0; i < items.size(); i++) {
+            ByLineDiffItem item = items.get(i);
+
+            // items with ignored blank lines are not folded: their lines do not correspond one to one
+            if (IncrementalDiffEngine.isSplittableEqualItem(item)) {
+                // no context is needed at the start and at the end of files
+                int headLength = (i > 0) || !atFileStart ? CONTEXT_LINES : 0;
+                int tailLength = (i < items.size() - 1) || !atFileEnd ? CONTEXT_LINES : 0;
+
+                int lineCount = item.getLineCountA();
+                int foldedLength = lineCount - headLength - tailLength;
+
+                if (foldedLength >= MIN_FOLDED_LINES) {
+                    if (headLength > 0) {
+                        result.add(IncrementalDiffEngine.makeEqualItem(item, 0, headLength));
+                    }
+
+                    ByLineDiffItem foldedItem = IncrementalDiffEngine.makeEqualItem(item,
+                            headLength, headLength + foldedLength);
+                    result.add(foldedItem);
+                    foldedItems.add(foldedItem);
+
+                    if (tailLength > 0) {
+                        result.add(IncrementalDiffEngine.makeEqualItem(item,
+                                headLength + foldedLength, lineCount));
+                    }
+
+                    continue;
+                }
+            }
+
+            result.add(item);
+        }
+
+        return result;
+    }
+
+    /**
+     * Merge EQUAL items split by {@link #fold(List, Set)} (or by expanding folded items) back.
+     */
+    public static List<ByLineDiffItem> unfold(List<ByLineDiffItem> items) {
+        List<ByLineDiffItem> result = new ArrayList<>(items.size());
+        for (ByLineDiffItem item : items) {
+            IncrementalDiffEngine.addMergingEqualItems(result, item);
+        }
+        return result;
+    }
+}
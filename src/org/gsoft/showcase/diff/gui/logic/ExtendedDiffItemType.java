@@ -3,11 +3,26 @@ package org.gsoft.showcase.diff.gui.logic;
 import org.gsoft.showcase.diff.generators.DiffItemType;
 
 /**
- * Extends {@link DiffItemType} with MODIFIED item type.
+ * Extends {@link DiffItemType} with MODIFIED item type and types of moved and copied blocks.
  */
 public enum ExtendedDiffItemType {
     EQUAL,
     INSERT,
     DELETE,
-    MODIFIED
+    MODIFIED,
+
+    /**
+     * Deleted lines inserted to other place of file (as MOVED_TO item)
+     */
+    MOVED_FROM,
+
+    /**
+     * Inserted lines deleted from other place of file (as MOVED_FROM item)
+     */
+    MOVED_TO,
+
+    /**
+     * Inserted lines equal to lines already moved to other place of file
+     */
+    COPIED
 }
@@ -0,0 +1,410 @@
+package org.gsoft.showcase.diff.gui.logic;
+
+import org.gsoft.showcase.diff.generators.DiffGeneratorUtils;
+import org.gsoft.showcase.diff.generators.DiffGeneratorUtils.LinesEncoding;
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.generators.LineComparisonOptions;
+import org.gsoft.showcase.diff.generators.TextLines;
+import org.gsoft.showcase.diff.generators.impl.BidirectionalMyersDiffGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Updates diff after one of the files is edited.
+ *
+ * Only the region between the nearest EQUAL lines not touched by the edit is diffed again,
+ * so the cost of an edit depends on the size of surrounding change, not on the size of files.
+ * Edits inside of large changes (e.g. of files having little in common) must not block editing either:
+ * only lines around edited ones are diffed and they are compared with low edit cost limit,
+ * so the patch may be not minimal then.
+ */
+public final class IncrementalDiffEngine {
+    /**
+     * Region is compared in O(length * REDIFF_MAX_EDIT_COST) time even if it has nothing in common;
+     * see {@link BidirectionalMyersDiffGenerator#BidirectionalMyersDiffGenerator(AtomicBoolean, int)}
+     */
+    private static final int REDIFF_MAX_EDIT_COST = 64;
+
+    /**
+     * Regions larger than this (in lines of both files) are not diffed as a whole: only edited lines
+     * with about REDIFF_MAX_REGION_LINES lines of changes around them are, the rest of changes is kept as is
+     * (reading, encoding and converting lines takes time proportional to their number)
+     */
+    private static final int REDIFF_MAX_REGION_LINES = 2000;
+
+    /**
+     * Current (i.e. after edit) lines of a file
+     */
+    public interface Lines {
+        String get(int index);
+    }
+
+    /**
+     * Items [fromIndex, toIndex) of diff before edit must be replaced with patch items.
+     */
+    public static final class Patch {
+        private final int fromIndex;
+        private final int toIndex;
+        private final int startLineA;
+        private final int startLineB;
+        private final List<ByLineDiffItem> items;
+        private final boolean minimal;
+
+        private Patch(int fromIndex, int toIndex, int startLineA, int startLineB, List<ByLineDiffItem> items,
+                      boolean minimal) {
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.startLineA = startLineA;
+            this.startLineB = startLineB;
+            this.items = items;
+            this.minimal = minimal;
+        }
+
+        public int getFromIndex() {
+            return fromIndex;
+        }
+
+        public int getToIndex() {
+            return toIndex;
+        }
+
+        /**
+         * @return line of file A the first patch item starts at
+         */
+        public int getStartLineA() {
+            return startLineA;
+        }
+
+        /**
+         * @return line of file B the first patch item starts at
+         */
+        public int getStartLineB() {
+            return startLineB;
+        }
+
+        public List<ByLineDiffItem> getItems() {
+            return items;
+        }
+
+        /**
+         * @return false if edit cost limit was exceeded, so patch items may contain more changes than necessary
+         */
+        public boolean isMinimal() {
+            return minimal;
+        }
+    }
+
+    private IncrementalDiffEngine() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param items diff items before edit
+     * @param editedA true if file A was edited, false if file B was
+     * @param firstEditedLine first line touched by edit (it is the same before and after edit)
+     * @param lastEditedLineBefore last line touched by edit, as it was numbered before edit
+     * @param lineDelta number of lines added by edit (negative if lines were removed)
+     * @param linesA lines of file A after edit
+     * @param linesB lines of file B after edit
+     * @param foldedItems EQUAL items displayed as a single placeholder line; they must not be
+     *                    touched by edit and are never diffed again or merged with other items
+     * @param options options of lines comparison the diff was produced with
+     */
+    public static Patch rediff(List<ByLineDiffItem> items, boolean editedA,
+                               int firstEditedLine, int lastEditedLineBefore, int lineDelta,
+                               Lines linesA, Lines linesB, Set<ByLineDiffItem> foldedItems,
+                               LineComparisonOptions options) {
+        int itemCount = items.size();
+
+        // line numbers are the ones of text areas, i.e. folded item takes one line
+        int[] startsA = new int[itemCount + 1];
+        int[] startsB = new int[itemCount + 1];
+        for (int i = 0; i < itemCount; i++) {
+            ByLineDiffItem item = items.get(i);
+            boolean folded = foldedItems.contains(item);
+            startsA[i + 1] = startsA[i] + (folded ? 1 : item.getLineCountA());
+            startsB[i + 1] = startsB[i] + (folded ? 1 : item.getLineCountB());
+        }
+
+        int[] startsEdited = editedA ? startsA : startsB;
+
+        //
+        // looking for region start: either inside EQUAL item containing the first
+        // edited line or at the start of the group of changes preceding it
+        // (EQUAL items with ignored blank lines can not be split, they are diffed again as changes)
+        //
+        int fromIndex = findItemContainingLine(startsEdited, firstEditedLine);
+        int firstEditedItemIndex = fromIndex;
+
+        ByLineDiffItem headEqualItem = null;
+        int regionStartA, regionStartB;
+
+        if ((fromIndex < itemCount) && isSplittableEqualItem(items.get(fromIndex)) &&
+                (firstEditedLine > startsEdited[fromIndex])) {
+            int headLength = firstEditedLine - startsEdited[fromIndex];
+            headEqualItem = makeEqualItem(items.get(fromIndex), 0, headLength);
+            regionStartA = startsA[fromIndex] + headLength;
+            regionStartB = startsB[fromIndex] + headLength;
+        } else {
+            while ((fromIndex > 0) && !isSplittableEqualItem(items.get(fromIndex - 1))) {
+                fromIndex--;
+            }
+            regionStartA = startsA[fromIndex];
+            regionStartB = startsB[fromIndex];
+        }
+
+        //
+        // looking for region end the same way
+        //
+        int toIndex = findItemContainingLine(startsEdited, lastEditedLineBefore);
+        int lastEditedItemIndex = toIndex;
+
+        ByLineDiffItem tailEqualItem = null;
+        int regionEndA, regionEndB;
+
+        if ((toIndex < itemCount) && isSplittableEqualItem(items.get(toIndex)) &&
+                (lastEditedLineBefore + 1 < startsEdited[toIndex + 1])) {
+            ByLineDiffItem item = items.get(toIndex);
+            int tailStart = lastEditedLineBefore + 1 - startsEdited[toIndex];
+            tailEqualItem = makeEqualItem(item, tailStart, item.getLineCountA());
+            regionEndA = startsA[toIndex] + tailStart;
+            regionEndB = startsB[toIndex] + tailStart;
+            toIndex++;
+        } else {
+            if (toIndex < itemCount) {
+                toIndex++;
+            }
+            while ((toIndex < itemCount) && !isSplittableEqualItem(items.get(toIndex))) {
+                toIndex++;
+            }
+            regionEndA = startsA[toIndex];
+            regionEndB = startsB[toIndex];
+        }
+
+        //
+        // large region (e.g. edit inside of a long run of changes): only lines around edited ones
+        // are diffed, changes preceding and following them are kept; region is cut at item boundaries
+        // or inside DELETE and INSERT items, so that kept items stay valid
+        //
+        List<ByLineDiffItem> keptHeadItems = new ArrayList<>();
+        List<ByLineDiffItem> keptTailItems = new ArrayList<>();
+        boolean narrowed = false;
+
+        if ((regionEndA - regionStartA) + (regionEndB - regionStartB) + Math.max(lineDelta, 0)
+                > REDIFF_MAX_REGION_LINES) {
+            if ((headEqualItem == null) && (firstEditedItemIndex < itemCount)) {
+                // the last point of diff preceding edited lines
+                int editStart = startsA[firstEditedItemIndex] + startsB[firstEditedItemIndex];
+                if (isChangeOfFile(items.get(firstEditedItemIndex), editedA)) {
+                    editStart += firstEditedLine - startsEdited[firstEditedItemIndex];
+                }
+
+                int cut = editStart - REDIFF_MAX_REGION_LINES / 2;
+                if (cut > regionStartA + regionStartB) {
+                    int cutIndex = firstEditedItemIndex;
+                    while (startsA[cutIndex] + startsB[cutIndex] > cut) {
+                        cutIndex--;
+                    }
+
+                    ByLineDiffItem cutItem = items.get(cutIndex);
+                    int cutLength = cut - (startsA[cutIndex] + startsB[cutIndex]);
+                    if (!isSplittableChange(cutItem)) {
+                        cutLength = 0;
+                    }
+
+                    keptHeadItems.addAll(items.subList(fromIndex, cutIndex));
+                    if (cutLength > 0) {
+                        keptHeadItems.add(new ByLineDiffItem(cutItem.getType(),
+                                cutItem.getLines().subRange(0, cutLength)));
+                    }
+                    regionStartA = startsA[cutIndex] + (cutItem.getLineCountA() > 0 ? cutLength : 0);
+                    regionStartB = startsB[cutIndex] + (cutItem.getLineCountB() > 0 ? cutLength : 0);
+                    narrowed = !keptHeadItems.isEmpty();
+                }
+            }
+
+            if ((tailEqualItem == null) && (lastEditedItemIndex < itemCount)) {
+                // the first point of diff following edited lines
+                int editEnd = startsA[lastEditedItemIndex + 1] + startsB[lastEditedItemIndex + 1];
+                if (isChangeOfFile(items.get(lastEditedItemIndex), editedA)) {
+                    editEnd -= startsEdited[lastEditedItemIndex + 1] - (lastEditedLineBefore + 1);
+                }
+
+                int cut = editEnd + REDIFF_MAX_REGION_LINES / 2;
+                if (cut < regionEndA + regionEndB) {
+                    int cutIndex = lastEditedItemIndex;
+                    while (startsA[cutIndex + 1] + startsB[cutIndex + 1] < cut) {
+                        cutIndex++;
+                    }
+
+                    ByLineDiffItem cutItem = items.get(cutIndex);
+                    int cutLength = startsA[cutIndex + 1] + startsB[cutIndex + 1] - cut;
+                    if (!isSplittableChange(cutItem)) {
+                        cutLength = 0;
+                    }
+
+                    if (cutLength > 0) {
+                        TextLines lines = cutItem.getLines();
+                        keptTailItems.add(new ByLineDiffItem(cutItem.getType(),
+                                lines.subRange(lines.size() - cutLength, lines.size())));
+                    }
+                    keptTailItems.addAll(items.subList(cutIndex + 1, toIndex));
+                    regionEndA = startsA[cutIndex + 1] - (cutItem.getLineCountA() > 0 ? cutLength : 0);
+                    regionEndB = startsB[cutIndex + 1] - (cutItem.getLineCountB() > 0 ? cutLength : 0);
+                    narrowed |= !keptTailItems.isEmpty();
+                }
+            }
+        }
+
+        if (editedA) {
+            regionEndA += lineDelta;
+        } else {
+            regionEndB += lineDelta;
+        }
+
+        //
+        // diffing the region and gluing it with unchanged parts
+        //
+        List<ByLineDiffItem> patchItems = new ArrayList<>();
+
+        int startLineA = startsA[fromIndex];
+        int startLineB = startsB[fromIndex];
+
+        if ((fromIndex > 0) && (headEqualItem == null) && !foldedItems.contains(items.get(fromIndex - 1))) {
+            // region may start with EQUAL lines, which must be merged with preceding item
+            fromIndex--;
+            headEqualItem = items.get(fromIndex);
+            startLineA = startsA[fromIndex];
+            startLineB = startsB[fromIndex];
+        }
+
+        if (headEqualItem != null) {
+            patchItems.add(headEqualItem);
+        }
+
+        for (ByLineDiffItem keptItem : keptHeadItems) {
+            addMergingEqualItems(patchItems, keptItem);
+        }
+
+        BidirectionalMyersDiffGenerator generator = new BidirectionalMyersDiffGenerator(new AtomicBoolean(),
+                REDIFF_MAX_EDIT_COST);
+
+        for (ByLineDiffItem regionItem : diffRegion(linesA, regionStartA, regionEndA,
+                linesB, regionStartB, regionEndB, options, generator)) {
+            addMergingEqualItems(patchItems, regionItem);
+        }
+
+        for (ByLineDiffItem keptItem : keptTailItems) {
+            addMergingEqualItems(patchItems, keptItem);
+        }
+
+        if ((toIndex < itemCount) && (tailEqualItem == null) && !foldedItems.contains(items.get(toIndex))) {
+            // the same for the end of region
+            tailEqualItem = items.get(toIndex);
+            toIndex++;
+        }
+
+        if (tailEqualItem != null) {
+            addMergingEqualItems(patchItems, tailEqualItem);
+        }
+
+        return new Patch(fromIndex, toIndex, startLineA, startLineB, patchItems,
+                generator.isLastResultMinimal() && !narrowed);
+    }
+
+    private static List<ByLineDiffItem> diffRegion(Lines linesA, int startA, int endA,
+                                                   Lines linesB, int startB, int endB,
+                                                   LineComparisonOptions options,
+                                                   BidirectionalMyersDiffGenerator generator) {
+        String[] regionLinesA = new String[endA - startA];
+        for (int i = 0; i < regionLinesA.length; i++) {
+            regionLinesA[i] = linesA.get(startA + i);
+        }
+
+        String[] regionLinesB = new String[endB - startB];
+        for (int i = 0; i < regionLinesB.length; i++) {
+            regionLinesB[i] = linesB.get(startB + i);
+        }
+
+        LinesEncoding linesEncoding = DiffGeneratorUtils.encodeLines(regionLinesA, regionLinesB, options,
+                new AtomicBoolean());
+
+        List<DiffItem> byLineDiffItems = generator.generate(linesEncoding.getSequenceA(), linesEncoding.getSequenceB());
+
+        return ByLineDiffItemsConverter.convert(byLineDiffItems, linesEncoding);
+    }
+
+    /**
+     * @return index of item containing the line or number of items if line follows all of them
+     */
+    private static int findItemContainingLine(int[] starts, int line) {
+        // items not occupying any lines (having equal starts) are skipped
+        int lo = 0;
+        int hi = starts.length - 1;
+        while (lo < hi) {
+            int mid = lo + (hi - lo) / 2;
+            if (starts[mid + 1] > line) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    static void addMergingEqualItems(List<ByLineDiffItem> items, ByLineDiffItem item) {
+        int lastIndex = items.size() - 1;
+        if ((lastIndex >= 0) && (item.getType() == ExtendedDiffItemType.EQUAL) &&
+                (items.get(lastIndex).getType() == ExtendedDiffItemType.EQUAL)) {
+            ByLineDiffItem previousItem = items.get(lastIndex);
+            items.set(lastIndex, makeEqualItem(
+                    previousItem.getLines().concat(item.getLines()),
+                    previousItem.getLinesB().concat(item.getLinesB())));
+        } else {
+            items.add(item);
+        }
+    }
+
+    /**
+     * @param item EQUAL item having the same number of lines in both files
+     * @return EQUAL item of lines [from, to) of the item
+     */
+    static ByLineDiffItem makeEqualItem(ByLineDiffItem item, int from, int to) {
+        TextLines lines = item.getLines().subRange(from, to);
+        if (item.isExactlyEqual()) {
+            return new ByLineDiffItem(ExtendedDiffItemType.EQUAL, lines);
+        }
+        return makeEqualItem(lines, item.getLinesB().subRange(from, to));
+    }
+
+    /**
+     * @param linesB lines of file B (they are equal to lines of file A according to comparison options)
+     */
+    static ByLineDiffItem makeEqualItem(TextLines lines, TextLines linesB) {
+        return new ByLineDiffItem(ExtendedDiffItemType.EQUAL, lines, lines.contentEquals(linesB) ? null : linesB);
+    }
+
+    /**
+     * @return true if item is DELETE or INSERT (it can be split at any line)
+     */
+    private static boolean isSplittableChange(ByLineDiffItem item) {
+        return (item.getType() == ExtendedDiffItemType.DELETE) || (item.getType() == ExtendedDiffItemType.INSERT);
+    }
+
+    /**
+     * @return true if item is DELETE (for file A) or INSERT (for file B), i.e. it has lines of this file only
+     */
+    private static boolean isChangeOfFile(ByLineDiffItem item, boolean fileA) {
+        return item.getType() == (fileA ? ExtendedDiffItemType.DELETE : ExtendedDiffItemType.INSERT);
+    }
+
+    /**
+     * @return true if item is EQUAL and its lines correspond one to one (it can be split at any line)
+     */
+    static boolean isSplittableEqualItem(ByLineDiffItem item) {
+        return (item.getType() == ExtendedDiffItemType.EQUAL) && (item.getLineCountA() == item.getLineCountB());
+    }
+}
@@ -0,0 +1,278 @@
+package org.gsoft.showcase.diff.gui.logic;
+
+import org.gsoft.showcase.diff.generators.DiffGenerator;
+import org.gsoft.showcase.diff.generators.DiffGeneratorUtils;
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.generators.DiffItemType;
+import org.gsoft.showcase.diff.generators.LineComparisonOptions;
+import org.gsoft.showcase.diff.generators.TextLines;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pairs deleted lines with similar inserted lines (keeping their order), so that
+ * by-char diff is only produced for each pair of lines instead of the whole block.
+ *
+ * Lines similarity is estimated by cheap signatures: lengths and sketches of char bigrams
+ * (of normalised lines if comparison options are not exact).
+ */
+public final class ModifiedLinesPairing {
+    /**
+     * Lines are paired only if their similarity (0..1000) is at least this
+     */
+    private static final int MIN_SIMILARITY = 500;
+
+    /**
+     * Optimal pairing is searched for blocks up to this number of (deleted line, inserted line)
+     * combinations; in larger blocks each deleted line is paired greedily with one of the
+     * following inserted lines
+     */
+    private static final long MAX_OPTIMAL_PAIRING_CELLS = 1_000_000;
+    private static final int GREEDY_PAIRING_WINDOW = 32;
+
+    /**
+     * Penalty for every inserted line skipped by greedy pairing (so that close lines are preferred)
+     */
+    private static final int GREEDY_SKIP_PENALTY = 20;
+
+    private static final int SKETCH_LONGS = 4; // 256 bit sketches
+
+    private static final int PAIR = 0;
+    private static final int DELETE = 1;
+    private static final int INSERT = 2;
+
+    private ModifiedLinesPairing() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param byCharDiffGenerator generator used to compare paired lines
+     * @param options options lines were compared with
+     * @return MODIFIED items for runs of paired lines, DELETE and INSERT items for lines left unpaired
+     *         (views of given lines, which are not copied)
+     */
+    public static List<ByLineDiffItem> pairLines(TextLines deletedLines, TextLines insertedLines,
+                                                 DiffGenerator byCharDiffGenerator,
+                                                 LineComparisonOptions options) {
+        long[] sketchesA = computeSketches(deletedLines, options);
+        long[] sketchesB = computeSketches(insertedLines, options);
+
+        int[] operations = (long) deletedLines.size() * insertedLines.size() <= MAX_OPTIMAL_PAIRING_CELLS ?
+                pairOptimally(deletedLines, sketchesA, insertedLines, sketchesB)
+                : pairGreedily(deletedLines, sketchesA, insertedLines, sketchesB);
+
+        List<ByLineDiffItem> result = new ArrayList<>();
+
+        // by-char diffs of all MODIFIED items are stored in shared arrays
+        ByCharDiff.Columns byCharColumns = new ByCharDiff.Columns();
+
+        int lineA = 0, lineB = 0;
+        int i = 0;
+        while (i < operations.length) {
+            int operation = operations[i];
+
+            int runEnd = i;
+            while ((runEnd < operations.length) && (operations[runEnd] == operation)) {
+                runEnd++;
+            }
+            int runLength = runEnd - i;
+
+            switch (operation) {
+                case PAIR:
+                    result.add(makeModifiedItem(deletedLines, lineA, insertedLines, lineB, runLength,
+                            byCharDiffGenerator, byCharColumns));
+                    lineA += runLength;
+                    lineB += runLength;
+                    break;
+
+                case DELETE:
+                    result.add(new ByLineDiffItem(ExtendedDiffItemType.DELETE,
+                            deletedLines.subRange(lineA, lineA + runLength)));
+                    lineA += runLength;
+                    break;
+
+                case INSERT:
+                    result.add(new ByLineDiffItem(ExtendedDiffItemType.INSERT,
+                            insertedLines.subRange(lineB, lineB + runLength)));
+                    lineB += runLength;
+                    break;
+
+                default:
+                    throw new RuntimeException("unexpected operation: " + operation);
+            }
+
+            i = runEnd;
+        }
+
+        return result;
+    }
+
+    private static ByLineDiffItem makeModifiedItem(TextLines linesA, int startA,
+                                                   TextLines linesB, int startB, int count,
+                                                   DiffGenerator byCharDiffGenerator,
+                                                   ByCharDiff.Columns byCharColumns) {
+        List<DiffItem> byCharItems = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                byCharItems.add(new DiffItem(DiffItemType.EQUAL, new int[] {'\n'}));
+            }
+            byCharItems.addAll(byCharDiffGenerator.generate(
+                    DiffGeneratorUtils.encodeString(linesA.get(startA + i)),
+                    DiffGeneratorUtils.encodeString(linesB.get(startB + i))));
+        }
+
+        return new ByLineDiffItem(ExtendedDiffItemType.MODIFIED, byCharColumns.append(byCharItems));
+    }
+
+    /**
+     * Maximizes total similarity of paired lines (as LCS, but with weighted matches).
+     */
+    private static int[] pairOptimally(TextLines linesA, long[] sketchesA, TextLines linesB, long[] sketchesB) {
+        int n = linesA.size();
+        int m = linesB.size();
+
+        // score[i][j] - best total similarity of pairing first i lines of A with first j lines of B
+        int[][] score = new int[n + 1][m + 1];
+
+        for (int i = 1; i <= n; i++) {
+            for (int j = 1; j <= m; j++) {
+                int best = Math.max(score[i - 1][j], score[i][j - 1]);
+
+                int similarity = computeSimilarity(linesA, sketchesA, i - 1, linesB, sketchesB, j - 1);
+                if (similarity >= MIN_SIMILARITY) {
+                    best = Math.max(best, score[i - 1][j - 1] + similarity);
+                }
+
+                score[i][j] = best;
+            }
+        }
+
+        // restoring operations from the end
+        int[] reversedOperations = new int[n + m];
+        int operationCount = 0;
+
+        int i = n, j = m;
+        while ((i > 0) || (j > 0)) {
+            if ((i > 0) && (j > 0) && (score[i][j] != score[i - 1][j]) && (score[i][j] != score[i][j - 1])) {
+                reversedOperations[operationCount++] = PAIR;
+                i--;
+                j--;
+            } else if ((i > 0) && ((j == 0) || (score[i][j] == score[i - 1][j]))) {
+                reversedOperations[operationCount++] = DELETE;
+                i--;
+            } else {
+                reversedOperations[operationCount++] = INSERT;
+                j--;
+            }
+        }
+
+        int[] operations = new int[operationCount];
+        for (int k = 0; k < operationCount; k++) {
+            operations[k] = reversedOperations[operationCount - 1 - k];
+        }
+        return operations;
+    }
+
+    private static int[] pairGreedily(TextLines linesA, long[] sketchesA, TextLines linesB, long[] sketchesB) {
+        int[] operations = new int[linesA.size() + linesB.size()];
+        int operationCount = 0;
+
+        int nextB = 0;
+        for (int i = 0; i < linesA.size(); i++) {
+            int bestJ = -1;
+            int bestScore = Integer.MIN_VALUE;
+
+            int windowEnd = Math.min(linesB.size(), nextB + GREEDY_PAIRING_WINDOW);
+            for (int j = nextB; j < windowEnd; j++) {
+                int similarity = computeSimilarity(linesA, sketchesA, i, linesB, sketchesB, j);
+                int score = similarity - GREEDY_SKIP_PENALTY * (j - nextB);
+                if ((similarity >= MIN_SIMILARITY) && (score > bestScore)) {
+                    bestScore = score;
+                    bestJ = j;
+                }
+            }
+
+            if (bestJ == -1) {
+                operations[operationCount++] = DELETE;
+                continue;
+            }
+
+            while (nextB < bestJ) {
+                operations[operationCount++] = INSERT;
+                nextB++;
+            }
+            operations[operationCount++] = PAIR;
+            nextB++;
+        }
+
+        while (nextB < linesB.size()) {
+            operations[operationCount++] = INSERT;
+            nextB++;
+        }
+
+        return Arrays.copyOf(operations, operationCount);
+    }
+
+    /**
+     * @return estimated similarity of lines from 0 (nothing in common) to 1000 (equal)
+     */
+    private static int computeSimilarity(TextLines linesA, long[] sketchesA, int i,
+                                         TextLines linesB, long[] sketchesB, int j) {
+        int lengthA = linesA.get(i).length();
+        int lengthB = linesB.get(j).length();
+
+        if (lengthA + lengthB == 0) {
+            return 1000;
+        }
+
+        // similarity can not be greater than ratio of lengths
+        if (2000L * Math.min(lengthA, lengthB) / (lengthA + lengthB) < MIN_SIMILARITY) {
+            return 0;
+        }
+
+        int bitsA = 0, bitsB = 0, commonBits = 0;
+        for (int k = 0; k < SKETCH_LONGS; k++) {
+            long sketchA = sketchesA[i * SKETCH_LONGS + k];
+            long sketchB = sketchesB[j * SKETCH_LONGS + k];
+            bitsA += Long.bitCount(sketchA);
+            bitsB += Long.bitCount(sketchB);
+            commonBits += Long.bitCount(sketchA & sketchB);
+        }
+
+        if (bitsA + bitsB == 0) {
+            // too short lines to have bigrams
+            return linesA.get(i).equals(linesB.get(j)) ? 1000 : 0;
+        }
+
+        return 2000 * commonBits / (bitsA + bitsB);
+    }
+
+    /**
+     * @return sets of hashed char bigrams of every line, SKETCH_LONGS longs per line
+     */
+    private static long[] computeSketches(TextLines lines, LineComparisonOptions options) {
+        long[] sketches = new long[lines.size() * SKETCH_LONGS];
+
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            int previousChar = -1;
+            for (int k = 0; k < line.length(); k++) {
+                int c = options.normalizeCharCode(line.charAt(k));
+                if (c == -1) {
+                    continue; // ignored char
+                }
+                if (previousChar != -1) {
+                    int bigramHash = (previousChar * 31 + c) * 0x9E3779B1;
+                    int bit = bigramHash >>> 24; // 0..255
+                    sketches[i * SKETCH_LONGS + (bit >>> 6)] |= 1L << (bit & 63);
+                }
+                previousChar = c;
+            }
+        }
+
+        return sketches;
+    }
+}
@@ -0,0 +1,236 @@
+package org.gsoft.showcase.diff.gui.logic;
+
+import org.gsoft.showcase.diff.generators.DiffGeneratorUtils.LinesEncoding;
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.generators.IntSequence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds blocks of inserted lines equal to blocks of deleted lines, i.e. blocks moved
+ * to other place of file (or copied, if the same deleted block is inserted several times).
+ *
+ * Deleted lines are indexed by rolling hashes of windows of {@link #MIN_MOVED_LINES} lines,
+ * then windows of inserted lines are looked up in the index and matches are extended
+ * as far as possible, so it takes time linear in the number of changed lines.
+ */
+public final class MovedBlocksDetector {
+    /**
+     * Block of inserted lines equal to block of deleted lines
+     */
+    public static final class MovedBlock {
+        private final int startA;
+        private final int startB;
+        private final int length;
+        private final boolean copy;
+
+        MovedBlock(int startA, int startB, int length, boolean copy) {
+            this.startA = startA;
+            this.startB = startB;
+            this.length = length;
+            this.copy = copy;
+        }
+
+        /**
+         * @return first line of the block in file A
+         */
+        public int getStartA() {
+            return startA;
+        }
+
+        /**
+         * @return first line of the block in file B
+         */
+        public int getStartB() {
+            return startB;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * @return true if deleted lines of the block were already moved to other place
+         *         (then blocks of file A do not correspond one to one to moved blocks)
+         */
+        public boolean isCopy() {
+            return copy;
+        }
+    }
+
+    /**
+     * Blocks of fewer lines are not reported as moved
+     */
+    public static final int MIN_MOVED_LINES = 3;
+
+    /**
+     * Blocks of fewer non-whitespace chars are not reported as moved
+     * (e.g. closing braces and blank lines are not worth it)
+     */
+    private static final int MIN_MOVED_CHARS = 20;
+
+    private static final long HASH_MULTIPLIER = 0x100000001B3L;
+
+    private MovedBlocksDetector() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param plainItems by-line diff
+     * @param linesEncoding encoding diff was generated for
+     * @return moved and copied blocks in order of file B
+     */
+    public static List<MovedBlock> detect(List<DiffItem> plainItems, LinesEncoding linesEncoding) {
+        // read without copying (lines of huge files are stored off-heap)
+        IntSequence linesA = linesEncoding.getSequenceA();
+        IntSequence linesB = linesEncoding.getSequenceB();
+
+        //
+        // collecting runs of deleted lines (as [start, end) pairs) and inserted lines
+        //
+        List<int[]> deletedRuns = new ArrayList<>();
+        List<int[]> insertedRuns = new ArrayList<>();
+
+        int lineA = 0, lineB = 0;
+        for (DiffItem plainItem : plainItems) {
+            int length = plainItem.getLength();
+            switch (plainItem.getType()) {
+                case EQUAL:
+                    lineA += length;
+                    lineB += length;
+                    break;
+
+                case DELETE:
+                    deletedRuns.add(new int[] {lineA, lineA + length});
+                    lineA += length;
+                    break;
+
+                case INSERT:
+                    insertedRuns.add(new int[] {lineB, lineB + length});
+                    lineB += length;
+                    break;
+
+                default:
+                    throw new RuntimeException("unexpected diff item type: " + plainItem.getType());
+            }
+        }
+
+        List<MovedBlock> result = new ArrayList<>();
+
+        if (deletedRuns.isEmpty() || insertedRuns.isEmpty()) {
+            return result;
+        }
+
+        //
+        // indexing windows of deleted lines (the first window of equal ones)
+        //
+        long highestPower = 1;
+        for (int i = 1; i < MIN_MOVED_LINES; i++) {
+            highestPower *= HASH_MULTIPLIER;
+        }
+
+        Map<Long, Integer> deletedWindows = new HashMap<>();
+        for (int[] run : deletedRuns) {
+            if (run[1] - run[0] < MIN_MOVED_LINES) {
+                continue;
+            }
+            long hash = hashWindow(linesA, run[0]);
+            for (int start = run[0]; ; start++) {
+                deletedWindows.putIfAbsent(hash, start);
+                if (start + MIN_MOVED_LINES == run[1]) {
+                    break;
+                }
+                hash = (hash - linesA.get(start) * highestPower) * HASH_MULTIPLIER + linesA.get(start + MIN_MOVED_LINES);
+            }
+        }
+
+        boolean[] movedLinesA = new boolean[linesA.length()];
+
+        //
+        // looking up windows of inserted lines and extending matches
+        //
+        for (int[] run : insertedRuns) {
+            int start = run[0];
+            long hash = run[1] - start >= MIN_MOVED_LINES ? hashWindow(linesB, start) : 0;
+
+            while (start + MIN_MOVED_LINES <= run[1]) {
+                Integer matchStartA = deletedWindows.get(hash);
+
+                int matchLength = 0;
+                boolean copy = false;
+                if (matchStartA != null) {
+                    copy = movedLinesA[matchStartA];
+                    // matches can not cross runs of deleted lines
+                    int runEndA = findRunEnd(deletedRuns, matchStartA);
+                    while ((start + matchLength < run[1]) && (matchStartA + matchLength < runEndA) &&
+                            (linesB.get(start + matchLength) == linesA.get(matchStartA + matchLength)) &&
+                            // moved lines of file A are never shared by two moved blocks
+                            (copy || !movedLinesA[matchStartA + matchLength])) {
+                        matchLength++;
+                    }
+                }
+
+                if ((matchLength >= MIN_MOVED_LINES) &&
+                        (countNonWhitespaceChars(linesEncoding.getTextLinesB(), start, matchLength) >= MIN_MOVED_CHARS)) {
+                    result.add(new MovedBlock(matchStartA, start, matchLength, copy));
+                    if (!copy) {
+                        for (int i = 0; i < matchLength; i++) {
+                            movedLinesA[matchStartA + i] = true;
+                        }
+                    }
+
+                    start += matchLength;
+                    if (start + MIN_MOVED_LINES <= run[1]) {
+                        hash = hashWindow(linesB, start);
+                    }
+                } else {
+                    if (start + MIN_MOVED_LINES < run[1]) {
+                        hash = (hash - linesB.get(start) * highestPower) * HASH_MULTIPLIER + linesB.get(start + MIN_MOVED_LINES);
+                    }
+                    start++;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static long hashWindow(IntSequence lines, int start) {
+        long hash = 0;
+        for (int i = start; i < start + MIN_MOVED_LINES; i++) {
+            hash = hash * HASH_MULTIPLIER + lines.get(i);
+        }
+        return hash;
+    }
+
+    private static int findRunEnd(List<int[]> runs, int line) {
+        // runs are sorted
+        int lo = 0;
+        int hi = runs.size() - 1;
+        while (lo < hi) {
+            int mid = lo + (hi - lo + 1) / 2;
+            if (runs.get(mid)[0] <= line) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return runs.get(lo)[1];
+    }
+
+    private static int countNonWhitespaceChars(String[] lines, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            String line = lines[i];
+            for (int j = 0; j < line.length(); j++) {
+                if (!Character.isWhitespace(line.charAt(j))) {
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+}
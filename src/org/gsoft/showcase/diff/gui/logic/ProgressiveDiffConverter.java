@@ -0,0 +1,97 @@
+package org.gsoft.showcase.diff.gui.logic;
+
+import org.gsoft.showcase.diff.generators.DiffGeneratorUtils;
+import org.gsoft.showcase.diff.generators.DiffGeneratorUtils.LinesEncoding;
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.generators.DiffItemType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Converts by-line diff arriving in consecutive parts (see {@link DiffRunner.ProgressListener})
+ * with {@link ByLineDiffItemsConverter}, so that converted items of each part can be appended
+ * to the items converted before.
+ *
+ * Items following the last EQUAL item received (that item included) are kept until the next part
+ * arrives: all changes between two EQUAL items are converted together (so that deleted and inserted lines
+ * become modified ones), and the EQUAL item may be continued by the next part.
+ * Blocks of lines moved between parts are not detected.
+ *
+ * Not thread-safe.
+ */
+public final class ProgressiveDiffConverter {
+    private final LinesEncoding linesEncoding;
+    private List<DiffItem> pendingItems = new ArrayList<>();
+
+    private int convertedLinesA, convertedLinesB;
+
+    public ProgressiveDiffConverter(LinesEncoding linesEncoding) {
+        this.linesEncoding = linesEncoding;
+    }
+
+    /**
+     * @param byLineDiffItems next part of diff
+     * @return items to be appended (possibly none) or null if stopped
+     */
+    public List<ByLineDiffItem> convert(List<DiffItem> byLineDiffItems, AtomicBoolean stopFlag) {
+        pendingItems.addAll(byLineDiffItems);
+        pendingItems = DiffGeneratorUtils.mergeSameTypeItems(pendingItems);
+
+        int count = pendingItems.size() - 1;
+        while ((count >= 0) && (pendingItems.get(count).getType() != DiffItemType.EQUAL)) {
+            count--;
+        }
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+
+        List<DiffItem> items = new ArrayList<>(pendingItems.subList(0, count));
+        pendingItems.subList(0, count).clear();
+
+        return convertItems(items, stopFlag);
+    }
+
+    /**
+     * @return the last items to be appended or null if stopped
+     */
+    public List<ByLineDiffItem> finish(AtomicBoolean stopFlag) {
+        List<DiffItem> items = new ArrayList<>(pendingItems);
+        pendingItems.clear();
+
+        return convertItems(items, stopFlag);
+    }
+
+    private List<ByLineDiffItem> convertItems(List<DiffItem> items, AtomicBoolean stopFlag) {
+        int lineCountA = 0, lineCountB = 0;
+        for (DiffItem item : items) {
+            switch (item.getType()) {
+                case EQUAL:
+                    lineCountA += item.getLength();
+                    lineCountB += item.getLength();
+                    break;
+
+                case DELETE:
+                    lineCountA += item.getLength();
+                    break;
+
+                case INSERT:
+                    lineCountB += item.getLength();
+                    break;
+
+                default:
+                    throw new RuntimeException("unexpected diff item type: " + item.getType());
+            }
+        }
+
+        LinesEncoding partEncoding = linesEncoding.subRange(convertedLinesA, convertedLinesA + lineCountA,
+                convertedLinesB, convertedLinesB + lineCountB);
+
+        convertedLinesA += lineCountA;
+        convertedLinesB += lineCountB;
+
+        return ByLineDiffItemsConverter.convert(items, partEncoding, stopFlag);
+    }
+}
@@ -0,0 +1,362 @@
+package org.gsoft.showcase.diff.gui.logic;
+
+import org.gsoft.showcase.diff.generators.DiffGenerator;
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.generators.DiffItemType;
+import org.gsoft.showcase.diff.generators.LineComparisonOptions;
+import org.gsoft.showcase.diff.generators.LineDictionary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Merges changes made to base file in two other files ("ours" and "theirs").
+ *
+ * All files are encoded with the same {@link LineDictionary}, base is compared to both
+ * other files in parallel, then changes of both comparisons are intersected in a single
+ * sweep over base lines: regions changed in one file only are merged cleanly, regions changed
+ * in both files are conflicts unless they were changed the same way.
+ */
+public final class ThreeWayMerge {
+    public enum RegionType {
+        UNCHANGED,
+        OURS,
+        THEIRS,
+
+        /**
+         * Changed the same way in both files
+         */
+        BOTH_SAME,
+        CONFLICT
+    }
+
+    /**
+     * Lines of all three files belonging to the same part of merge result ([start, end) ranges)
+     */
+    public static final class Region {
+        private final RegionType type;
+        private final int baseStart, baseEnd;
+        private final int oursStart, oursEnd;
+        private final int theirsStart, theirsEnd;
+
+        Region(RegionType type, int baseStart, int baseEnd,
+               int oursStart, int oursEnd, int theirsStart, int theirsEnd) {
+            this.type = type;
+            this.baseStart = baseStart;
+            this.baseEnd = baseEnd;
+            this.oursStart = oursStart;
+            this.oursEnd = oursEnd;
+            this.theirsStart = theirsStart;
+            this.theirsEnd = theirsEnd;
+        }
+
+        public RegionType getType() {
+            return type;
+        }
+
+        public int getBaseStart() {
+            return baseStart;
+        }
+
+        public int getBaseEnd() {
+            return baseEnd;
+        }
+
+        public int getOursStart() {
+            return oursStart;
+        }
+
+        public int getOursEnd() {
+            return oursEnd;
+        }
+
+        public int getTheirsStart() {
+            return theirsStart;
+        }
+
+        public int getTheirsEnd() {
+            return theirsEnd;
+        }
+    }
+
+    public static final class Result {
+        private final String[] baseLines;
+        private final String[] oursLines;
+        private final String[] theirsLines;
+        private final List<Region> regions;
+
+        Result(String[] baseLines, String[] oursLines, String[] theirsLines, List<Region> regions) {
+            this.baseLines = baseLines;
+            this.oursLines = oursLines;
+            this.theirsLines = theirsLines;
+            this.regions = regions;
+        }
+
+        public String[] getBaseLines() {
+            return baseLines;
+        }
+
+        public String[] getOursLines() {
+            return oursLines;
+        }
+
+        public String[] getTheirsLines() {
+            return theirsLines;
+        }
+
+        /**
+         * @return regions covering all lines of all files, in order
+         */
+        public List<Region> getRegions() {
+            return Collections.unmodifiableList(regions);
+        }
+
+        public int getConflictCount() {
+            int count = 0;
+            for (Region region : regions) {
+                if (region.getType() == RegionType.CONFLICT) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return merged file; conflicts are marked the same way as diff3 does
+         */
+        public List<String> getMergedLines() {
+            List<String> result = new ArrayList<>();
+
+            for (Region region : regions) {
+                switch (region.getType()) {
+                    case UNCHANGED:
+                    case OURS:
+                    case BOTH_SAME:
+                        result.addAll(Arrays.asList(oursLines).subList(region.getOursStart(), region.getOursEnd()));
+                        break;
+
+                    case THEIRS:
+                        result.addAll(Arrays.asList(theirsLines).subList(region.getTheirsStart(), region.getTheirsEnd()));
+                        break;
+
+                    case CONFLICT:
+                        result.add("<<<<<<< ours");
+                        result.addAll(Arrays.asList(oursLines).subList(region.getOursStart(), region.getOursEnd()));
+                        result.add("||||||| base");
+                        result.addAll(Arrays.asList(baseLines).subList(region.getBaseStart(), region.getBaseEnd()));
+                        result.add("=======");
+                        result.addAll(Arrays.asList(theirsLines).subList(region.getTheirsStart(), region.getTheirsEnd()));
+                        result.add(">>>>>>> theirs");
+                        break;
+
+                    default:
+                        throw new RuntimeException("unexpected region type: " + region.getType());
+                }
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Consecutive changed lines of base and other file ([start, end) ranges)
+     */
+    private static final class Hunk {
+        final int baseStart, baseEnd;
+        final int otherStart, otherEnd;
+
+        Hunk(int baseStart, int baseEnd, int otherStart, int otherEnd) {
+            this.baseStart = baseStart;
+            this.baseEnd = baseEnd;
+            this.otherStart = otherStart;
+            this.otherEnd = otherEnd;
+        }
+    }
+
+    private ThreeWayMerge() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param oursGenerator generator comparing base to ours
+     * @param theirsGenerator generator comparing base to theirs (runs in parallel with the first one,
+     *                        so it must be a separate instance)
+     * @return result of merge or null if stopped
+     */
+    public static Result merge(String[] baseLines, String[] oursLines, String[] theirsLines,
+                               LineComparisonOptions options,
+                               DiffGenerator oursGenerator, DiffGenerator theirsGenerator,
+                               AtomicBoolean stopFlag) {
+        // codes of lines of all files are comparable with each other
+        LineDictionary dictionary = new LineDictionary(options);
+
+        int[] base = dictionary.encode(baseLines, stopFlag);
+        int[] ours = dictionary.encode(oursLines, stopFlag);
+        int[] theirs = dictionary.encode(theirsLines, stopFlag);
+
+        if (stopFlag.get()) {
+            return null;
+        }
+
+        CompletableFuture<List<DiffItem>> theirsItemsFuture =
+                CompletableFuture.supplyAsync(() -> theirsGenerator.generate(base, theirs));
+        List<DiffItem> oursItems = oursGenerator.generate(base, ours);
+
+        List<DiffItem> theirsItems;
+        try {
+            theirsItems = theirsItemsFuture.join();
+        } catch (CompletionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        if (stopFlag.get()) {
+            return null;
+        }
+
+        List<Region> regions = intersectHunks(findHunks(oursItems), findHunks(theirsItems),
+                base.length, ours, theirs);
+
+        return new Result(baseLines, oursLines, theirsLines, regions);
+    }
+
+    private static List<Hunk> findHunks(List<DiffItem> byLineDiffItems) {
+        List<Hunk> result = new ArrayList<>();
+
+        int baseLine = 0, otherLine = 0;
+        int hunkBaseStart = -1, hunkOtherStart = -1;
+
+        for (DiffItem item : byLineDiffItems) {
+            if ((item.getType() != DiffItemType.EQUAL) && (hunkBaseStart == -1)) {
+                hunkBaseStart = baseLine;
+                hunkOtherStart = otherLine;
+            }
+
+            switch (item.getType()) {
+                case EQUAL:
+                    if (hunkBaseStart != -1) {
+                        result.add(new Hunk(hunkBaseStart, baseLine, hunkOtherStart, otherLine));
+                        hunkBaseStart = -1;
+                    }
+                    baseLine += item.getLength();
+                    otherLine += item.getLength();
+                    break;
+
+                case DELETE:
+                    baseLine += item.getLength();
+                    break;
+
+                case INSERT:
+                    otherLine += item.getLength();
+                    break;
+
+                default:
+                    throw new RuntimeException("unexpected diff item type: " + item.getType());
+            }
+        }
+
+        if (hunkBaseStart != -1) {
+            result.add(new Hunk(hunkBaseStart, baseLine, hunkOtherStart, otherLine));
+        }
+
+        return result;
+    }
+
+    /**
+     * Sweep over hunks of both files in order of base lines; overlapping or adjacent
+     * hunks form a single region.
+     */
+    private static List<Region> intersectHunks(List<Hunk> oursHunks, List<Hunk> theirsHunks,
+                                               int baseLength, int[] ours, int[] theirs) {
+        List<Region> result = new ArrayList<>();
+
+        // difference between line numbers of other file and base before the current region
+        int oursDelta = 0, theirsDelta = 0;
+        int baseLine = 0;
+
+        int i = 0, j = 0;
+        while ((i < oursHunks.size()) || (j < theirsHunks.size())) {
+            int regionStart = Math.min(
+                    i < oursHunks.size() ? oursHunks.get(i).baseStart : Integer.MAX_VALUE,
+                    j < theirsHunks.size() ? theirsHunks.get(j).baseStart : Integer.MAX_VALUE);
+            int regionEnd = regionStart;
+
+            int firstOurs = i, firstTheirs = j;
+            boolean extended = true;
+            while (extended) {
+                extended = false;
+                while ((i < oursHunks.size()) && (oursHunks.get(i).baseStart <= regionEnd)) {
+                    regionEnd = Math.max(regionEnd, oursHunks.get(i).baseEnd);
+                    i++;
+                    extended = true;
+                }
+                while ((j < theirsHunks.size()) && (theirsHunks.get(j).baseStart <= regionEnd)) {
+                    regionEnd = Math.max(regionEnd, theirsHunks.get(j).baseEnd);
+                    j++;
+                    extended = true;
+                }
+            }
+
+            if (regionStart > baseLine) {
+                result.add(new Region(RegionType.UNCHANGED, baseLine, regionStart,
+                        baseLine + oursDelta, regionStart + oursDelta,
+                        baseLine + theirsDelta, regionStart + theirsDelta));
+            }
+
+            int oursStart = regionStart + oursDelta;
+            int oursEnd = regionEnd + oursDelta;
+            if (i > firstOurs) {
+                oursStart = oursHunks.get(firstOurs).otherStart - (oursHunks.get(firstOurs).baseStart - regionStart);
+                oursEnd = oursHunks.get(i - 1).otherEnd + (regionEnd - oursHunks.get(i - 1).baseEnd);
+                oursDelta = oursEnd - regionEnd;
+            }
+
+            int theirsStart = regionStart + theirsDelta;
+            int theirsEnd = regionEnd + theirsDelta;
+            if (j > firstTheirs) {
+                theirsStart = theirsHunks.get(firstTheirs).otherStart - (theirsHunks.get(firstTheirs).baseStart - regionStart);
+                theirsEnd = theirsHunks.get(j - 1).otherEnd + (regionEnd - theirsHunks.get(j - 1).baseEnd);
+                theirsDelta = theirsEnd - regionEnd;
+            }
+
+            RegionType type;
+            if (j == firstTheirs) {
+                type = RegionType.OURS;
+            } else if (i == firstOurs) {
+                type = RegionType.THEIRS;
+            } else if (rangesEqual(ours, oursStart, oursEnd, theirs, theirsStart, theirsEnd)) {
+                type = RegionType.BOTH_SAME;
+            } else {
+                type = RegionType.CONFLICT;
+            }
+
+            result.add(new Region(type, regionStart, regionEnd, oursStart, oursEnd, theirsStart, theirsEnd));
+
+            baseLine = regionEnd;
+        }
+
+        if (baseLine < baseLength) {
+            result.add(new Region(RegionType.UNCHANGED, baseLine, baseLength,
+                    baseLine + oursDelta, baseLength + oursDelta,
+                    baseLine + theirsDelta, baseLength + theirsDelta));
+        }
+
+        return result;
+    }
+
+    private static boolean rangesEqual(int[] a, int startA, int endA, int[] b, int startB, int endB) {
+        if (endA - startA != endB - startB) {
+            return false;
+        }
+        for (int k = 0; k < endA - startA; k++) {
+            if (a[startA + k] != b[startB + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,166 @@
+package org.gsoft.showcase.diff.io;
+
+import org.gsoft.showcase.diff.generators.IntArraySequence;
+import org.gsoft.showcase.diff.generators.IntSequence;
+import org.gsoft.showcase.diff.generators.LineComparisonOptions;
+import org.gsoft.showcase.diff.generators.LineDictionary;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps files read and encoded with shared {@link LineDictionary} between comparisons,
+ * so that a file compared to many others is read and interned only once.
+ *
+ * Encoded files are softly referenced; the dictionary itself is replaced with an empty one
+ * (dropping all cached files) once it grows over the configured number of unique lines
+ * or once files are compared with other {@link LineComparisonOptions}. A dictionary required
+ * for encoding (e.g. the one of file compared to many others) is not grown over that number either:
+ * files are encoded with its {@link LineDictionary#extend() extension} then (and not cached).
+ *
+ * Encoded lines of huge files are stored off-heap, so that they neither need heap nor burden garbage collector.
+ */
+public final class EncodedFilesCache {
+    private static final class FileKey {
+        final Path path;
+        final long lastModifiedTime;
+        final long size;
+
+        FileKey(Path path) throws IOException {
+            this.path = path.toAbsolutePath();
+            this.lastModifiedTime = Files.getLastModifiedTime(path).toMillis();
+            this.size = Files.size(path);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if ((o == null) || (getClass() != o.getClass())) {
+                return false;
+            }
+            FileKey fileKey = (FileKey) o;
+            return (lastModifiedTime == fileKey.lastModifiedTime) &&
+                    (size == fileKey.size) &&
+                    path.equals(fileKey.path);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + Long.hashCode(lastModifiedTime);
+            result = 31 * result + Long.hashCode(size);
+            return result;
+        }
+    }
+
+    public static final class EncodedFile {
+        private final String[] lines;
+        private final IntSequence encodedLines;
+        private final LineDictionary dictionary;
+
+        EncodedFile(String[] lines, IntSequence encodedLines, LineDictionary dictionary) {
+            this.lines = lines;
+            this.encodedLines = encodedLines;
+            this.dictionary = dictionary;
+        }
+
+        public String[] getLines() {
+            return lines;
+        }
+
+        /**
+         * @return encoded lines (stored off-heap for huge files)
+         */
+        public IntSequence getEncodedLines() {
+            return encodedLines;
+        }
+
+        /**
+         * @return dictionary the file was encoded with (possibly extending the required one)
+         */
+        public LineDictionary getDictionary() {
+            return dictionary;
+        }
+    }
+
+    /**
+     * Files with at least this number of lines are encoded off-heap
+     */
+    private static final int OFF_HEAP_MIN_LINES = 1 << 20;
+
+    private final int maxDictionarySize;
+
+    private final Map<FileKey, SoftReference<EncodedFile>> encodedFiles = new HashMap<>();
+    private LineDictionary dictionary = new LineDictionary();
+
+    public EncodedFilesCache(int maxDictionarySize) {
+        this.maxDictionarySize = maxDictionarySize;
+    }
+
+    /**
+     * @param options options of lines comparison (ignored if required dictionary is set)
+     * @param requiredDictionary dictionary the file must be encoded with (current one is used if null);
+     *                           file is encoded with its extension if it is full, see {@link EncodedFile#getDictionary()}
+     * @return encoded file or null if stopped
+     */
+    public EncodedFile getEncodedFile(Path path, LineComparisonOptions options, LineDictionary requiredDictionary,
+                                      AtomicBoolean stopFlag) throws IOException {
+        FileKey key = new FileKey(path);
+
+        LineDictionary encodingDictionary;
+
+        synchronized (this) {
+            encodedFiles.values().removeIf(reference -> reference.get() == null);
+
+            SoftReference<EncodedFile> cachedReference = encodedFiles.get(key);
+            EncodedFile cached = cachedReference != null ? cachedReference.get() : null;
+            if ((cached != null) && ((requiredDictionary != null) ?
+                    cached.getDictionary() == requiredDictionary
+                    : cached.getDictionary().getOptions().equals(options))) {
+                return cached;
+            }
+
+            if (requiredDictionary != null) {
+                encodingDictionary = requiredDictionary.size() < maxDictionarySize ?
+                        requiredDictionary : requiredDictionary.extend();
+            } else {
+                if ((dictionary.size() >= maxDictionarySize) || !dictionary.getOptions().equals(options)) {
+                    // starting from scratch; files encoded with the old dictionary are not compatible anymore
+                    dictionary = new LineDictionary(options);
+                    encodedFiles.clear();
+                }
+                encodingDictionary = dictionary;
+            }
+        }
+
+        String[] lines = TextFileUtils.readFileIntoStringsSplit(path, stopFlag);
+        if (lines == null) {
+            return null;
+        }
+
+        IntSequence encodedLines = lines.length >= OFF_HEAP_MIN_LINES ?
+                encodingDictionary.encodeOffHeap(lines, stopFlag)
+                : new IntArraySequence(encodingDictionary.encode(lines, stopFlag));
+
+        if (stopFlag.get()) {
+            return null;
+        }
+
+        EncodedFile encodedFile = new EncodedFile(lines, encodedLines, encodingDictionary);
+
+        synchronized (this) {
+            if (encodingDictionary == dictionary) {
+                encodedFiles.put(key, new SoftReference<>(encodedFile));
+            }
+        }
+
+        return encodedFile;
+    }
+}
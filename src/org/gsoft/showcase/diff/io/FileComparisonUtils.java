@@ -0,0 +1,194 @@
+package org.gsoft.showcase.diff.io;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public final class FileComparisonUtils {
+    /**
+     * Files are mapped and compared by chunks of this size
+     * (mapping whole multi-GB file at once is not possible with {@link MappedByteBuffer}).
+     */
+    private static final int CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private FileComparisonUtils() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Compare raw file contents without decoding them.
+     *
+     * @return offset of the first mismatching byte or -1 if files are equal
+     * (offset is equal to size of the shorter file if it is a prefix of the other one)
+     */
+    public static long findFirstMismatch(Path pathA, Path pathB, AtomicBoolean stopFlag) throws IOException {
+        try (FileChannel channelA = FileChannel.open(pathA, StandardOpenOption.READ);
+             FileChannel channelB = FileChannel.open(pathB, StandardOpenOption.READ)) {
+            long sizeA = channelA.size();
+            long sizeB = channelB.size();
+            long commonSize = Math.min(sizeA, sizeB);
+
+            for (long offset = 0; offset < commonSize; offset += CHUNK_SIZE) {
+                if (stopFlag.get()) {
+                    return 0;
+                }
+
+                int chunkSize = (int) Math.min(CHUNK_SIZE, commonSize - offset);
+
+                MappedByteBuffer chunkA = channelA.map(FileChannel.MapMode.READ_ONLY, offset, chunkSize);
+                MappedByteBuffer chunkB = channelB.map(FileChannel.MapMode.READ_ONLY, offset, chunkSize);
+
+                int mismatch = findFirstMismatch(chunkA, chunkB, chunkSize);
+                if (mismatch != -1) {
+                    return offset + mismatch;
+                }
+            }
+
+            return sizeA == sizeB ? -1 : commonSize;
+        }
+    }
+
+    /**
+     * Count line feeds in the first {@code endOffset} bytes of the file.
+     * As line feed is never a part of multi-byte UTF-8 sequence, this is the number
+     * of complete lines in the specified region.
+     */
+    public static int countLineFeeds(Path path, long endOffset, AtomicBoolean stopFlag) throws IOException {
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = Math.min(endOffset, channel.size());
+            for (long offset = 0; offset < size; offset += CHUNK_SIZE) {
+                if (stopFlag.get()) {
+                    return 0;
+                }
+
+                int chunkSize = (int) Math.min(CHUNK_SIZE, size - offset);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, chunkSize);
+                for (int i = 0; i < chunkSize; i++) {
+                    if (chunk.get(i) == '\n') {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Find byte offsets of lines, split the same way as in {@link TextFileUtils#readFileIntoStringsSplit(Path)}
+     * (by CR LF if the file contains it anywhere, otherwise by LF).
+     *
+     * @param lineCount number of lines the file was split into
+     * @return {@code lineCount + 1} offsets: line {@code i} occupies bytes [result[i], result[i + 1])
+     * including its line separator; the last line also gets all bytes up to the end of the file
+     * (e.g. empty lines dropped by splitting), so the lines always cover the whole file
+     */
+    public static long[] findLineStarts(Path path, int lineCount) throws IOException {
+        long[] result = new long[lineCount + 1];
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            boolean crLf = containsCrLf(channel, size);
+
+            int line = 1;
+            byte previous = 0;
+            for (long offset = 0; (offset < size) && (line < lineCount); offset += CHUNK_SIZE) {
+                int chunkSize = (int) Math.min(CHUNK_SIZE, size - offset);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, chunkSize);
+                for (int i = 0; (i < chunkSize) && (line < lineCount); i++) {
+                    byte current = chunk.get(i);
+                    if ((current == '\n') && (!crLf || (previous == '\r'))) {
+                        result[line++] = offset + i + 1;
+                    }
+                    previous = current;
+                }
+            }
+
+            // file has less lines than expected: remaining ones are empty
+            for (; line <= lineCount; line++) {
+                result[line] = size;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return hex-encoded SHA-256 hash of file contents
+     */
+    public static String computeContentHash(Path path, AtomicBoolean stopFlag) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // every Java platform is required to support SHA-256
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long offset = 0; offset < size; offset += CHUNK_SIZE) {
+                if (stopFlag.get()) {
+                    return null;
+                }
+
+                int chunkSize = (int) Math.min(CHUNK_SIZE, size - offset);
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, chunkSize));
+            }
+        }
+
+        return toHexString(digest.digest());
+    }
+
+    public static String toHexString(byte[] bytes) {
+        StringBuilder stringBuilder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            stringBuilder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            stringBuilder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return stringBuilder.toString();
+    }
+
+    static boolean containsCrLf(FileChannel channel, long size) throws IOException {
+        byte previous = 0;
+        for (long offset = 0; offset < size; offset += CHUNK_SIZE) {
+            int chunkSize = (int) Math.min(CHUNK_SIZE, size - offset);
+            MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, chunkSize);
+            for (int i = 0; i < chunkSize; i++) {
+                byte current = chunk.get(i);
+                if ((current == '\n') && (previous == '\r')) {
+                    return true;
+                }
+                previous = current;
+            }
+        }
+        return false;
+    }
+
+    private static int findFirstMismatch(MappedByteBuffer a, MappedByteBuffer b, int size) {
+        a.order(ByteOrder.nativeOrder());
+        b.order(ByteOrder.nativeOrder());
+
+        //
+        // comparing 8 bytes at a time; only after finding a mismatching word
+        // we have to look for the mismatching byte inside it
+        //
+        int i = 0;
+        for (; i + Long.BYTES <= size; i += Long.BYTES) {
+            if (a.getLong(i) != b.getLong(i)) {
+                break;
+            }
+        }
+        for (; i < size; i++) {
+            if (a.get(i) != b.get(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,133 @@
+package org.gsoft.showcase.diff.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public final class TextFileUtils {
+    /**
+     * Line separator of text file and whether its last line is terminated with it
+     * (so that lines written back keep format of the file)
+     */
+    public static final class LineFormat {
+        private final String lineSeparator;
+        private final boolean lastLineTerminated;
+
+        public LineFormat(String lineSeparator, boolean lastLineTerminated) {
+            this.lineSeparator = lineSeparator;
+            this.lastLineTerminated = lastLineTerminated;
+        }
+
+        public String getLineSeparator() {
+            return lineSeparator;
+        }
+
+        public boolean isLastLineTerminated() {
+            return lastLineTerminated;
+        }
+    }
+
+    private TextFileUtils() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Files are read by chunks of this size, checking stop flag in between
+     */
+    private static final int READ_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    public static String[] readFileIntoStringsSplit(Path path) {
+        return readFileIntoStringsSplit(path, new AtomicBoolean());
+    }
+
+    /**
+     * @return lines of file or null if stopped
+     */
+    public static String[] readFileIntoStringsSplit(Path path, AtomicBoolean stopFlag) {
+        // TODO support other encodings
+        String fileContents = readFile(path, StandardCharsets.UTF_8, stopFlag);
+        if (fileContents == null) {
+            return null;
+        }
+
+        // TODO handle mixed line endings
+        String lineEndings = fileContents.contains("\r\n") ? "\r\n" : "\n";
+
+        return fileContents.split(lineEndings);
+    }
+
+    /**
+     * @return format of lines of file, as they are split by {@link #readFileIntoStringsSplit(Path)}
+     */
+    public static LineFormat readLineFormat(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            boolean crLf = FileComparisonUtils.containsCrLf(channel, size);
+
+            ByteBuffer lastByte = ByteBuffer.allocate(1);
+            boolean lastLineTerminated = (size > 0) && (channel.read(lastByte, size - 1) == 1)
+                    && (lastByte.get(0) == '\n');
+
+            return new LineFormat(crLf ? "\r\n" : "\n", lastLineTerminated);
+        } catch (IOException e) {
+            throw new RuntimeException("error reading file!", e);
+        }
+    }
+
+    /**
+     * Write lines separated and terminated according to format (e.g. of file they were read from)
+     */
+    public static void writeLines(Path path, List<String> lines, LineFormat format) {
+        String contents = String.join(format.getLineSeparator(), lines);
+        if (format.isLastLineTerminated() && !lines.isEmpty()) {
+            contents += format.getLineSeparator();
+        }
+
+        try {
+            Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException("error writing file!", e);
+        }
+    }
+
+    /**
+     * @return file contents or null if stopped
+     */
+    private static String readFile(Path path, Charset encoding, AtomicBoolean stopFlag) {
+        byte[] encoded;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new RuntimeException("file is too large: " + path);
+            }
+
+            encoded = new byte[(int) size];
+            int offset = 0;
+            while (offset < encoded.length) {
+                if (stopFlag.get()) {
+                    return null;
+                }
+
+                int read = channel.read(ByteBuffer.wrap(encoded, offset, Math.min(READ_CHUNK_SIZE, encoded.length - offset)));
+                if (read < 0) {
+                    break; // file was truncated while reading
+                }
+                offset += read;
+            }
+            if (offset < encoded.length) {
+                encoded = Arrays.copyOf(encoded, offset);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("error reading file!", e);
+        }
+        return new String(encoded, encoding);
+    }
+}
@@ -0,0 +1,413 @@
+package org.gsoft.showcase.diff.patch;
+
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.io.FileComparisonUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Compact binary patch turning source file into target file.
+ *
+ * Format (all numbers are big-endian):
+ * <pre>
+ *   header:  int MAGIC, byte VERSION, long sourceSize, long targetSize
+ *   COPY:    byte 1, long sourceOffset, long length   - copy bytes of source file
+ *   INSERT:  byte 2, long length, byte[length]        - bytes not present in source file
+ *   END:     byte 0
+ * </pre>
+ *
+ * Both creating and applying the script stream file contents through {@link FileChannel}s
+ * (unchanged regions are copied with {@link FileChannel#transferTo(long, long, WritableByteChannel)}),
+ * so heap usage does not depend on size of files, only on number of their lines.
+ */
+public final class EditScript {
+    private static final int MAGIC = 0x44494653; // "DIFS"
+    private static final byte VERSION = 1;
+
+    private static final byte OP_END = 0;
+    private static final byte OP_COPY = 1;
+    private static final byte OP_INSERT = 2;
+
+    private static final int HEADER_SIZE = Integer.BYTES + 1 + 2 * Long.BYTES;
+    private static final int MAX_OP_SIZE = 1 + 2 * Long.BYTES;
+
+    /**
+     * Size of buffers files are read with (buffers passed to {@link #findMismatch} must be at least that large)
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Collects operations while the script is written: consecutive copies of adjacent source regions
+     * and consecutive inserts are merged into a single operation.
+     */
+    private static final class ScriptWriter {
+        private final FileChannel scriptChannel;
+        private final FileChannel targetChannel;
+        private final ByteBuffer recordBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private byte pendingOp = OP_END;
+        private long pendingOffset;
+        private long pendingLength;
+
+        ScriptWriter(FileChannel scriptChannel, FileChannel targetChannel) {
+            this.scriptChannel = scriptChannel;
+            this.targetChannel = targetChannel;
+        }
+
+        void writeHeader(long sourceSize, long targetSize) {
+            recordBuffer.putInt(MAGIC);
+            recordBuffer.put(VERSION);
+            recordBuffer.putLong(sourceSize);
+            recordBuffer.putLong(targetSize);
+        }
+
+        void copy(long sourceOffset, long length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            if ((pendingOp == OP_COPY) && (pendingOffset + pendingLength == sourceOffset)) {
+                pendingLength += length;
+                return;
+            }
+            flushPending();
+            pendingOp = OP_COPY;
+            pendingOffset = sourceOffset;
+            pendingLength = length;
+        }
+
+        /**
+         * Inserted bytes are taken from the target file (inserts always come in order of target file)
+         */
+        void insert(long targetOffset, long length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            if (pendingOp == OP_INSERT) {
+                pendingLength += length;
+                return;
+            }
+            flushPending();
+            pendingOp = OP_INSERT;
+            pendingOffset = targetOffset;
+            pendingLength = length;
+        }
+
+        void finish() throws IOException {
+            flushPending();
+            ensureRecordSpace();
+            recordBuffer.put(OP_END);
+            flushRecords();
+        }
+
+        private void flushPending() throws IOException {
+            switch (pendingOp) {
+                case OP_END:
+                    return;
+
+                case OP_COPY:
+                    ensureRecordSpace();
+                    recordBuffer.put(OP_COPY);
+                    recordBuffer.putLong(pendingOffset);
+                    recordBuffer.putLong(pendingLength);
+                    break;
+
+                case OP_INSERT:
+                    ensureRecordSpace();
+                    recordBuffer.put(OP_INSERT);
+                    recordBuffer.putLong(pendingLength);
+                    flushRecords();
+                    transferFully(targetChannel, pendingOffset, pendingLength, scriptChannel);
+                    break;
+
+                default:
+                    throw new RuntimeException("unexpected operation: " + pendingOp);
+            }
+            pendingOp = OP_END;
+        }
+
+        private void ensureRecordSpace() throws IOException {
+            if (recordBuffer.remaining() < MAX_OP_SIZE) {
+                flushRecords();
+            }
+        }
+
+        private void flushRecords() throws IOException {
+            recordBuffer.flip();
+            while (recordBuffer.hasRemaining()) {
+                scriptChannel.write(recordBuffer);
+            }
+            recordBuffer.clear();
+        }
+    }
+
+    private EditScript() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Create script from items of by-line comparison of source and target files.
+     *
+     * Lines reported as equal are copied from source file only if their bytes are really the same
+     * (they may differ e.g. if some {@link org.gsoft.showcase.diff.generators.LineComparisonOptions}
+     * were used), so applying the script always reproduces target file exactly.
+     *
+     * @param byLineDiffItems items of comparison of lines of files read by
+     *                        {@link org.gsoft.showcase.diff.io.TextFileUtils#readFileIntoStringsSplit(Path)}
+     */
+    public static void write(Path scriptPath, Path sourcePath, Path targetPath,
+                             List<DiffItem> byLineDiffItems) throws IOException {
+        int lineCountA = 0, lineCountB = 0;
+        for (DiffItem item : byLineDiffItems) {
+            switch (item.getType()) {
+                case EQUAL:
+                    lineCountA += item.getLength();
+                    lineCountB += item.getLength();
+                    break;
+
+                case DELETE:
+                    lineCountA += item.getLength();
+                    break;
+
+                case INSERT:
+                    lineCountB += item.getLength();
+                    break;
+
+                default:
+                    throw new RuntimeException("unexpected diff item type: " + item.getType());
+            }
+        }
+
+        long[] lineStartsA = FileComparisonUtils.findLineStarts(sourcePath, lineCountA);
+        long[] lineStartsB = FileComparisonUtils.findLineStarts(targetPath, lineCountB);
+
+        try (FileChannel sourceChannel = FileChannel.open(sourcePath, StandardOpenOption.READ);
+             FileChannel targetChannel = FileChannel.open(targetPath, StandardOpenOption.READ);
+             FileChannel scriptChannel = FileChannel.open(scriptPath, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ScriptWriter scriptWriter = new ScriptWriter(scriptChannel, targetChannel);
+            scriptWriter.writeHeader(sourceChannel.size(), targetChannel.size());
+
+            ByteBuffer bufferA = ByteBuffer.allocate(BUFFER_SIZE);
+            ByteBuffer bufferB = ByteBuffer.allocate(BUFFER_SIZE);
+
+            int lineA = 0, lineB = 0;
+            for (DiffItem item : byLineDiffItems) {
+                int length = item.getLength();
+
+                switch (item.getType()) {
+                    case EQUAL:
+                        writeEqualLines(scriptWriter, sourceChannel, lineStartsA, lineA,
+                                targetChannel, lineStartsB, lineB, length, bufferA, bufferB);
+                        lineA += length;
+                        lineB += length;
+                        break;
+
+                    case DELETE:
+                        lineA += length;
+                        break;
+
+                    case INSERT:
+                        scriptWriter.insert(lineStartsB[lineB], lineStartsB[lineB + length] - lineStartsB[lineB]);
+                        lineB += length;
+                        break;
+
+                    default:
+                        throw new RuntimeException("unexpected diff item type: " + item.getType());
+                }
+            }
+
+            // file consisting of line separators only is split into no lines at all
+            long uncoveredStartB = lineStartsB[lineCountB];
+            scriptWriter.insert(uncoveredStartB, targetChannel.size() - uncoveredStartB);
+
+            scriptWriter.finish();
+        }
+    }
+
+    /**
+     * Apply script created by {@link #write(Path, Path, Path, List)} to source file.
+     *
+     * @throws IOException also if the script is malformed or was created for another source file
+     */
+    public static void apply(Path scriptPath, Path sourcePath, Path targetPath) throws IOException {
+        try (FileChannel scriptChannel = FileChannel.open(scriptPath, StandardOpenOption.READ);
+             FileChannel sourceChannel = FileChannel.open(sourcePath, StandardOpenOption.READ);
+             FileChannel targetChannel = FileChannel.open(targetPath, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer recordBuffer = ByteBuffer.allocate(HEADER_SIZE);
+
+            readFully(scriptChannel, recordBuffer, HEADER_SIZE);
+            if ((recordBuffer.getInt() != MAGIC) || (recordBuffer.get() != VERSION)) {
+                throw new IOException("not an edit script: " + scriptPath);
+            }
+            long sourceSize = recordBuffer.getLong();
+            long targetSize = recordBuffer.getLong();
+            if (sourceSize != sourceChannel.size()) {
+                throw new IOException("edit script was created for another file: " + sourcePath);
+            }
+
+            long targetPosition = 0;
+            while (true) {
+                readFully(scriptChannel, recordBuffer, 1);
+                byte op = recordBuffer.get();
+                if (op == OP_END) {
+                    break;
+                }
+
+                switch (op) {
+                    case OP_COPY: {
+                        readFully(scriptChannel, recordBuffer, 2 * Long.BYTES);
+                        long offset = recordBuffer.getLong();
+                        long length = recordBuffer.getLong();
+                        if ((offset < 0) || (length < 0) || (offset + length > sourceSize)) {
+                            throw new IOException("invalid copy range in edit script: " + offset + "+" + length);
+                        }
+                        targetChannel.position(targetPosition);
+                        transferFully(sourceChannel, offset, length, targetChannel);
+                        targetPosition += length;
+                        break;
+                    }
+
+                    case OP_INSERT: {
+                        readFully(scriptChannel, recordBuffer, Long.BYTES);
+                        long length = recordBuffer.getLong();
+                        for (long done = 0; done < length; ) {
+                            long transferred = targetChannel.transferFrom(scriptChannel, targetPosition, length - done);
+                            if (transferred <= 0) {
+                                throw new IOException("unexpected end of edit script");
+                            }
+                            done += transferred;
+                            targetPosition += transferred;
+                        }
+                        break;
+                    }
+
+                    default:
+                        throw new IOException("unexpected operation in edit script: " + op);
+                }
+            }
+
+            if (targetPosition != targetSize) {
+                throw new IOException("edit script produced " + targetPosition + " bytes instead of " + targetSize);
+            }
+        }
+    }
+
+    /**
+     * Copy bytes of equal lines which are really equal, insert lines that differ
+     * (after a mismatch, comparison continues with the next pair of lines).
+     */
+    private static void writeEqualLines(ScriptWriter scriptWriter,
+                                        FileChannel channelA, long[] lineStartsA, int lineA,
+                                        FileChannel channelB, long[] lineStartsB, int lineB,
+                                        int lineCount, ByteBuffer bufferA, ByteBuffer bufferB) throws IOException {
+        long endA = lineStartsA[lineA + lineCount];
+        long endB = lineStartsB[lineB + lineCount];
+
+        int line = 0;
+        while (line < lineCount) {
+            long offsetA = lineStartsA[lineA + line];
+            long offsetB = lineStartsB[lineB + line];
+            long lengthA = endA - offsetA;
+            long lengthB = endB - offsetB;
+
+            long mismatch = findMismatch(channelA, offsetA, channelB, offsetB, Math.min(lengthA, lengthB),
+                    bufferA, bufferB);
+            if ((mismatch == -1) && (lengthA == lengthB)) {
+                scriptWriter.copy(offsetA, lengthA);
+                return;
+            }
+            if (mismatch == -1) {
+                mismatch = Math.min(lengthA, lengthB);
+            }
+
+            int mismatchLine = findLine(lineStartsB, lineB + line, lineB + lineCount, offsetB + mismatch) - lineB;
+
+            scriptWriter.copy(offsetA, lineStartsB[lineB + mismatchLine] - offsetB);
+            scriptWriter.insert(lineStartsB[lineB + mismatchLine],
+                    lineStartsB[lineB + mismatchLine + 1] - lineStartsB[lineB + mismatchLine]);
+
+            line = mismatchLine + 1;
+        }
+    }
+
+    /**
+     * @return index of line (in [fromLine, toLine) range) containing the byte at offset
+     */
+    static int findLine(long[] lineStarts, int fromLine, int toLine, long offset) {
+        int low = fromLine, high = toLine - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (lineStarts[middle] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return index of the first mismatching byte of two regions of given length or -1 if they are equal
+     */
+    static long findMismatch(FileChannel channelA, long offsetA, FileChannel channelB, long offsetB,
+                                     long length, ByteBuffer bufferA, ByteBuffer bufferB) throws IOException {
+        for (long done = 0; done < length; ) {
+            int chunkSize = (int) Math.min(BUFFER_SIZE, length - done);
+            readFully(channelA, offsetA + done, bufferA, chunkSize);
+            readFully(channelB, offsetB + done, bufferB, chunkSize);
+
+            if (!bufferA.equals(bufferB)) {
+                for (int i = 0; i < chunkSize; i++) {
+                    if (bufferA.get(i) != bufferB.get(i)) {
+                        return done + i;
+                    }
+                }
+            }
+            done += chunkSize;
+        }
+        return -1;
+    }
+
+    private static void transferFully(FileChannel from, long offset, long length,
+                                      WritableByteChannel to) throws IOException {
+        for (long done = 0; done < length; ) {
+            long transferred = from.transferTo(offset + done, length - done, to);
+            if (transferred <= 0) {
+                throw new IOException("unexpected end of file");
+            }
+            done += transferred;
+        }
+    }
+
+    /**
+     * Read the next {@code size} bytes of channel into buffer, leaving it ready for reading
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, int size) throws IOException {
+        buffer.clear();
+        buffer.limit(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("unexpected end of edit script");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void readFully(FileChannel channel, long position, ByteBuffer buffer, int size) throws IOException {
+        buffer.clear();
+        buffer.limit(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of file");
+            }
+        }
+        buffer.flip();
+    }
+}
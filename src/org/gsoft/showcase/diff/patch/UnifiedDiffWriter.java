@@ -0,0 +1,371 @@
+package org.gsoft.showcase.diff.patch;
+
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.io.FileComparisonUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes by-line diff items in unified diff format (as produced by {@code diff -u} and accepted by {@code patch}).
+ *
+ * Lines are streamed from the compared files through {@link FileChannel}s (the same way as in {@link EditScript}),
+ * so heap usage does not depend on size of files, only on number of their lines. Lines keep their original bytes
+ * (including line separators, also trailing ones); the last line of file without line separator is marked with
+ * {@code \ No newline at end of file}, empty file has no lines (e.g. {@code @@ -0,0 +1,2 @@}).
+ */
+public final class UnifiedDiffWriter {
+    public static final int DEFAULT_CONTEXT_LINES = 3;
+
+    private static final byte[] NO_NEWLINE_MARKER = "\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Consecutive changed physical lines of both files ([start, end) ranges)
+     */
+    private static final class Change {
+        final int startA, endA;
+        final int startB, endB;
+
+        Change(int startA, int endA, int startB, int endB) {
+            this.startA = startA;
+            this.endA = endA;
+            this.startB = startB;
+            this.endB = endB;
+        }
+    }
+
+    /**
+     * Lines of file read through channel.
+     *
+     * Patch is written in terms of physical lines (each of them ends with line feed, except possibly the last one),
+     * which differ from lines diff items refer to: splitting file into lines drops trailing line separators
+     * (the last split line covers them, see {@link FileComparisonUtils#findLineStarts(Path, int)}) and turns
+     * empty file into a single empty line. Boundaries of split lines are mapped to physical lines.
+     */
+    private static final class FileLines {
+        final FileChannel channel;
+        final long size;
+
+        /**
+         * Split line i occupies bytes [splitLineStarts[i], splitLineStarts[i + 1])
+         */
+        final long[] splitLineStarts;
+
+        /**
+         * Physical line i occupies bytes [lineStarts[i], lineStarts[i + 1])
+         */
+        final long[] lineStarts;
+        final int lineCount;
+
+        final ByteBuffer buffer = ByteBuffer.allocate(EditScript.BUFFER_SIZE);
+
+        FileLines(FileChannel channel, long[] splitLineStarts) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.splitLineStarts = splitLineStarts;
+
+            long[] starts = new long[splitLineStarts.length + 1];
+            int count = 0;
+            if (size > 0) {
+                starts[count++] = 0;
+            }
+            for (long offset = 0; offset < size; offset += EditScript.BUFFER_SIZE) {
+                int chunkSize = readChunk(offset, size - offset);
+                for (int i = 0; i < chunkSize; i++) {
+                    if ((buffer.get(i) == '\n') && (offset + i + 1 < size)) {
+                        if (count + 1 == starts.length) {
+                            starts = Arrays.copyOf(starts, 2 * starts.length);
+                        }
+                        starts[count++] = offset + i + 1;
+                    }
+                }
+            }
+            starts[count] = size;
+
+            this.lineStarts = starts;
+            this.lineCount = count;
+        }
+
+        /**
+         * @return physical line starting where split line starts; for the end of the last split line
+         *         (which covers all bytes up to the end of file) the number of physical lines
+         */
+        int toLine(int splitLine) {
+            int splitLineCount = splitLineStarts.length - 1;
+            if (splitLine == splitLineCount) {
+                // file consisting of line separators only is split into no lines at all
+                return splitLineCount > 0 ? lineCount : 0;
+            }
+
+            int index = Arrays.binarySearch(lineStarts, 0, lineCount + 1, splitLineStarts[splitLine]);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        /**
+         * Write bytes of physical line after prefix
+         */
+        void writeLine(OutputStream out, char prefix, int line) throws IOException {
+            out.write(prefix);
+
+            byte lastByte = 0;
+            for (long offset = lineStarts[line]; offset < lineStarts[line + 1]; offset += EditScript.BUFFER_SIZE) {
+                int chunkSize = readChunk(offset, lineStarts[line + 1] - offset);
+                out.write(buffer.array(), 0, chunkSize);
+                lastByte = buffer.get(chunkSize - 1);
+            }
+
+            if (lastByte != '\n') {
+                out.write('\n');
+                out.write(NO_NEWLINE_MARKER);
+            }
+        }
+
+        /**
+         * Read up to {@link EditScript#BUFFER_SIZE} bytes (but not more than {@code maxSize}) into buffer
+         *
+         * @return number of bytes read
+         */
+        private int readChunk(long offset, long maxSize) throws IOException {
+            int chunkSize = (int) Math.min(EditScript.BUFFER_SIZE, maxSize);
+            buffer.clear();
+            buffer.limit(chunkSize);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("unexpected end of file");
+                }
+            }
+            return chunkSize;
+        }
+    }
+
+    private UnifiedDiffWriter() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Write diff of two files to patch file.
+     *
+     * Lines reported as equal are written as changed if their bytes differ (they may differ e.g. if some
+     * {@link org.gsoft.showcase.diff.generators.LineComparisonOptions} were used), so applying the patch
+     * reproduces file B exactly (also its trailing line separators).
+     *
+     * @param byLineDiffItems items of comparison of lines of files read by
+     *                        {@link org.gsoft.showcase.diff.io.TextFileUtils#readFileIntoStringsSplit(Path)}
+     * @param contextLines number of unchanged lines around each change; changes separated by
+     *                     not more than twice this number of lines are written as a single hunk
+     */
+    public static void write(Path patchPath, Path pathA, Path pathB,
+                             List<DiffItem> byLineDiffItems, int contextLines) throws IOException {
+        long[] lineStartsA = FileComparisonUtils.findLineStarts(pathA, countLines(byLineDiffItems, true));
+        long[] lineStartsB = FileComparisonUtils.findLineStarts(pathB, countLines(byLineDiffItems, false));
+
+        try (FileChannel channelA = FileChannel.open(pathA, StandardOpenOption.READ);
+             FileChannel channelB = FileChannel.open(pathB, StandardOpenOption.READ);
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(patchPath))) {
+            FileLines linesA = new FileLines(channelA, lineStartsA);
+            FileLines linesB = new FileLines(channelB, lineStartsB);
+
+            List<Change> changes = findChanges(byLineDiffItems, linesA, linesB);
+            if (changes.isEmpty()) {
+                return;
+            }
+
+            out.write(("--- " + pathA + "\n").getBytes(StandardCharsets.UTF_8));
+            out.write(("+++ " + pathB + "\n").getBytes(StandardCharsets.UTF_8));
+
+            int first = 0;
+            while (first < changes.size()) {
+                int last = first;
+                while ((last + 1 < changes.size())
+                        && (changes.get(last + 1).startA - changes.get(last).endA <= 2 * contextLines)) {
+                    last++;
+                }
+
+                writeHunk(out, linesA, linesB, changes.subList(first, last + 1), contextLines);
+                first = last + 1;
+            }
+        }
+    }
+
+    private static void writeHunk(OutputStream out, FileLines linesA, FileLines linesB,
+                                  List<Change> changes, int contextLines) throws IOException {
+        Change firstChange = changes.get(0);
+        Change lastChange = changes.get(changes.size() - 1);
+
+        int leadingContext = Math.min(contextLines, firstChange.startA);
+        int trailingContext = Math.min(contextLines, linesA.lineCount - lastChange.endA);
+
+        int startA = firstChange.startA - leadingContext;
+        int endA = lastChange.endA + trailingContext;
+        int startB = firstChange.startB - leadingContext;
+        int endB = lastChange.endB + trailingContext;
+
+        out.write(("@@ -" + formatRange(startA, endA) + " +" + formatRange(startB, endB) + " @@\n")
+                .getBytes(StandardCharsets.UTF_8));
+
+        int lineA = startA;
+        for (Change change : changes) {
+            writeLines(out, ' ', linesA, lineA, change.startA);
+            writeLines(out, '-', linesA, change.startA, change.endA);
+            writeLines(out, '+', linesB, change.startB, change.endB);
+            lineA = change.endA;
+        }
+        writeLines(out, ' ', linesA, lineA, endA);
+    }
+
+    /**
+     * Ranges are 1-based; empty range is denoted by the line preceding it
+     */
+    private static String formatRange(int start, int end) {
+        int length = end - start;
+        if (length == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    private static void writeLines(OutputStream out, char prefix, FileLines lines, int start, int end)
+            throws IOException {
+        for (int i = start; i < end; i++) {
+            lines.writeLine(out, prefix, i);
+        }
+    }
+
+    private static int countLines(List<DiffItem> byLineDiffItems, boolean fileA) {
+        int count = 0;
+        for (DiffItem item : byLineDiffItems) {
+            switch (item.getType()) {
+                case EQUAL:
+                    count += item.getLength();
+                    break;
+
+                case DELETE:
+                    count += fileA ? item.getLength() : 0;
+                    break;
+
+                case INSERT:
+                    count += fileA ? 0 : item.getLength();
+                    break;
+
+                default:
+                    throw new RuntimeException("unexpected diff item type: " + item.getType());
+            }
+        }
+        return count;
+    }
+
+    private static List<Change> findChanges(List<DiffItem> byLineDiffItems, FileLines linesA, FileLines linesB)
+            throws IOException {
+        List<Change> result = new ArrayList<>();
+
+        int lineA = 0, lineB = 0;
+        for (DiffItem item : byLineDiffItems) {
+            int length = item.getLength();
+
+            switch (item.getType()) {
+                case EQUAL:
+                    addDifferingEqualLines(result, linesA, lineA, linesB, lineB, length);
+                    lineA += length;
+                    lineB += length;
+                    break;
+
+                case DELETE:
+                    addChange(result, linesA, lineA, lineA + length, linesB, lineB, lineB);
+                    lineA += length;
+                    break;
+
+                case INSERT:
+                    addChange(result, linesA, lineA, lineA, linesB, lineB, lineB + length);
+                    lineB += length;
+                    break;
+
+                default:
+                    throw new RuntimeException("unexpected diff item type: " + item.getType());
+            }
+        }
+
+        //
+        // lines after the last change must be the same in both files: trailing line separators
+        // of file consisting of them only are not covered by any split line
+        //
+        int endA = result.isEmpty() ? 0 : result.get(result.size() - 1).endA;
+        int endB = result.isEmpty() ? 0 : result.get(result.size() - 1).endB;
+        long tailLengthA = linesA.size - linesA.lineStarts[endA];
+        long tailLengthB = linesB.size - linesB.lineStarts[endB];
+        if ((tailLengthA != tailLengthB)
+                || (EditScript.findMismatch(linesA.channel, linesA.lineStarts[endA], linesB.channel,
+                        linesB.lineStarts[endB], tailLengthA, linesA.buffer, linesB.buffer) != -1)) {
+            addChange(result, new Change(endA, linesA.lineCount, endB, linesB.lineCount));
+        }
+
+        return result;
+    }
+
+    /**
+     * Add lines reported as equal, whose bytes differ, as changes
+     * (after a mismatch, comparison continues with the next pair of lines)
+     */
+    private static void addDifferingEqualLines(List<Change> changes, FileLines linesA, int lineA,
+                                               FileLines linesB, int lineB, int lineCount) throws IOException {
+        long endA = linesA.splitLineStarts[lineA + lineCount];
+        long endB = linesB.splitLineStarts[lineB + lineCount];
+
+        int line = 0;
+        while (line < lineCount) {
+            long offsetA = linesA.splitLineStarts[lineA + line];
+            long offsetB = linesB.splitLineStarts[lineB + line];
+            long lengthA = endA - offsetA;
+            long lengthB = endB - offsetB;
+
+            long mismatch = EditScript.findMismatch(linesA.channel, offsetA, linesB.channel, offsetB,
+                    Math.min(lengthA, lengthB), linesA.buffer, linesB.buffer);
+            if ((mismatch == -1) && (lengthA == lengthB)) {
+                return;
+            }
+            if (mismatch == -1) {
+                mismatch = Math.min(lengthA, lengthB);
+            }
+
+            int mismatchLine = EditScript.findLine(linesB.splitLineStarts, lineB + line, lineB + lineCount,
+                    offsetB + mismatch) - lineB;
+            addChange(changes, linesA, lineA + mismatchLine, lineA + mismatchLine + 1,
+                    linesB, lineB + mismatchLine, lineB + mismatchLine + 1);
+
+            line = mismatchLine + 1;
+        }
+    }
+
+    /**
+     * Add change of split lines ([start, end) ranges) mapping it to physical lines
+     */
+    private static void addChange(List<Change> changes, FileLines linesA, int startA, int endA,
+                                  FileLines linesB, int startB, int endB) {
+        addChange(changes, new Change(linesA.toLine(startA), linesA.toLine(endA),
+                linesB.toLine(startB), linesB.toLine(endB)));
+    }
+
+    /**
+     * Add change merging it with the last one if they are adjacent
+     */
+    private static void addChange(List<Change> changes, Change change) {
+        int lastIndex = changes.size() - 1;
+        if (lastIndex >= 0) {
+            Change last = changes.get(lastIndex);
+            if ((last.endA == change.startA) && (last.endB == change.startB)) {
+                changes.set(lastIndex, new Change(last.startA, change.endA, last.startB, change.endB));
+                return;
+            }
+        }
+        changes.add(change);
+    }
+}
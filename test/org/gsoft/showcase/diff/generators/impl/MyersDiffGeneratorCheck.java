@@ -0,0 +1,125 @@
+package org.gsoft.showcase.diff.generators.impl;
+
+import org.gsoft.showcase.diff.generators.DiffItem;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Check of {@link MyersDiffGenerator}: diff items must rebuild both sequences and be minimal
+ * (number of inserted and deleted elements is compared to one computed through LCS).
+ *
+ * Run with {@code java MyersDiffGeneratorCheck [randomPairCount [seed]]};
+ * exits with status 1 if any pair fails.
+ */
+public final class MyersDiffGeneratorCheck {
+    /**
+     * Regression cases: reconstruction of edit path used to read diagonals out of range
+     * of the previous step and dropped inserted elements (e.g. {4} vs {2, 4} gave EQUAL 4 only)
+     */
+    private static final int[][] FIXED_PAIRS = {
+            {}, {},
+            {4}, {2, 4},
+            {2, 4}, {4},
+            {1, 4}, {2, 3, 4},
+            {4, 4}, {2, 4, 2},
+    };
+
+    private MyersDiffGeneratorCheck() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static void main(String[] args) {
+        int randomPairCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        Random random = new Random(args.length > 1 ? Long.parseLong(args[1]) : 1);
+
+        int failures = 0;
+        for (int i = 0; i < FIXED_PAIRS.length; i += 2) {
+            if (!check(FIXED_PAIRS[i], FIXED_PAIRS[i + 1])) {
+                failures++;
+            }
+        }
+        for (int i = 0; i < randomPairCount; i++) {
+            int alphabetSize = 1 + random.nextInt(5);
+            if (!check(randomSequence(random, alphabetSize), randomSequence(random, alphabetSize))) {
+                failures++;
+            }
+        }
+
+        System.out.println((FIXED_PAIRS.length / 2 + randomPairCount) + " pairs checked, " + failures + " failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean check(int[] a, int[] b) {
+        List<DiffItem> items = new MyersDiffGenerator(new AtomicBoolean()).generate(a, b);
+
+        int[] rebuiltA = new int[0], rebuiltB = new int[0];
+        int changedCount = 0;
+        for (DiffItem item : items) {
+            switch (item.getType()) {
+                case EQUAL:
+                    rebuiltA = append(rebuiltA, item.getChars());
+                    rebuiltB = append(rebuiltB, item.getChars());
+                    break;
+
+                case DELETE:
+                    rebuiltA = append(rebuiltA, item.getChars());
+                    changedCount += item.getLength();
+                    break;
+
+                case INSERT:
+                    rebuiltB = append(rebuiltB, item.getChars());
+                    changedCount += item.getLength();
+                    break;
+
+                default:
+                    throw new RuntimeException("unexpected diff item type: " + item.getType());
+            }
+        }
+
+        int minChangedCount = a.length + b.length - 2 * lcsLength(a, b);
+        if (!Arrays.equals(rebuiltA, a) || !Arrays.equals(rebuiltB, b) || (changedCount != minChangedCount)) {
+            System.out.println("Wrong diff of " + Arrays.toString(a) + " and " + Arrays.toString(b) + ": "
+                    + describe(items) + " (" + changedCount + " changed elements, minimum is " + minChangedCount + ")");
+            return false;
+        }
+        return true;
+    }
+
+    private static String describe(List<DiffItem> items) {
+        StringBuilder result = new StringBuilder();
+        for (DiffItem item : items) {
+            result.append(item.getType()).append(Arrays.toString(item.getChars())).append(' ');
+        }
+        return result.toString().trim();
+    }
+
+    private static int lcsLength(int[] a, int[] b) {
+        int[][] lengths = new int[a.length + 1][b.length + 1];
+        for (int i = 1; i <= a.length; i++) {
+            for (int j = 1; j <= b.length; j++) {
+                lengths[i][j] = a[i - 1] == b[j - 1] ? lengths[i - 1][j - 1] + 1
+                        : Math.max(lengths[i - 1][j], lengths[i][j - 1]);
+            }
+        }
+        return lengths[a.length][b.length];
+    }
+
+    private static int[] randomSequence(Random random, int alphabetSize) {
+        int[] result = new int[random.nextInt(12)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = random.nextInt(alphabetSize);
+        }
+        return result;
+    }
+
+    private static int[] append(int[] array, int[] elements) {
+        int[] result = Arrays.copyOf(array, array.length + elements.length);
+        System.arraycopy(elements, 0, result, array.length, elements.length);
+        return result;
+    }
+}
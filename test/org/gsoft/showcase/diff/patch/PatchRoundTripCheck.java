@@ -0,0 +1,177 @@
+package org.gsoft.showcase.diff.patch;
+
+import org.gsoft.showcase.diff.generators.DiffGeneratorUtils;
+import org.gsoft.showcase.diff.generators.DiffGeneratorUtils.LinesEncoding;
+import org.gsoft.showcase.diff.generators.DiffItem;
+import org.gsoft.showcase.diff.generators.LineComparisonOptions;
+import org.gsoft.showcase.diff.generators.impl.MyersDiffGenerator;
+import org.gsoft.showcase.diff.io.TextFileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Round-trip check of patches: for pairs of files, patch is written, applied to file A and the result is compared
+ * to file B. Unified diffs are applied with GNU {@code patch}, edit scripts with {@link EditScript#apply}.
+ *
+ * Run with {@code java PatchRoundTripCheck [randomPairCount [seed]]} (GNU patch must be on the PATH);
+ * exits with status 1 if any pair is not reproduced.
+ */
+public final class PatchRoundTripCheck {
+    private static final String[] FIXED_PAIRS = {
+            "", "",
+            "", "a\n",
+            "a\n", "",
+            "", "a",
+            "a", "",
+            "", "\n\n",
+            "\n\n", "",
+            "\n", "\n\n\n",
+            "a\nb\n\n\n", "a\nX\n",
+            "a\nX\n", "a\nb\n\n\n",
+            "a\nb\n\n\n", "a\nb\n",
+            "a\nb", "a\nb\n\n",
+            "a\n\n\nb\n", "a\nb\n\n\n",
+            "\n\na\n", "a\n",
+            "a\r\nb\r\n\r\n", "a\r\nc\r\n",
+            "a\r\nb", "a\r\nb\r\n\r\n",
+    };
+
+    private static final String[] RANDOM_LINES = {"a", "b", " a", "A", "", "foo", "foo ", "x=1"};
+
+    private PatchRoundTripCheck() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int randomPairCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        Random random = new Random(args.length > 1 ? Long.parseLong(args[1]) : 1);
+
+        Path directory = Files.createTempDirectory("patch-round-trip");
+        int failures = 0;
+
+        for (int i = 0; i < FIXED_PAIRS.length; i += 2) {
+            for (int contextLines = 0; contextLines <= UnifiedDiffWriter.DEFAULT_CONTEXT_LINES; contextLines++) {
+                if (!check(directory, FIXED_PAIRS[i], FIXED_PAIRS[i + 1], LineComparisonOptions.EXACT, contextLines)) {
+                    failures++;
+                }
+            }
+        }
+
+        for (int i = 0; i < randomPairCount; i++) {
+            String separator = random.nextInt(4) == 0 ? "\r\n" : "\n";
+            String contentsA = randomContents(random, separator);
+            String contentsB = randomContents(random, separator);
+            LineComparisonOptions options = new LineComparisonOptions(random.nextBoolean(), random.nextBoolean(),
+                    random.nextBoolean(), random.nextBoolean());
+            if (!check(directory, contentsA, contentsB, options, random.nextInt(4))) {
+                failures++;
+            }
+        }
+
+        System.out.println((FIXED_PAIRS.length / 2 * (UnifiedDiffWriter.DEFAULT_CONTEXT_LINES + 1) + randomPairCount)
+                + " pairs checked, " + failures + " failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean check(Path directory, String contentsA, String contentsB,
+                                 LineComparisonOptions options, int contextLines) throws IOException {
+        Path pathA = directory.resolve("a");
+        Path pathB = directory.resolve("b");
+        Path patchPath = directory.resolve("patch");
+        Path resultPath = directory.resolve("result");
+
+        byte[] bytesB = contentsB.getBytes(StandardCharsets.UTF_8);
+        Files.write(pathA, contentsA.getBytes(StandardCharsets.UTF_8));
+        Files.write(pathB, bytesB);
+
+        LinesEncoding linesEncoding = DiffGeneratorUtils.encodeLines(TextFileUtils.readFileIntoStringsSplit(pathA),
+                TextFileUtils.readFileIntoStringsSplit(pathB), options, new AtomicBoolean());
+        List<DiffItem> byLineDiffItems = new MyersDiffGenerator(new AtomicBoolean())
+                .generate(linesEncoding.getLinesA(), linesEncoding.getLinesB());
+
+        boolean result = true;
+
+        UnifiedDiffWriter.write(patchPath, pathA, pathB, byLineDiffItems, contextLines);
+        Files.deleteIfExists(resultPath);
+        String patchOutput = runPatch(pathA, patchPath, resultPath);
+        byte[] patched = Files.exists(resultPath) ? Files.readAllBytes(resultPath) : null;
+        if (!Arrays.equals(patched, bytesB)) {
+            System.out.println("Unified diff does not reproduce file B:\nA: " + escape(contentsA)
+                    + "\nB: " + escape(contentsB) + "\npatch:\n"
+                    + new String(Files.readAllBytes(patchPath), StandardCharsets.UTF_8) + patchOutput);
+            result = false;
+        }
+
+        EditScript.write(patchPath, pathA, pathB, byLineDiffItems);
+        EditScript.apply(patchPath, pathA, resultPath);
+        if (!Arrays.equals(Files.readAllBytes(resultPath), bytesB)) {
+            System.out.println("Edit script does not reproduce file B:\nA: " + escape(contentsA)
+                    + "\nB: " + escape(contentsB));
+            result = false;
+        }
+
+        return result;
+    }
+
+    /**
+     * Patch is applied exactly (without fuzz), so that misplaced hunks are not accepted
+     */
+    private static String runPatch(Path pathA, Path patchPath, Path resultPath) throws IOException {
+        Process process = new ProcessBuilder("patch", "--silent", "--binary", "--force", "--fuzz=0",
+                "--reject-file=-", "--output=" + resultPath, pathA.toString(), patchPath.toString())
+                .redirectErrorStream(true)
+                .start();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                output.write(buffer, 0, count);
+            }
+        }
+
+        try {
+            if (process.waitFor() != 0) {
+                Files.deleteIfExists(resultPath);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Random lines with trailing line separators, without final one or empty
+     */
+    private static String randomContents(Random random, String separator) {
+        List<String> lines = new ArrayList<>();
+        int lineCount = random.nextInt(12);
+        for (int i = 0; i < lineCount; i++) {
+            lines.add(RANDOM_LINES[random.nextInt(RANDOM_LINES.length)]);
+        }
+
+        StringBuilder contents = new StringBuilder(String.join(separator, lines));
+        int trailingSeparators = random.nextInt(4);
+        for (int i = 0; i < trailingSeparators; i++) {
+            contents.append(separator);
+        }
+        return contents.toString();
+    }
+
+    private static String escape(String s) {
+        return s.replace("\r", "\\r").replace("\n", "\\n");
+    }
+}